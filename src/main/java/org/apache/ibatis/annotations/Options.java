@@ -31,6 +31,8 @@ import org.apache.ibatis.mapping.StatementType;
 public @interface Options {
   boolean useCache() default true;
 
+  boolean localCache() default true;
+
   boolean flushCache() default false;
 
   ResultSetType resultSetType() default ResultSetType.FORWARD_ONLY;
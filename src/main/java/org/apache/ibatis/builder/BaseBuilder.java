@@ -62,6 +62,10 @@ public abstract class BaseBuilder {
         return value == null ? defaultValue : Integer.valueOf(value);
     }
 
+    protected Long longValueOf(String value, Long defaultValue) {
+        return value == null ? defaultValue : Long.valueOf(value);
+    }
+
     //把以逗号分割的一个字符串重新包装，返回一个Set
     protected Set<String> stringSetValueOf(String value, String defaultValue) {
         value = (value == null ? defaultValue : value);
@@ -115,7 +115,9 @@ public class MapperBuilderAssistant extends BaseBuilder {
         typeClass = valueOrDefault(typeClass, PerpetualCache.class);
         evictionClass = valueOrDefault(evictionClass, LruCache.class);
         //调用CacheBuilder构建cache,id=currentNamespace
-        Cache cache = new CacheBuilder(currentNamespace).implementation(typeClass).addDecorator(evictionClass).clearInterval(flushInterval).size(size).readWrite(readWrite).blocking(blocking).properties(props).build();
+        Cache cache = new CacheBuilder(currentNamespace).implementation(typeClass).addDecorator(evictionClass).clearInterval(flushInterval).size(size).readWrite(readWrite).blocking(blocking).memoryBudget(configuration.getCacheMemoryBudget())
+                .statistics(configuration.getCacheStatisticsRegistry().getStatistics(currentNamespace))
+                .snapshotManager(configuration.getCacheSnapshotManager()).properties(props).build();
         //加入缓存
         configuration.addCache(cache);
         //当前的缓存
@@ -201,7 +203,7 @@ public class MapperBuilderAssistant extends BaseBuilder {
     }
 
     //增加映射语句
-    public MappedStatement addMappedStatement(String id, SqlSource sqlSource, StatementType statementType, SqlCommandType sqlCommandType, Integer fetchSize, Integer timeout, String parameterMap, Class<?> parameterType, String resultMap, Class<?> resultType, ResultSetType resultSetType, boolean flushCache, boolean useCache, boolean resultOrdered, KeyGenerator keyGenerator, String keyProperty, String keyColumn, String databaseId, LanguageDriver lang, String resultSets) {
+    public MappedStatement addMappedStatement(String id, SqlSource sqlSource, StatementType statementType, SqlCommandType sqlCommandType, Integer fetchSize, Integer timeout, String parameterMap, Class<?> parameterType, String resultMap, Class<?> resultType, ResultSetType resultSetType, boolean flushCache, boolean useCache, boolean useLocalCache, boolean resultOrdered, KeyGenerator keyGenerator, String keyProperty, String keyColumn, String databaseId, LanguageDriver lang, String resultSets) {
 
         if (unresolvedCacheRef) {
             throw new IncompleteElementException("Cache-ref not yet resolved");
@@ -223,6 +225,7 @@ public class MapperBuilderAssistant extends BaseBuilder {
         mappedStatementBuilder.databaseId(databaseId);
         mappedStatementBuilder.lang(lang);
         mappedStatementBuilder.resultOrdered(resultOrdered);
+        mappedStatementBuilder.useLocalCache(useLocalCache);
         mappedStatementBuilder.resulSets(resultSets);
         setStatementTimeout(timeout, mappedStatementBuilder);//mappedStatementBuilder.timeout(timeout);
         //1.参数映射
@@ -394,6 +397,12 @@ public class MapperBuilderAssistant extends BaseBuilder {
         return javaType;
     }
 
+    /** Backward compatibility signature */
+    //向后兼容方法
+    public MappedStatement addMappedStatement(String id, SqlSource sqlSource, StatementType statementType, SqlCommandType sqlCommandType, Integer fetchSize, Integer timeout, String parameterMap, Class<?> parameterType, String resultMap, Class<?> resultType, ResultSetType resultSetType, boolean flushCache, boolean useCache, boolean resultOrdered, KeyGenerator keyGenerator, String keyProperty, String keyColumn, String databaseId, LanguageDriver lang, String resultSets) {
+        return addMappedStatement(id, sqlSource, statementType, sqlCommandType, fetchSize, timeout, parameterMap, parameterType, resultMap, resultType, resultSetType, flushCache, useCache, true, resultOrdered, keyGenerator, keyProperty, keyColumn, databaseId, lang, resultSets);
+    }
+
     /** Backward compatibility signature */
     //向后兼容方法
     public ResultMapping buildResultMapping(Class<?> resultType, String property, String column, Class<?> javaType, JdbcType jdbcType, String nestedSelect, String nestedResultMap, String notNullColumn, String columnPrefix, Class<? extends TypeHandler<?>> typeHandler, List<ResultFlag> flags) {
@@ -229,6 +229,7 @@ public class MapperAnnotationBuilder {
             boolean isSelect = sqlCommandType == SqlCommandType.SELECT;
             boolean flushCache = !isSelect;
             boolean useCache = isSelect;
+            boolean useLocalCache = true;
 
             KeyGenerator keyGenerator;
             String keyProperty = "id";
@@ -253,6 +254,7 @@ public class MapperAnnotationBuilder {
             if (options != null) {
                 flushCache = options.flushCache();
                 useCache = options.useCache();
+                useLocalCache = options.localCache();
                 fetchSize = options.fetchSize() > -1 || options.fetchSize() == Integer.MIN_VALUE ? options.fetchSize() : null; //issue #348
                 timeout = options.timeout() > -1 ? options.timeout() : null;
                 statementType = options.statementType();
@@ -277,7 +279,7 @@ public class MapperAnnotationBuilder {
 
             assistant.addMappedStatement(mappedStatementId, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
                     // ParameterMapID
-                    null, parameterTypeClass, resultMapId, getReturnType(method), resultSetType, flushCache, useCache,
+                    null, parameterTypeClass, resultMapId, getReturnType(method), resultSetType, flushCache, useCache, useLocalCache,
                     // TODO issue #577
                     false, keyGenerator, keyProperty, keyColumn,
                     // DatabaseID
@@ -17,6 +17,7 @@ package org.apache.ibatis.builder.xml;
 
 import org.apache.ibatis.builder.BaseBuilder;
 import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.cache.CacheInvalidationBus;
 import org.apache.ibatis.datasource.DataSourceFactory;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.loader.ProxyFactory;
@@ -312,8 +313,21 @@ public class XMLConfigBuilder extends BaseBuilder {
     //  <setting name="safeRowBoundsEnabled" value="false"/>
     //  <setting name="mapUnderscoreToCamelCase" value="false"/>
     //  <setting name="localCacheScope" value="SESSION"/>
+    //  <setting name="localCacheSize" value="0"/>
+    //  <setting name="localCacheMaxBytes" value="0"/>
     //  <setting name="jdbcTypeForNull" value="OTHER"/>
     //  <setting name="lazyLoadTriggerMethods" value="equals,clone,hashCode,toString"/>
+    //  <setting name="resultMappingThreads" value="0"/>
+    //  <setting name="resultMappingBatchSize" value="256"/>
+    //  <setting name="cacheMaxBytes" value="0"/>
+    //  <setting name="cacheRefreshThreads" value="2"/>
+    //  <setting name="cacheInvalidationBus" value="LOOPBACK"/>
+    //  <setting name="cacheJmxEnabled" value="false"/>
+    //  <setting name="cacheReadOnlyFastPath" value="false"/>
+    //  <setting name="cacheSnapshotDirectory" value="/var/cache/mybatis"/>
+    //  <setting name="cacheSnapshotMaxAge" value="3600000"/>
+    //  <setting name="queryCoalescing" value="false"/>
+    //  <setting name="queryCoalescingTimeout" value="3000"/>
     //</settings>
     private void settingsElement(XNode context) throws Exception {
         if (context != null) {
@@ -355,6 +369,9 @@ public class XMLConfigBuilder extends BaseBuilder {
             configuration.setSafeRowBoundsEnabled(booleanValueOf(props.getProperty("safeRowBoundsEnabled"), false));
             //默认用session级别的缓存
             configuration.setLocalCacheScope(LocalCacheScope.valueOf(props.getProperty("localCacheScope", "SESSION")));
+            //一级缓存最多条数和估算字节数(0为不限制), 超出时在最外层查询结束后按LRU淘汰
+            configuration.setLocalCacheSize(integerValueOf(props.getProperty("localCacheSize"), 0));
+            configuration.setLocalCacheMaxBytes(longValueOf(props.getProperty("localCacheMaxBytes"), 0L));
             //为null值设置jdbctype
             configuration.setJdbcTypeForNull(JdbcType.valueOf(props.getProperty("jdbcTypeForNull", "OTHER")));
             //Object的哪些方法将触发延迟加载
@@ -365,6 +382,25 @@ public class XMLConfigBuilder extends BaseBuilder {
             configuration.setDefaultScriptingLanguage(resolveClass(props.getProperty("defaultScriptingLanguage")));
             //当结果集中含有Null值时是否执行映射对象的setter或者Map对象的put方法。此设置对于原始类型如int,boolean等无效。
             configuration.setCallSettersOnNulls(booleanValueOf(props.getProperty("callSettersOnNulls"), false));
+            //并行映射结果集的线程数(0为不并行)和每批的行数
+            configuration.setResultMappingThreads(integerValueOf(props.getProperty("resultMappingThreads"), 0));
+            configuration.setResultMappingBatchSize(integerValueOf(props.getProperty("resultMappingBatchSize"), 256));
+            //所有二级缓存合计最多占用多少字节(0为不限制)
+            configuration.setCacheMaxBytes(longValueOf(props.getProperty("cacheMaxBytes"), 0L));
+            //stale-while-revalidate缓存后台刷新的线程数
+            configuration.setCacheRefreshThreads(integerValueOf(props.getProperty("cacheRefreshThreads"), 2));
+            //多节点之间同步二级缓存失效
+            configuration.setCacheInvalidationBus((CacheInvalidationBus) createInstance(props.getProperty("cacheInvalidationBus")));
+            //把各二级缓存的统计注册成JMX MBean
+            configuration.setCacheJmxEnabled(booleanValueOf(props.getProperty("cacheJmxEnabled"), false));
+            //没写过的事务直接读写二级缓存, 默认关闭. 通过SqlSession.getConnection()自己写数据库的不要打开
+            configuration.setCacheReadOnlyFastPath(booleanValueOf(props.getProperty("cacheReadOnlyFastPath"), false));
+            //配了snapshot属性的缓存关闭时保存到这个目录, 启动时在后台恢复, 超过多久(毫秒)的快照不恢复
+            configuration.setCacheSnapshotDirectory(props.getProperty("cacheSnapshotDirectory"));
+            configuration.setCacheSnapshotMaxAge(longValueOf(props.getProperty("cacheSnapshotMaxAge"), 3600000L));
+            //多个session同时发出的相同查询合并成一次, 要求cacheEnabled
+            configuration.setQueryCoalescing(booleanValueOf(props.getProperty("queryCoalescing"), false));
+            configuration.setQueryCoalescingTimeout(longValueOf(props.getProperty("queryCoalescingTimeout"), 3000L));
             //logger名字的前缀
             configuration.setLogPrefix(props.getProperty("logPrefix"));
             //显式定义用什么log框架，不定义则用默认的自动发现jar包机制
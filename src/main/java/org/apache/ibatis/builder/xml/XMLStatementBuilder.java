@@ -68,6 +68,7 @@ public class XMLStatementBuilder extends BaseBuilder {
     //  resultMap="personResultMap"
     //  flushCache="false"
     //  useCache="true"
+    //  localCache="true"
     //  timeout="10000"
     //  fetchSize="256"
     //  statementType="PREPARED"
@@ -115,6 +116,8 @@ public class XMLStatementBuilder extends BaseBuilder {
         boolean flushCache = context.getBooleanAttribute("flushCache", !isSelect);
         //是否要缓存select结果
         boolean useCache = context.getBooleanAttribute("useCache", isSelect);
+        //是否把结果留在一级缓存里, false时只在本次(最外层)查询内有效
+        boolean useLocalCache = context.getBooleanAttribute("localCache", true);
         //仅针对嵌套结果 select 语句适用：如果为 true，就是假设包含了嵌套结果集或是分组了，这样的话当返回一个主结果行的时候，就不会发生有对前面结果集的引用的情况。
         //这就使得在获取嵌套的结果集的时候不至于导致内存不够用。默认值：false。
         boolean resultOrdered = context.getBooleanAttribute("resultOrdered", false);
@@ -150,7 +153,7 @@ public class XMLStatementBuilder extends BaseBuilder {
         //又去调助手类
         builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType,
                 fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass,
-                resultSetTypeEnum, flushCache, useCache, resultOrdered,
+                resultSetTypeEnum, flushCache, useCache, useLocalCache, resultOrdered,
                 keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets);
     }
 
@@ -0,0 +1,108 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个缓存在一次提交里的失效: 整个清空, 或者若干个按表/键的写操作(见TableDependency)
+ */
+public final class CacheInvalidation implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int FORMAT_VERSION = 1;
+
+    private final String cacheId;
+    private final boolean clear;
+    private final List<TableDependency> writes;
+
+    public CacheInvalidation(String cacheId, boolean clear, List<TableDependency> writes) {
+        this.cacheId = cacheId;
+        this.clear = clear;
+        this.writes = clear ? Collections.<TableDependency>emptyList() : Collections.unmodifiableList(new ArrayList<TableDependency>(writes));
+    }
+
+    public static CacheInvalidation clear(String cacheId) {
+        return new CacheInvalidation(cacheId, true, null);
+    }
+
+    /**
+     * 缓存id, 也就是定义&lt;cache&gt;的namespace
+     */
+    public String getCacheId() {
+        return cacheId;
+    }
+
+    public boolean isClear() {
+        return clear;
+    }
+
+    public List<TableDependency> getWrites() {
+        return writes;
+    }
+
+    /**
+     * 写成节点之间传递用的格式: 格式版本、缓存id、是否清空、写操作的个数, 每个写操作的表、键列和键值.<br/>
+     * 跨进程传递时用这个格式而不是java序列化, 收到的数据只会被解析成这几个字段
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeUTF(cacheId);
+        out.writeBoolean(clear);
+        if (!clear) {
+            out.writeInt(writes.size());
+            for (TableDependency write : writes) {
+                write.writeTo(out);
+            }
+        }
+    }
+
+    /**
+     * 读{@link #writeTo}写出的格式
+     * @throws IOException 数据不完整或者格式不对
+     */
+    public static CacheInvalidation readFrom(DataInput in) throws IOException {
+        final int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported cache invalidation format version " + version);
+        }
+        final String cacheId = in.readUTF();
+        if (in.readBoolean()) {
+            return clear(cacheId);
+        }
+        final int writeCount = in.readInt();
+        if (writeCount < 0) {
+            throw new IOException("Invalid write count " + writeCount);
+        }
+        final List<TableDependency> writes = new ArrayList<TableDependency>();
+        for (int i = 0; i < writeCount; i++) {
+            writes.add(TableDependency.readFrom(in));
+        }
+        return new CacheInvalidation(cacheId, false, writes);
+    }
+
+    @Override
+    public String toString() {
+        return cacheId + (clear ? " (clear)" : " " + writes);
+    }
+
+}
@@ -0,0 +1,36 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * 多个JVM之间同步二级缓存失效的SPI, 通过Configuration.setCacheInvalidationBus或
+ * &lt;setting name="cacheInvalidationBus" value="..."/&gt;(实现类要有无参构造器)启用.<br/>
+ * TransactionalCacheManager.commit把本节点提交的失效(整个namespace清空, 或按表/键失效)发布出去;
+ * Configuration订阅其它节点发来的失效, 应用到同id的缓存上. 实现不应该把本节点发布的消息再投递回本节点,
+ * 发布不能阻塞太久, 也不能因为投递失败影响提交
+ */
+public interface CacheInvalidationBus {
+
+    void publish(CacheInvalidation invalidation);
+
+    void subscribe(CacheInvalidationListener listener);
+
+    /**
+     * 停止接收, 释放线程、socket等资源
+     */
+    void close();
+
+}
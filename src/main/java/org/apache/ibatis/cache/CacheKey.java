@@ -15,29 +15,30 @@
  */
 package org.apache.ibatis.cache;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Cache<K, V>, CacheKey用作Cache的K <br/>
- * MyBatis 对于其 Key 的生成采取规则为：[mappedStatementId + offset + limit + SQL + queryParams + environment]生成一个哈希码
+ * MyBatis 对于其 Key 的生成采取规则为：[mappedStatementId + offset + limit + SQL + queryParams + environment]生成一个哈希码<br/>
+ * 语句id和SQL作为一个预先算好的{@link CacheKeyPrefix}放在前面, 后面的值存在一个定长数组里, 同时滚动计算64位hash
  */
 public class CacheKey implements Cloneable, Serializable {
-    //static
+    //static, EMPTY要在NULL_CACHE_KEY之前初始化
+    private static final Object[] EMPTY = new Object[0];
     public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
-    private static final long serialVersionUID = 1146682552656046210L;
-    private static final int DEFAULT_MULTIPLYER = 37;
-    private static final int DEFAULT_HASHCODE = 17;
+    private static final long serialVersionUID = -4813679205823574172L;
+    private static final long SEED = 0x9E3779B97F4A7C15L;
     //fields
-    private int multiplier;
-    /** 核心字段 */
-    private int hashcode;
-    private long checksum;
+    private final CacheKeyPrefix prefix;
+    /** 核心字段, 64位hash */
+    private long hash;
     /** 更新次数, 每次执行doUpdate方法加一 */
     private int count;
-    private List<Object> updateList;
+    private Object[] values;
 
     //传入一个Object数组，更新hashcode和效验码
     public CacheKey(Object[] objects) {
@@ -46,10 +47,18 @@ public class CacheKey implements Cloneable, Serializable {
     }
 
     public CacheKey() {
-        this.hashcode = DEFAULT_HASHCODE;
-        this.multiplier = DEFAULT_MULTIPLYER;
+        this(null, 0);
+    }
+
+    /**
+     * @param prefix        语句id和SQL, 可以为null
+     * @param expectedCount 预计update的次数, 数组一次分配到位
+     */
+    public CacheKey(CacheKeyPrefix prefix, int expectedCount) {
+        this.prefix = prefix;
+        this.hash = prefix == null ? SEED : prefix.getFingerprint();
         this.count = 0;
-        this.updateList = new ArrayList<Object>();
+        this.values = expectedCount > 0 ? new Object[expectedCount] : EMPTY;
     }
 
     public void updateAll(Object[] objects) {
@@ -79,27 +88,39 @@ public class CacheKey implements Cloneable, Serializable {
      * update的算法部分
      */
     private void doUpdate(Object object) {
-        //计算hash值，校验码
-        //加入空判断
-        int baseHashCode = object == null ? 1 : object.hashCode();
+        hash = mix(hash, object);
 
-        count++;
-        checksum += baseHashCode;
-        baseHashCode *= count;
+        //同时将对象加入数组，这样万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
+        if (count == values.length) {
+            values = Arrays.copyOf(values, Math.max(4, count * 2));
+        }
+        values[count++] = object;
+    }
 
-        hashcode = multiplier * hashcode + baseHashCode;
+    //计算hash值, 加入空判断. 每一步都乘一个奇数常量再移位异或, 顺序不同hash就不同
+    private static long mix(long hash, Object object) {
+        int baseHashCode = object == null ? 1 : object.hashCode();
+        hash = (hash + baseHashCode) * SEED;
+        return hash ^ (hash >>> 29);
+    }
 
-        //同时将对象加入列表，这样万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
-        updateList.add(object);
+    //枚举等对象的hashCode每个JVM都不一样, 从别的JVM读进来(缓存快照)时按值重新算hash
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        long rehashed = prefix == null ? SEED : prefix.getFingerprint();
+        for (int i = 0; i < count; i++) {
+            rehashed = mix(rehashed, values[i]);
+        }
+        hash = rehashed;
     }
 
     public int getUpdateCount() {
-        return updateList.size();
+        return count;
     }
 
     @Override
     public int hashCode() {
-        return hashcode;
+        return (int) (hash ^ (hash >>> 32));
     }
 
     @Override
@@ -113,22 +134,22 @@ public class CacheKey implements Cloneable, Serializable {
 
         final CacheKey cacheKey = (CacheKey) object;
 
-        //先比hashcode，checksum，count，理论上可以快速比出来
-        if (hashcode != cacheKey.hashcode) {
+        //先比hash和count，理论上可以快速比出来
+        if (hash != cacheKey.hash) {
             return false;
         }
-        if (checksum != cacheKey.checksum) {
+        if (count != cacheKey.count) {
             return false;
         }
-        if (count != cacheKey.count) {
+        //前缀通常是同一个实例
+        if (prefix != cacheKey.prefix && (prefix == null || !prefix.equals(cacheKey.prefix))) {
             return false;
         }
 
         //万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
-        //这里两个list的size没比是否相等，其实前面count相等就已经保证了
-        for (int i = 0; i < updateList.size(); i++) {
-            Object thisObject = updateList.get(i);
-            Object thatObject = cacheKey.updateList.get(i);
+        for (int i = 0; i < count; i++) {
+            Object thisObject = values[i];
+            Object thatObject = cacheKey.values[i];
             if (thisObject == null) {
                 if (thatObject != null) {
                     return false;
@@ -145,15 +166,18 @@ public class CacheKey implements Cloneable, Serializable {
     @Override
     public CacheKey clone() throws CloneNotSupportedException {
         CacheKey clonedCacheKey = (CacheKey) super.clone();
-        clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+        clonedCacheKey.values = count == 0 ? EMPTY : Arrays.copyOf(values, count);
         return clonedCacheKey;
     }
 
     @Override
     public String toString() {
-        StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-        for (int i = 0; i < updateList.size(); i++) {
-            returnValue.append(':').append(updateList.get(i));
+        StringBuilder returnValue = new StringBuilder().append(hashCode()).append(':').append(Long.toHexString(hash));
+        if (prefix != null) {
+            returnValue.append(':').append(prefix);
+        }
+        for (int i = 0; i < count; i++) {
+            returnValue.append(':').append(values[i]);
         }
 
         return returnValue.toString();
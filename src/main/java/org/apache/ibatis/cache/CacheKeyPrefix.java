@@ -0,0 +1,95 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.Serializable;
+
+/**
+ * CacheKey的固定前缀: 语句id加上最终SQL. 由MappedStatement按SQL形态缓存, 同一形态的查询共用一个实例,
+ * CacheKey里只放它的引用, 比较时先比引用, 不用每次再算一遍长SQL的hash、比一遍String.equals.<br/>
+ * 反序列化等情况下出现的不同实例, 按64位指纹和内容比较
+ */
+public final class CacheKeyPrefix implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String id;
+    private final String sql;
+    private final long fingerprint;
+
+    public CacheKeyPrefix(String id, String sql) {
+        this.id = id;
+        this.sql = sql;
+        this.fingerprint = fingerprint(id, sql);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * 语句id和SQL的64位FNV-1a指纹
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    private static long fingerprint(String id, String sql) {
+        long hash = FNV_OFFSET;
+        hash = fnv(hash, id);
+        hash = (hash ^ 0xff) * FNV_PRIME;
+        return fnv(hash, sql);
+    }
+
+    private static long fnv(long hash, String text) {
+        for (int i = 0, length = text.length(); i < length; i++) {
+            final char c = text.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CacheKeyPrefix)) {
+            return false;
+        }
+        final CacheKeyPrefix that = (CacheKeyPrefix) o;
+        return fingerprint == that.fingerprint && id.equals(that.id) && sql.equals(that.sql);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return id + ":" + sql;
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.MemoryBoundedCache;
+
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 所有二级缓存共用的内存预算, 每个Configuration一个(setting: cacheMaxBytes).<br/>
+ * MemoryBoundedCache放入条目时申请, 移除时归还; 超出预算后从占用最多的缓存开始淘汰最久没用的条目,
+ * 不会因为别的namespace占满了预算就把正在写入的缓存清空
+ */
+public class CacheMemoryBudget {
+
+    /** 0表示不限制 */
+    private volatile long maxBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final List<MemoryBoundedCache> caches = new CopyOnWriteArrayList<MemoryBoundedCache>();
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public void allocate(long bytes) {
+        usedBytes.addAndGet(bytes);
+    }
+
+    public void release(long bytes) {
+        usedBytes.addAndGet(-bytes);
+    }
+
+    public boolean isExceeded() {
+        return maxBytes > 0 && usedBytes.get() > maxBytes;
+    }
+
+    /**
+     * 登记共用这个预算的缓存, 超出预算时才能从它们里面淘汰
+     */
+    public void register(MemoryBoundedCache cache) {
+        caches.add(cache);
+    }
+
+    /**
+     * 超出预算时, 每次从占用最多的缓存淘汰一个条目, 直到回到预算以内.
+     * 开始时排一次序, 之后只把刚淘汰过的缓存按新的占用放回去
+     * @param writer    刚写入的缓存
+     * @param newestKey writer里刚放进去的条目, 不淘汰
+     */
+    public void shed(MemoryBoundedCache writer, Object newestKey) {
+        if (!isExceeded()) {
+            return;
+        }
+        final PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>(Math.max(1, caches.size()));
+        for (MemoryBoundedCache cache : caches) {
+            candidates.add(new Candidate(cache));
+        }
+        while (isExceeded()) {
+            final Candidate candidate = candidates.poll();
+            if (candidate == null) {
+                //谁都淘汰不动了
+                return;
+            }
+            final MemoryBoundedCache cache = candidate.cache;
+            //淘汰不动的(空了, 或者只剩writer刚放的)不再放回去
+            if (cache.evictEldest(cache == writer ? newestKey : null)) {
+                candidates.add(new Candidate(cache));
+            }
+        }
+    }
+
+    //排序时用的占用是放进队列那一刻的, 别的线程同时在写也不会破坏堆的顺序
+    private static final class Candidate implements Comparable<Candidate> {
+
+        private final MemoryBoundedCache cache;
+        private final long usedBytes;
+
+        Candidate(MemoryBoundedCache cache) {
+            this.cache = cache;
+            this.usedBytes = cache.getUsedBytes();
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return usedBytes > other.usedBytes ? -1 : (usedBytes == other.usedBytes ? 0 : 1);
+        }
+    }
+
+}
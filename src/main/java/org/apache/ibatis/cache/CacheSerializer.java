@@ -0,0 +1,40 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.Serializable;
+
+/**
+ * SerializedCache(readOnly="false")用来给缓存值做副本的SPI.<br/>
+ * 放入时把值转成存储形式(通常是byte[]), 取出时再还原成一份新的副本, 调用方改动拿到的对象不会影响缓存.<br/>
+ * 通过&lt;cache&gt;的&lt;property name="serializer" value="..."/&gt;指定, 可以是别名(JAVA, CLONING)或实现类全名,
+ * 实现类要有无参构造器并且线程安全
+ */
+public interface CacheSerializer {
+
+    /**
+     * @param value 要缓存的值, 可能为null
+     * @return 存储形式, 之后会原样传给deserialize
+     */
+    Object serialize(Serializable value);
+
+    /**
+     * @param stored serialize返回的存储形式
+     * @return 一份新的副本
+     */
+    Serializable deserialize(Object stored);
+
+}
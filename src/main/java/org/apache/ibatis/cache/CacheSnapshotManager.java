@@ -0,0 +1,292 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.SnapshotCache;
+import org.apache.ibatis.cache.decorators.TableDependencyCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 二级缓存的启动预热: &lt;setting name="cacheSnapshotDirectory" value="..."/&gt;配置了目录时,
+ * 配了snapshot属性的缓存在JVM关闭时各自写一个快照文件, 下次构建SqlSessionFactory时由后台线程读回来.<br/>
+ * 只保存key和value都能序列化的条目(readOnly="false"的缓存都可以), 超过cacheSnapshotMaxAge的快照不恢复.
+ * 恢复是尽力而为的: 读不出来的条目跳过, 恢复期间缓存被清空或有条目失效, 剩下的就不放了
+ */
+public class CacheSnapshotManager {
+
+    private static final Log log = LogFactory.getLog(CacheSnapshotManager.class);
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".snapshot";
+
+    private final ConcurrentMap<String, Registration> caches = new ConcurrentHashMap<String, Registration>();
+    private volatile File directory;
+    private volatile long maxAge = 3600000;
+    private boolean started;
+
+    /**
+     * @param cache         CacheBuilder构建出的最外层
+     * @param snapshotCache 其中的SnapshotCache
+     */
+    public void register(Cache cache, SnapshotCache snapshotCache) {
+        caches.put(cache.getId(), new Registration(cache, snapshotCache));
+    }
+
+    public String getDirectory() {
+        return directory == null ? null : directory.getPath();
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory == null ? null : new File(directory);
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @param maxAge 快照最多隔多久(毫秒)还能恢复, 0为不限制
+     */
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * 构建SqlSessionFactory时调用: 后台恢复快照, 并在JVM关闭时保存. 同一个Configuration只做一次
+     */
+    public synchronized void start() {
+        if (started || !isEnabled() || caches.isEmpty()) {
+            return;
+        }
+        started = true;
+        final Thread restorer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                restore();
+            }
+        }, "mybatis-cache-snapshot-restore");
+        restorer.setDaemon(true);
+        restorer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        }, "mybatis-cache-snapshot-save"));
+    }
+
+    /**
+     * 把所有登记的缓存写到快照目录
+     */
+    public void save() {
+        final File dir = directory;
+        if (dir == null) {
+            return;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            log.warn("Cannot create cache snapshot directory " + dir);
+            return;
+        }
+        for (Registration registration : caches.values()) {
+            try {
+                save(dir, registration);
+            } catch (Exception e) {
+                log.warn("Error saving snapshot of cache " + registration.cache.getId() + ".  Cause: " + e);
+            }
+        }
+    }
+
+    /**
+     * 把快照目录里的条目放回各个登记的缓存
+     */
+    public void restore() {
+        final File dir = directory;
+        if (dir == null) {
+            return;
+        }
+        for (Registration registration : caches.values()) {
+            final File file = fileFor(dir, registration.cache.getId());
+            if (!file.isFile()) {
+                continue;
+            }
+            try {
+                restore(file, registration);
+            } catch (Exception e) {
+                log.warn("Error restoring snapshot of cache " + registration.cache.getId() + ".  Cause: " + e);
+            }
+        }
+    }
+
+    private void save(File dir, Registration registration) throws IOException {
+        final String id = registration.cache.getId();
+        final File file = fileFor(dir, id);
+        final File temp = new File(dir, file.getName() + ".tmp");
+        int saved = 0;
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(id);
+            out.writeLong(System.currentTimeMillis());
+            final boolean dependent = registration.cache instanceof TableDependencyCache;
+            for (Map.Entry<Object, Object> entry : registration.snapshotCache.entries().entrySet()) {
+                final TableDependency dependency = dependent
+                        ? ((TableDependencyCache) registration.cache).getDependency(entry.getKey()) : null;
+                //按表失效的缓存, 没有依赖记录的条目恢复以后就没法失效了
+                if (dependent && dependency == null) {
+                    continue;
+                }
+                final byte[] record = serialize(entry.getKey(), entry.getValue(), dependency);
+                if (record != null) {
+                    out.writeInt(record.length);
+                    out.write(record);
+                    saved++;
+                }
+            }
+            out.writeInt(-1);
+        } finally {
+            out.close();
+        }
+        if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Saved " + saved + " entries of cache " + id + " to " + file);
+        }
+    }
+
+    private void restore(File file, Registration registration) throws IOException {
+        final String id = registration.cache.getId();
+        final List<Object[]> records = new ArrayList<Object[]>();
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != FORMAT_VERSION || !id.equals(in.readUTF())) {
+                return;
+            }
+            final long age = System.currentTimeMillis() - in.readLong();
+            if (maxAge > 0 && age > maxAge) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Snapshot of cache " + id + " is " + age + "ms old, not restored");
+                }
+                return;
+            }
+            for (int length = in.readInt(); length >= 0; length = in.readInt()) {
+                final byte[] record = new byte[length];
+                in.readFully(record);
+                final Object[] entry = deserialize(record);
+                if (entry != null) {
+                    records.add(entry);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        //反序列化都做完了再往缓存里放, 放的时候才和查询线程抢锁
+        final long since = registration.snapshotCache.getModifications();
+        int restored = 0;
+        for (Object[] entry : records) {
+            //没有保存依赖的条目和不带依赖放入的一样, 按依赖所有表登记
+            if (registration.cache instanceof TableDependencyCache) {
+                ((TableDependencyCache) registration.cache).recordDependency(entry[0],
+                        entry[2] != null ? (TableDependency) entry[2] : TableDependency.ALL_TABLES);
+            }
+            if (!registration.snapshotCache.restore(entry[0], entry[1], since)) {
+                break;
+            }
+            restored++;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Restored " + restored + " of " + records.size() + " entries of cache " + id + " from " + file);
+        }
+    }
+
+    //每个条目单独序列化, 一个条目失败不会破坏整个文件
+    private byte[] serialize(Object key, Object value, TableDependency dependency) {
+        if (!(key instanceof Serializable) || !(value instanceof Serializable)) {
+            return null;
+        }
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(key);
+            out.writeObject(value);
+            out.writeObject(dependency);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            //对象图里有不能序列化的
+            return null;
+        }
+    }
+
+    private Object[] deserialize(byte[] record) {
+        try {
+            final ObjectInputStream in = new SerializedCache.CustomObjectInputStream(new ByteArrayInputStream(record));
+            try {
+                return new Object[]{in.readObject(), in.readObject(), in.readObject()};
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            //类改过了或者找不到
+            return null;
+        }
+    }
+
+    private static File fileFor(File dir, String id) {
+        try {
+            return new File(dir, URLEncoder.encode(id, "UTF-8") + SUFFIX);
+        } catch (UnsupportedEncodingException e) {
+            throw new CacheException(e);
+        }
+    }
+
+    private static final class Registration {
+        private final Cache cache;
+        private final SnapshotCache snapshotCache;
+
+        Registration(Cache cache, SnapshotCache snapshotCache) {
+            this.cache = cache;
+            this.snapshotCache = snapshotCache;
+        }
+    }
+
+}
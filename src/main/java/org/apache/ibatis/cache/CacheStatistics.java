@@ -0,0 +1,193 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.MemoryBoundedCache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 一个二级缓存的统计. CacheBuilder把它交给有statistics属性的各层(LoggingCache记命中/未命中/写入,
+ * 淘汰策略记淘汰, ExpiringCache记过期), CachingExecutor记未命中后的加载耗时.<br/>
+ * 计数器按线程分段累加, 读的时候再求和, 高并发读缓存时不会都挤在一个AtomicLong上
+ */
+public class CacheStatistics implements CacheStatisticsMXBean {
+
+    private final String id;
+    private final Counter hits = new Counter();
+    private final Counter misses = new Counter();
+    private final Counter puts = new Counter();
+    private final Counter evictions = new Counter();
+    private final Counter expirations = new Counter();
+    private final Counter loads = new Counter();
+    private final Counter loadTime = new Counter();
+    private volatile Cache cache;
+    private volatile MemoryBoundedCache memoryBoundedCache;
+
+    public CacheStatistics(String id) {
+        this.id = id;
+    }
+
+    /**
+     * @param cache              取当前条数用, 一般是CacheBuilder构建出的最外层
+     * @param memoryBoundedCache 取估算字节数用, 可以为null
+     */
+    public void attach(Cache cache, MemoryBoundedCache memoryBoundedCache) {
+        this.cache = cache;
+        this.memoryBoundedCache = memoryBoundedCache;
+    }
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    public void recordPut() {
+        puts.increment();
+    }
+
+    public void recordEviction() {
+        evictions.increment();
+    }
+
+    public void recordExpiration() {
+        expirations.increment();
+    }
+
+    public void recordLoad(long nanos) {
+        loads.increment();
+        loadTime.add(nanos);
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long hitCount = getHits();
+        final long requests = hitCount + getMisses();
+        return requests == 0 ? 0 : (double) hitCount / (double) requests;
+    }
+
+    @Override
+    public long getPuts() {
+        return puts.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    @Override
+    public long getTotalLoadTimeNanos() {
+        return loadTime.sum();
+    }
+
+    @Override
+    public double getAverageLoadTimeMillis() {
+        final long loadCount = getLoads();
+        return loadCount == 0 ? 0 : getTotalLoadTimeNanos() / 1000000.0 / loadCount;
+    }
+
+    @Override
+    public int getSize() {
+        final Cache current = cache;
+        return current == null ? 0 : current.getSize();
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        final MemoryBoundedCache current = memoryBoundedCache;
+        return current == null ? -1 : current.getUsedBytes();
+    }
+
+    @Override
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        puts.reset();
+        evictions.reset();
+        expirations.reset();
+        loads.reset();
+        loadTime.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics[" + id + ": hits=" + getHits() + ", misses=" + getMisses() + ", puts=" + getPuts()
+                + ", evictions=" + getEvictions() + ", expirations=" + getExpirations() + ", loads=" + getLoads()
+                + ", size=" + getSize() + "]";
+    }
+
+    /**
+     * 分段计数器, 每个线程按id落到一段上, 段之间隔开一个缓存行
+     */
+    private static final class Counter {
+        private static final int STRIPES = 16;
+        private static final int PADDING = 8;
+
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+        void increment() {
+            add(1);
+        }
+
+        void add(long delta) {
+            cells.addAndGet((int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING, delta);
+        }
+
+        long sum() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * PADDING);
+            }
+            return sum;
+        }
+
+        void reset() {
+            for (int i = 0; i < STRIPES; i++) {
+                cells.set(i * PADDING, 0);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * 二级缓存统计的JMX接口, 见{@link CacheStatisticsRegistry}
+ */
+public interface CacheStatisticsMXBean {
+
+    String getId();
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getPuts();
+
+    /** 因为容量(条数或字节)被淘汰的条目数 */
+    long getEvictions();
+
+    /** 因为TTL过期被移除的条目数 */
+    long getExpirations();
+
+    /** 未命中后查数据库的次数 */
+    long getLoads();
+
+    long getTotalLoadTimeNanos();
+
+    double getAverageLoadTimeMillis();
+
+    int getSize();
+
+    /** 按字节限制大小的缓存当前估算占用的字节数, 没有按字节限制时为-1 */
+    long getEstimatedBytes();
+
+    void reset();
+
+}
@@ -0,0 +1,125 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Configuration级别的二级缓存统计登记处, 每个namespace(缓存id)一份.<br/>
+ * &lt;setting name="cacheJmxEnabled" value="true"/&gt;时同时注册成MBean:
+ * org.apache.ibatis:type=CacheStatistics,registry=序号,name="缓存id"
+ */
+public class CacheStatisticsRegistry {
+
+    private static final Log log = LogFactory.getLog(CacheStatisticsRegistry.class);
+    private static final AtomicInteger REGISTRY_NUMBER = new AtomicInteger();
+
+    private final ConcurrentMap<String, CacheStatistics> statistics = new ConcurrentHashMap<String, CacheStatistics>();
+    //同一个JVM里可能有多个Configuration定义了同名的namespace
+    private final int number = REGISTRY_NUMBER.incrementAndGet();
+    private final List<ObjectName> registeredNames = new ArrayList<ObjectName>();
+    private boolean jmxEnabled;
+
+    /**
+     * 取某个缓存的统计, 没有就新建一份
+     */
+    public CacheStatistics getStatistics(String id) {
+        CacheStatistics existing = statistics.get(id);
+        if (existing == null) {
+            final CacheStatistics created = new CacheStatistics(id);
+            existing = statistics.putIfAbsent(id, created);
+            if (existing == null) {
+                existing = created;
+                registerMBean(created);
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * @return 某个缓存的统计, 没有时返回null
+     */
+    public CacheStatistics findStatistics(String id) {
+        return statistics.get(id);
+    }
+
+    public Collection<CacheStatistics> getAllStatistics() {
+        return Collections.unmodifiableCollection(statistics.values());
+    }
+
+    public synchronized boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * 打开时把已有的统计都注册上去, 关闭时全部注销
+     */
+    public synchronized void setJmxEnabled(boolean jmxEnabled) {
+        if (this.jmxEnabled == jmxEnabled) {
+            return;
+        }
+        this.jmxEnabled = jmxEnabled;
+        if (jmxEnabled) {
+            for (CacheStatistics each : statistics.values()) {
+                registerMBean(each);
+            }
+        } else {
+            unregisterMBeans();
+        }
+    }
+
+    private synchronized void registerMBean(CacheStatistics cacheStatistics) {
+        if (!jmxEnabled) {
+            return;
+        }
+        try {
+            final ObjectName name = new ObjectName("org.apache.ibatis:type=CacheStatistics,registry=" + number
+                    + ",name=" + ObjectName.quote(cacheStatistics.getId()));
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(cacheStatistics, name);
+                registeredNames.add(name);
+            }
+        } catch (Exception e) {
+            log.warn("Error registering cache statistics MBean for " + cacheStatistics.getId() + ".  Cause: " + e);
+        }
+    }
+
+    private void unregisterMBeans() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registeredNames) {
+            try {
+                server.unregisterMBean(name);
+            } catch (Exception e) {
+                log.warn("Error unregistering cache statistics MBean " + name + ".  Cause: " + e);
+            }
+        }
+        registeredNames.clear();
+    }
+
+}
@@ -0,0 +1,31 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * 估算缓存条目占用的内存(字节数), 给MemoryBoundedCache用.<br/>
+ * 可以通过&lt;cache&gt;的&lt;property name="weigher" value="..."/&gt;换成自己的实现, 实现类要有无参构造器
+ */
+public interface CacheWeigher {
+
+    /**
+     * @param key   通常是CacheKey
+     * @param value 放进缓存的值, 配了readOnly="false"时是序列化后的byte[]
+     * @return 估算的字节数, 不能为负
+     */
+    long weigh(Object key, Object value);
+
+}
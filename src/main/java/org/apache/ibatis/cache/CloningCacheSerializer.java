@@ -0,0 +1,257 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 用反射深拷贝代替序列化的CacheSerializer, &lt;property name="serializer" value="CLONING"/&gt;<br/>
+ * 缓存里存一份私有的深拷贝, 每次读再拷一份出来. 结果通常是由无参构造器的JavaBean、常用集合和不可变值组成的,
+ * 按对象的实际类型逐个字段复制比走一遍ObjectOutputStream/ObjectInputStream便宜得多.<br/>
+ * 遇到复制不了的对象(没有无参构造器, 延迟加载代理, 带Comparator的TreeMap等)整个值退回到DefaultCacheSerializer
+ */
+public class CloningCacheSerializer implements CacheSerializer {
+
+    private static final Map<Class<?>, Field[]> FIELDS = new ConcurrentHashMap<Class<?>, Field[]>();
+    private static final Map<Class<?>, Constructor<?>> CONSTRUCTORS = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+    private static final Map<Class<?>, Boolean> CUSTOM_SERIALIZATION = new ConcurrentHashMap<Class<?>, Boolean>();
+    private static final Set<String> CUSTOM_SERIALIZATION_METHODS = new HashSet<String>(
+            Arrays.asList("writeObject", "readObject", "readObjectNoData", "writeReplace", "readResolve"));
+
+    private final CacheSerializer fallback = new DefaultCacheSerializer();
+
+    @Override
+    public Object serialize(Serializable value) {
+        try {
+            return new Cloned(copy(value, new IdentityHashMap<Object, Object>()));
+        } catch (NotCloneableException e) {
+            return fallback.serialize(value);
+        }
+    }
+
+    @Override
+    public Serializable deserialize(Object stored) {
+        if (stored instanceof Cloned) {
+            //存进去的时候已经确认能复制了
+            return (Serializable) copy(((Cloned) stored).value, new IdentityHashMap<Object, Object>());
+        }
+        return fallback.deserialize(stored);
+    }
+
+    private Object copy(Object object, IdentityHashMap<Object, Object> copies) {
+        if (object == null || isImmutable(object)) {
+            return object;
+        }
+        final Object existing = copies.get(object);
+        if (existing != null) {
+            return existing;
+        }
+        final Class<?> type = object.getClass();
+        if (type.isArray()) {
+            return copyArray(object, type, copies);
+        } else if (object instanceof java.util.Date) {
+            final Object copy = ((java.util.Date) object).clone();
+            copies.put(object, copy);
+            return copy;
+        } else if (object instanceof Collection) {
+            return copyCollection((Collection<?>) object, type, copies);
+        } else if (object instanceof Map) {
+            return copyMap((Map<?, ?>) object, type, copies);
+        }
+        return copyBean(object, type, copies);
+    }
+
+    private Object copyArray(Object array, Class<?> type, IdentityHashMap<Object, Object> copies) {
+        final int length = Array.getLength(array);
+        final Object copy = Array.newInstance(type.getComponentType(), length);
+        copies.put(array, copy);
+        if (type.getComponentType().isPrimitive()) {
+            System.arraycopy(array, 0, copy, 0, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                Array.set(copy, i, copy(Array.get(array, i), copies));
+            }
+        }
+        return copy;
+    }
+
+    //只认识常用的几种实现, Arrays.asList、unmodifiableList、TreeSet之类的保持不了原样就不复制
+    @SuppressWarnings("unchecked")
+    private Object copyCollection(Collection<?> collection, Class<?> type, IdentityHashMap<Object, Object> copies) {
+        final Collection<Object> copy;
+        if (type == ArrayList.class) {
+            copy = new ArrayList<Object>(collection.size());
+        } else if (type == LinkedList.class) {
+            copy = new LinkedList<Object>();
+        } else if (type == HashSet.class) {
+            copy = new HashSet<Object>(collection.size() * 2);
+        } else if (type == LinkedHashSet.class) {
+            copy = new LinkedHashSet<Object>(collection.size() * 2);
+        } else {
+            throw new NotCloneableException();
+        }
+        copies.put(collection, copy);
+        for (Object element : collection) {
+            copy.add(copy(element, copies));
+        }
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object copyMap(Map<?, ?> map, Class<?> type, IdentityHashMap<Object, Object> copies) {
+        final Map<Object, Object> copy;
+        if (type == HashMap.class) {
+            copy = new HashMap<Object, Object>(map.size() * 2);
+        } else if (type == LinkedHashMap.class) {
+            copy = new LinkedHashMap<Object, Object>(map.size() * 2);
+        } else {
+            throw new NotCloneableException();
+        }
+        copies.put(map, copy);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            copy.put(copy(entry.getKey(), copies), copy(entry.getValue(), copies));
+        }
+        return copy;
+    }
+
+    private Object copyBean(Object bean, Class<?> type, IdentityHashMap<Object, Object> copies) {
+        final String name = type.getName();
+        //延迟加载代理(javassist/cglib生成的子类)和MyBatis内部对象都不复制
+        if (!(bean instanceof Serializable) || name.startsWith("org.apache.ibatis.")
+                || name.startsWith("java.") || name.startsWith("javax.") || name.contains("$$")) {
+            throw new NotCloneableException();
+        }
+        if (hasCustomSerialization(type)) {
+            throw new NotCloneableException();
+        }
+        final Object copy = newInstance(type);
+        copies.put(bean, copy);
+        try {
+            for (Field field : fieldsOf(type)) {
+                final Object value = field.get(bean);
+                field.set(copy, field.getType().isPrimitive() ? value : copy(value, copies));
+            }
+        } catch (IllegalAccessException e) {
+            throw new NotCloneableException();
+        }
+        return copy;
+    }
+
+    //自己定制了序列化过程的类, 逐字段复制的结果可能和序列化不一样
+    private boolean hasCustomSerialization(Class<?> type) {
+        Boolean custom = CUSTOM_SERIALIZATION.get(type);
+        if (custom == null) {
+            custom = Boolean.FALSE;
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Method method : c.getDeclaredMethods()) {
+                    if (CUSTOM_SERIALIZATION_METHODS.contains(method.getName())) {
+                        custom = Boolean.TRUE;
+                    }
+                }
+            }
+            if (java.io.Externalizable.class.isAssignableFrom(type)) {
+                custom = Boolean.TRUE;
+            }
+            CUSTOM_SERIALIZATION.put(type, custom);
+        }
+        return custom;
+    }
+
+    private Object newInstance(Class<?> type) {
+        Constructor<?> constructor = CONSTRUCTORS.get(type);
+        if (constructor == null) {
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (Exception e) {
+                throw new NotCloneableException();
+            }
+            CONSTRUCTORS.put(type, constructor);
+        }
+        try {
+            return constructor.newInstance();
+        } catch (Exception e) {
+            throw new NotCloneableException();
+        }
+    }
+
+    private Field[] fieldsOf(Class<?> type) {
+        Field[] fields = FIELDS.get(type);
+        if (fields == null) {
+            final List<Field> list = new ArrayList<Field>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    final int modifiers = field.getModifiers();
+                    //transient字段序列化时也不会复制, 保持一致
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    try {
+                        field.setAccessible(true);
+                    } catch (SecurityException e) {
+                        throw new NotCloneableException();
+                    }
+                    list.add(field);
+                }
+            }
+            fields = list.toArray(new Field[list.size()]);
+            FIELDS.put(type, fields);
+        }
+        return fields;
+    }
+
+    private static boolean isImmutable(Object object) {
+        return object instanceof String || object instanceof Integer || object instanceof Long
+                || object instanceof Short || object instanceof Byte || object instanceof Double
+                || object instanceof Float || object instanceof Boolean || object instanceof Character
+                || object instanceof BigDecimal || object instanceof BigInteger
+                || object instanceof Enum || object instanceof Class;
+    }
+
+    //存储形式, 和DefaultCacheSerializer的byte[]区分开
+    private static final class Cloned {
+        final Object value;
+
+        Cloned(Object value) {
+            this.value = value;
+        }
+    }
+
+    private static final class NotCloneableException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+}
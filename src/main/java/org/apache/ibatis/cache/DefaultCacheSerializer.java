@@ -0,0 +1,136 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.io.Resources;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 默认的CacheSerializer, 还是Java序列化, 但是:
+ * <ul>
+ * <li>每个线程复用一个输出缓冲区, 不再每次put都new一个ByteArrayOutputStream并反复扩容</li>
+ * <li>类描述只写类名, 不写字段表和serialVersionUID, 读的时候按类名在本地查ObjectStreamClass.
+ * 缓存里的字节只在本JVM里用, 不存在版本兼容问题</li>
+ * </ul>
+ */
+public class DefaultCacheSerializer implements CacheSerializer {
+
+    //缓冲区超过这个大小就不留给下次用了, 免得一次大结果把内存一直占着
+    private static final int MAX_REUSED_BUFFER = 1024 * 1024;
+
+    private static final Map<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+
+    static {
+        for (Class<?> type : new Class<?>[]{boolean.class, byte.class, char.class, short.class, int.class,
+                long.class, float.class, double.class, void.class}) {
+            PRIMITIVES.put(type.getName(), type);
+        }
+    }
+
+    private static final ThreadLocal<ReusableOutputStream> BUFFER = new ThreadLocal<ReusableOutputStream>();
+
+    @Override
+    public Object serialize(Serializable value) {
+        ReusableOutputStream buffer = BUFFER.get();
+        if (buffer == null) {
+            buffer = new ReusableOutputStream();
+        } else {
+            BUFFER.remove();
+        }
+        try {
+            buffer.reset();
+            ObjectOutputStream oos = new CompactObjectOutputStream(buffer);
+            oos.writeObject(value);
+            oos.flush();
+            oos.close();
+            return buffer.toByteArray();
+        } catch (Exception e) {
+            throw new CacheException("Error serializing object.  Cause: " + e, e);
+        } finally {
+            //嵌套调用(writeObject里又用到缓存)时外层已经把缓冲区拿走了, 这里不会互相覆盖
+            if (buffer.capacity() <= MAX_REUSED_BUFFER) {
+                BUFFER.set(buffer);
+            }
+        }
+    }
+
+    @Override
+    public Serializable deserialize(Object stored) {
+        try {
+            ObjectInputStream ois = new CompactObjectInputStream(new ByteArrayInputStream((byte[]) stored));
+            Serializable result = (Serializable) ois.readObject();
+            ois.close();
+            return result;
+        } catch (Exception e) {
+            throw new CacheException("Error deserializing object.  Cause: " + e, e);
+        }
+    }
+
+    private static class ReusableOutputStream extends ByteArrayOutputStream {
+        ReusableOutputStream() {
+            super(1024);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+
+    private static class CompactObjectOutputStream extends ObjectOutputStream {
+        CompactObjectOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            writeUTF(desc.getName());
+        }
+    }
+
+    private static class CompactObjectInputStream extends ObjectInputStream {
+        CompactObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            return ObjectStreamClass.lookupAny(classForName(readUTF()));
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            return classForName(desc.getName());
+        }
+
+        //序列化int.class这样的Class对象时类描述里是基本类型的名字
+        private Class<?> classForName(String name) throws ClassNotFoundException {
+            final Class<?> primitive = PRIMITIVES.get(name);
+            return primitive != null ? primitive : Resources.classForName(name);
+        }
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 默认的内存估算: 按64位JVM粗略计算对象图的大小<br/>
+ * byte[](readOnly="false"时SerializedCache存的就是它)按实际长度算; String/集合/数组/Map逐个元素累加;
+ * 其它对象反射遍历实例字段. 同一个对象只算一次, 不进入Class、ClassLoader和MyBatis自己的对象(比如延迟加载代理里的ResultLoaderMap)
+ */
+public class DefaultCacheWeigher implements CacheWeigher {
+
+    private static final int OBJECT_HEADER = 16;
+    private static final int REFERENCE = 8;
+    private static final String CACHE_PACKAGE = "org.apache.ibatis.cache.";
+
+    private static final Map<Class<?>, Field[]> FIELDS = new ConcurrentHashMap<Class<?>, Field[]>();
+
+    @Override
+    public long weigh(Object key, Object value) {
+        final IdentityHashMap<Object, Object> visited = new IdentityHashMap<Object, Object>();
+        return sizeOf(key, visited) + sizeOf(value, visited);
+    }
+
+    //用显式的栈遍历, 长链表也不会栈溢出
+    private long sizeOf(Object root, IdentityHashMap<Object, Object> visited) {
+        long size = 0;
+        final LinkedList<Object> pending = new LinkedList<Object>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            final Object object = pending.removeLast();
+            if (object == null || visited.put(object, object) != null) {
+                continue;
+            }
+            size += shallowSizeOf(object, pending);
+        }
+        return size;
+    }
+
+    private long shallowSizeOf(Object object, List<Object> pending) {
+        final Class<?> type = object.getClass();
+        if (object instanceof byte[]) {
+            return align(OBJECT_HEADER + ((byte[]) object).length);
+        } else if (object instanceof String) {
+            return align(OBJECT_HEADER + REFERENCE + 8) + align(OBJECT_HEADER + 2L * ((String) object).length());
+        } else if (object instanceof Number || object instanceof Boolean || object instanceof Character
+                || object instanceof java.util.Date || object instanceof Enum) {
+            return 24;
+        } else if (type.isArray()) {
+            final int length = Array.getLength(object);
+            final Class<?> componentType = type.getComponentType();
+            if (componentType.isPrimitive()) {
+                return align(OBJECT_HEADER + (long) length * primitiveSize(componentType));
+            }
+            for (int i = 0; i < length; i++) {
+                pending.add(Array.get(object, i));
+            }
+            return align(OBJECT_HEADER + (long) length * REFERENCE);
+        } else if (object instanceof Collection) {
+            final Collection<?> collection = (Collection<?>) object;
+            pending.addAll(collection);
+            //数组加上每个元素一个节点的开销(ArrayList没有节点, 但HashSet/LinkedList有)
+            return align(OBJECT_HEADER + 16 + (long) collection.size() * REFERENCE * 2);
+        } else if (object instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) object;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                pending.add(entry.getKey());
+                pending.add(entry.getValue());
+            }
+            return align(OBJECT_HEADER + 16 + (long) map.size() * (REFERENCE + 32));
+        } else if (!isWalkable(type)) {
+            return 0;
+        }
+        long size = OBJECT_HEADER;
+        for (Field field : fieldsOf(type)) {
+            if (field.getType().isPrimitive()) {
+                size += primitiveSize(field.getType());
+            } else {
+                size += REFERENCE;
+                try {
+                    pending.add(field.get(object));
+                } catch (IllegalAccessException e) {
+                    // 访问不了的字段只算引用本身
+                }
+            }
+        }
+        return align(size);
+    }
+
+    private boolean isWalkable(Class<?> type) {
+        final String name = type.getName();
+        //CacheKey和各CacheSerializer的存储形式要算进去
+        if (name.startsWith(CACHE_PACKAGE) && name.indexOf('.', CACHE_PACKAGE.length()) < 0) {
+            return true;
+        }
+        return !(Class.class == type
+                || ClassLoader.class.isAssignableFrom(type)
+                || Thread.class.isAssignableFrom(type)
+                || name.startsWith("org.apache.ibatis.")
+                || name.startsWith("java.lang.reflect."));
+    }
+
+    private Field[] fieldsOf(Class<?> type) {
+        Field[] fields = FIELDS.get(type);
+        if (fields == null) {
+            final List<Field> list = new ArrayList<Field>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    try {
+                        field.setAccessible(true);
+                    } catch (SecurityException e) {
+                        // 取值时再按不可访问处理
+                    }
+                    list.add(field);
+                }
+            }
+            fields = list.toArray(new Field[list.size()]);
+            FIELDS.put(type, fields);
+        }
+        return fields;
+    }
+
+    private static int primitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 一条SQL涉及的表, 以及(可选的)键: 整条语句只有一张表, 并且WHERE只有"列 = ?"一个条件时, 记下这个列和参数值.<br/>
+ * 查询的依赖和写操作的依赖比较: 表没有交集就互不影响; 同一张表同一个键列但键值不同, 也互不影响; 其它情况都算受影响.<br/>
+ * 解析不出表(存储过程等)的语句当作依赖所有表. 可以写成CacheInvalidation的传输格式发给其它节点, 见{@link CacheInvalidation#writeTo}
+ */
+public final class TableDependency implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Pattern TABLE = Pattern.compile("(?<!for )\\b(from|join|update|into)\\s+([a-z_][\\w$.]*)");
+    private static final Pattern MORE_TABLES = Pattern.compile("\\G(?:\\s+(?:as\\s+)?(?!where\\b|group\\b|order\\b|having\\b|limit\\b|union\\b|on\\b|inner\\b|left\\b|right\\b|full\\b|cross\\b|join\\b)[a-z_]\\w*)?\\s*,\\s*([a-z_][\\w$.]*)");
+    private static final Pattern KEY_CONDITION = Pattern.compile("\\bwhere\\s+(?:[a-z_]\\w*\\.)?([a-z_]\\w*)\\s*=\\s*\\?\\s*$");
+    private static final Pattern SET_CLAUSE = Pattern.compile("\\bset\\s+(.*)\\bwhere\\b");
+    private static final Pattern SELECT = Pattern.compile("\\bselect\\b");
+
+    //同一条SQL只解析一次, 动态SQL的不同形态各占一项
+    private static final Map<String, TableDependency> PARSED = new ConcurrentHashMap<String, TableDependency>();
+    private static final int MAX_PARSED = 4096;
+
+    public static final TableDependency ALL_TABLES = new TableDependency(null, null, null);
+
+    private final Set<String> tables;
+    private final String keyColumn;
+    private final String keyValue;
+
+    private TableDependency(Set<String> tables, String keyColumn, String keyValue) {
+        this.tables = tables;
+        this.keyColumn = keyColumn;
+        this.keyValue = keyValue;
+    }
+
+    /**
+     * @param boundSql 查询或写操作最终执行的SQL和参数
+     */
+    public static TableDependency of(BoundSql boundSql) {
+        final TableDependency parsed = parse(boundSql.getSql());
+        if (parsed.keyColumn == null) {
+            return parsed;
+        }
+        final List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+        if (parameterMappings.isEmpty()) {
+            return new TableDependency(parsed.tables, null, null);
+        }
+        //"列 = ?"是最后一个占位符
+        final Object value = boundSql.getParameterValues()[parameterMappings.size() - 1];
+        if (value == null) {
+            return new TableDependency(parsed.tables, null, null);
+        }
+        return new TableDependency(parsed.tables, parsed.keyColumn, normalize(value));
+    }
+
+    static TableDependency parse(String sql) {
+        TableDependency parsed = PARSED.get(sql);
+        if (parsed == null) {
+            parsed = doParse(sql);
+            if (PARSED.size() >= MAX_PARSED) {
+                PARSED.clear();
+            }
+            PARSED.put(sql, parsed);
+        }
+        return parsed;
+    }
+
+    private static TableDependency doParse(String sql) {
+        final String normalized = sql.toLowerCase(Locale.ENGLISH).replaceAll("[\"`\\[\\]]", "").replaceAll("\\s+", " ").trim();
+        final Set<String> tables = new HashSet<String>();
+        final Matcher matcher = TABLE.matcher(normalized);
+        while (matcher.find()) {
+            tables.add(tableName(matcher.group(2)));
+            if ("from".equals(matcher.group(1))) {
+                //from a x, b y
+                final Matcher more = MORE_TABLES.matcher(normalized);
+                more.region(matcher.end(), normalized.length());
+                while (more.find()) {
+                    tables.add(tableName(more.group(1)));
+                }
+            }
+        }
+        if (tables.isEmpty()) {
+            return ALL_TABLES;
+        }
+        String keyColumn = null;
+        if (tables.size() == 1 && !normalized.contains(" join ") && countSelects(normalized) <= 1
+                && !normalized.startsWith("insert") && !normalized.startsWith("merge")) {
+            final Matcher key = KEY_CONDITION.matcher(normalized);
+            if (key.find()) {
+                keyColumn = key.group(1);
+                //update时把键列本身改掉, 会影响到别的键值的查询
+                final Matcher set = SET_CLAUSE.matcher(normalized);
+                if (normalized.startsWith("update") && set.find()
+                        && Pattern.compile("(?:^|[\\s,.])" + Pattern.quote(keyColumn) + "\\s*=").matcher(set.group(1)).find()) {
+                    keyColumn = null;
+                }
+            }
+        }
+        return new TableDependency(Collections.unmodifiableSet(tables), keyColumn, null);
+    }
+
+    private static int countSelects(String sql) {
+        int count = 0;
+        final Matcher matcher = SELECT.matcher(sql);
+        while (matcher.find()) {
+            count++;
+        }
+        return count;
+    }
+
+    //schema.table只留表名
+    private static String tableName(String name) {
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    //查询按Integer传, 更新按Long传也要认成同一个键
+    private static String normalize(Object value) {
+        if (value instanceof Number) {
+            try {
+                return new BigDecimal(value.toString()).stripTrailingZeros().toPlainString();
+            } catch (NumberFormatException e) {
+                return value.toString();
+            }
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * 是否依赖所有表(解析不出来)
+     */
+    public boolean isAllTables() {
+        return tables == null;
+    }
+
+    public Set<String> getTables() {
+        return tables;
+    }
+
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * @param write 写操作的依赖
+     * @return 这个写操作会不会改变本依赖对应的查询结果
+     */
+    public boolean isAffectedBy(TableDependency write) {
+        if (isAllTables() || write.isAllTables()) {
+            return true;
+        }
+        boolean shared = false;
+        for (String table : write.tables) {
+            if (tables.contains(table)) {
+                shared = true;
+                break;
+            }
+        }
+        if (!shared) {
+            return false;
+        }
+        return keyValue == null || write.keyValue == null
+                || !tables.equals(write.tables)
+                || !keyColumn.equals(write.keyColumn)
+                || keyValue.equals(write.keyValue);
+    }
+
+    //传输格式: 表的个数(-1表示所有表)、各表名、键列、键值
+    void writeTo(DataOutput out) throws IOException {
+        if (isAllTables()) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(tables.size());
+        for (String table : tables) {
+            out.writeUTF(table);
+        }
+        writeNullableUTF(out, keyColumn);
+        writeNullableUTF(out, keyValue);
+    }
+
+    static TableDependency readFrom(DataInput in) throws IOException {
+        final int tableCount = in.readInt();
+        if (tableCount == -1) {
+            return ALL_TABLES;
+        }
+        if (tableCount <= 0) {
+            throw new IOException("Invalid table count " + tableCount);
+        }
+        //不按tableCount预先分配, 数据不够时readUTF会抛EOFException
+        final Set<String> tables = new HashSet<String>();
+        for (int i = 0; i < tableCount; i++) {
+            tables.add(in.readUTF());
+        }
+        final String keyColumn = readNullableUTF(in);
+        final String keyValue = readNullableUTF(in);
+        if (keyColumn == null && keyValue != null) {
+            throw new IOException("Key value without key column");
+        }
+        return new TableDependency(Collections.unmodifiableSet(tables), keyColumn, keyValue);
+    }
+
+    private static void writeNullableUTF(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @Override
+    public String toString() {
+        if (isAllTables()) {
+            return "*";
+        }
+        return keyValue == null ? tables.toString() : tables + "[" + keyColumn + "=" + keyValue + "]";
+    }
+
+}
@@ -16,6 +16,8 @@
 package org.apache.ibatis.cache;
 
 import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -24,13 +26,32 @@ import java.util.Map;
  * 事务缓存管理器，被CachingExecutor使用
  */
 public class TransactionalCacheManager {
+    private static final Log log = LogFactory.getLog(TransactionalCacheManager.class);
+
     //管理了许多TransactionalCache
     private Map<Cache, TransactionalCache> transactionalCaches = new HashMap<Cache, TransactionalCache>();
+    //提交后把失效发布给其它节点, 可以为null
+    private final CacheInvalidationBus invalidationBus;
+
+    public TransactionalCacheManager() {
+        this(null);
+    }
+
+    public TransactionalCacheManager(CacheInvalidationBus invalidationBus) {
+        this.invalidationBus = invalidationBus;
+    }
 
     public void clear(Cache cache) {
         getTransactionalCache(cache).clear();
     }
 
+    /**
+     * 只失效受这个写操作影响的条目, cache不支持按表失效时等同于clear
+     */
+    public void invalidate(Cache cache, TableDependency write) {
+        getTransactionalCache(cache).invalidate(write);
+    }
+
     /**
      * 先从缓存里面取对象而非查询数据库, 一级缓存
      *
@@ -47,10 +68,30 @@ public class TransactionalCacheManager {
         getTransactionalCache(cache).putObject(key, value);
     }
 
+    /**
+     * @param dependency 查询结果依赖的表, 提交放入缓存时才登记
+     */
+    public void putObject(Cache cache, CacheKey key, Object value, TableDependency dependency) {
+        getTransactionalCache(cache).putObject(key, value, dependency);
+    }
+
     //提交时全部提交
     public void commit() {
         for (TransactionalCache txCache : transactionalCaches.values()) {
+            final CacheInvalidation invalidation = invalidationBus == null ? null : txCache.getInvalidationOnCommit();
             txCache.commit();
+            if (invalidation != null) {
+                publish(invalidation);
+            }
+        }
+    }
+
+    //数据库已经提交了, 发布失败只记日志, 其它节点的缓存靠各自的过期策略兜底
+    private void publish(CacheInvalidation invalidation) {
+        try {
+            invalidationBus.publish(invalidation);
+        } catch (RuntimeException e) {
+            log.warn("Error publishing cache invalidation " + invalidation + ".  Cause: " + e);
         }
     }
 
@@ -16,13 +16,13 @@ package org.apache.ibatis.cache.decorators;
  */
 
 import org.apache.ibatis.cache.Cache;
-import org.apache.ibatis.cache.CacheException;
 
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Simple blocking decorator
@@ -32,16 +32,30 @@ import java.util.concurrent.locks.ReentrantLock;
  *
  * @author Eduardo Macarron
  */
+/**
+ * single-flight: 同一个key缓存未命中时只让第一个线程去查数据库, 其它线程等它的结果.<br/>
+ * <ul>
+ * <li>第一个未命中的线程登记一个Flight, getObject返回null让它去查库; 随后的putObject(不论哪个线程调用,
+ * TransactionalCache是在commit时才put的)填充缓存、唤醒等待者并把Flight从map里删掉, map里不会积累锁对象</li>
+ * <li>等待者醒来后从delegate读, 经过SerializedCache的话拿到的还是自己的副本; 读不到(查询失败回滚了,
+ * 或者下层没有收下这个值)就重新来一轮: 第一个登记上新Flight的去查库, 其它的接着等它</li>
+ * <li>设了timeout的, 等超时了也返回null直接查库, 不再抛异常. 这样的线程没有自己的Flight,
+ * 它之后的putObject只放值, 不会结束别人的Flight</li>
+ * <li>同一个线程再次读到自己正在加载的key(嵌套查询, 提交前重复查询)不等待, 以免自己等自己</li>
+ * </ul>
+ */
 public class BlockingCache implements Cache {
 
     private long timeout;
     private final Cache delegate;
-    /** a ConcurrentHashMap */
-    private final ConcurrentHashMap<Object, ReentrantLock> locks;
+    /** 正在加载中的key */
+    private final ConcurrentHashMap<Object, Flight> flights;
+    /** 本线程等超时以后没有Flight就去加载的key */
+    private final ThreadLocal<Set<Object>> unownedLoads = new ThreadLocal<Set<Object>>();
 
     public BlockingCache(Cache delegate) {
         this.delegate = delegate;
-        this.locks = new ConcurrentHashMap<Object, ReentrantLock>();
+        this.flights = new ConcurrentHashMap<Object, Flight>();
     }
 
     @Override
@@ -54,23 +68,46 @@ public class BlockingCache implements Cache {
         return delegate.getSize();
     }
 
+    /** value为null表示加载方放弃了(TransactionalCache回滚或者没查出结果), 只唤醒等待者 */
     @Override
     public void putObject(Object key, Object value) {
         try {
-            delegate.putObject(key, value);
+            if (value != null) {
+                delegate.putObject(key, value);
+            }
         } finally {
-            releaseLock(key);
+            if (!finishUnownedLoad(key)) {
+                complete(key);
+            }
         }
     }
 
     @Override
     public Object getObject(Object key) {
-        acquireLock(key);
-        Object value = delegate.getObject(key);
-        if (value != null) {
-            releaseLock(key);
+        while (true) {
+            Object value = delegate.getObject(key);
+            if (value != null) {
+                return value;
+            }
+            final Flight flight = new Flight();
+            final Flight inFlight = flights.putIfAbsent(key, flight);
+            if (inFlight == null) {
+                //登记之前可能刚好有人加载完了
+                value = delegate.getObject(key);
+                if (value != null) {
+                    complete(key);
+                }
+                return value;
+            }
+            if (inFlight.owner == Thread.currentThread()) {
+                return null;
+            }
+            if (!inFlight.await(timeout)) {
+                startUnownedLoad(key);
+                return null;
+            }
+            //醒来还是读不到就再来一轮, 不能不登记Flight就去加载
         }
-        return value;
     }
 
     @Override
@@ -88,44 +125,60 @@ public class BlockingCache implements Cache {
         return null;
     }
 
-    /** 每个key都有自己的lock对象, 此方法得到key对应的的lock对象 */
-    private ReentrantLock getLockForKey(Object key) {
-        ReentrantLock lock = new ReentrantLock();
-        //键值对已存在则get,不存在则put.
-        ReentrantLock previous = locks.putIfAbsent(key, lock);
-        return previous == null ? lock : previous;
+    public long getTimeout() {
+        return timeout;
     }
 
-    /** 对key对应的锁对象上锁, 根据timeout字段选择执行trylock方法还是lock方法 */
-    private void acquireLock(Object key) {
-        Lock lock = getLockForKey(key);
-        if (timeout > 0) {//定时等待
-            try {
-                boolean acquired = lock.tryLock(timeout, TimeUnit.MILLISECONDS);
-                if (!acquired) {//获取锁超时
-                    throw new CacheException("Couldn't get a lock in " + timeout + " for the key " + key + " at the cache " + delegate.getId());
-                }
-            } catch (InterruptedException e) {
-                throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
-            }
-        } else {//永远等待
-            lock.lock();
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /** 结束加载: 先从map删掉再唤醒, 醒来的线程再未命中就会开始新的一轮 */
+    private void complete(Object key) {
+        final Flight flight = flights.remove(key);
+        if (flight != null) {
+            flight.done.countDown();
         }
     }
 
-    /** 解锁 */
-    private void releaseLock(Object key) {
-        ReentrantLock lock = locks.get(key);
-        if (lock.isHeldByCurrentThread()) {
-            lock.unlock();
+    private void startUnownedLoad(Object key) {
+        Set<Object> keys = unownedLoads.get();
+        if (keys == null) {
+            keys = new HashSet<Object>();
+            unownedLoads.set(keys);
         }
+        keys.add(key);
     }
 
-    public long getTimeout() {
-        return timeout;
+    //本线程是没有Flight就加载的这个key时返回true
+    private boolean finishUnownedLoad(Object key) {
+        final Set<Object> keys = unownedLoads.get();
+        if (keys == null || !keys.remove(key)) {
+            return false;
+        }
+        if (keys.isEmpty()) {
+            unownedLoads.remove();
+        }
+        return true;
     }
 
-    public void setTimeout(long timeout) {
-        this.timeout = timeout;
+    private static final class Flight {
+        final Thread owner = Thread.currentThread();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        //等到了返回true; 超时或者被中断返回false
+        boolean await(long timeout) {
+            try {
+                if (timeout > 0) {
+                    return done.await(timeout, TimeUnit.MILLISECONDS);
+                }
+                done.await();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
     }
-}
\ No newline at end of file
+
+}
@@ -0,0 +1,252 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 线程安全的LRU缓存, eviction="CONCURRENT"<br/>
+ * 数据直接存在ConcurrentHashMap里(不再使用delegate的HashMap, delegate只提供id),
+ * 读不加锁, 只把命中的节点记到一个有损的环形缓冲区; 写操作或缓冲区攒满时才拿锁,
+ * 批量把访问顺序回放到LRU链表上并淘汰超出size的节点.<br/>
+ * 因为自身线程安全, CacheBuilder不再给它套SynchronizedCache
+ */
+public class ConcurrentLruCache implements Cache {
+
+    //读缓冲区大小, 必须是2的幂
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    //每记录这么多次读就尝试回放一次
+    private static final int READ_DRAIN_THRESHOLD = 32;
+
+    private final Cache delegate;
+    private final ConcurrentMap<Object, Node> data = new ConcurrentHashMap<Object, Node>();
+    private final AtomicReferenceArray<Node> readBuffer = new AtomicReferenceArray<Node>(READ_BUFFER_SIZE);
+    private final AtomicLong readCount = new AtomicLong();
+    //以下字段都由evictionLock保护
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private long drainedReads;
+    private Node head;
+    private Node tail;
+    private volatile int size;
+    private volatile CacheStatistics statistics;
+
+    /**
+     * 默认最多1024个元素, 和LruCache一样
+     */
+    public ConcurrentLruCache(Cache delegate) {
+        this.delegate = delegate;
+        setSize(1024);
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public int getSize() {
+        return data.size();
+    }
+
+    /**
+     * @param size 最多保留的元素个数
+     */
+    public void setSize(int size) {
+        this.size = size;
+        if (data.size() > size) {
+            evictionLock.lock();
+            try {
+                evict();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        final Node node = new Node(key, value);
+        final Node replaced = data.put(key, node);
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            if (replaced != null) {
+                unlink(replaced);
+            }
+            //并发remove/clear可能已经把它移走了
+            if (data.get(key) == node) {
+                linkLast(node);
+            }
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        final Node node = data.get(key);
+        if (node == null) {
+            return null;
+        }
+        recordRead(node);
+        return node.value;
+    }
+
+    /**
+     * 淘汰时记到统计里, 由CacheBuilder设置
+     */
+    public void setStatistics(CacheStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        final Node node = data.remove(key);
+        if (node == null) {
+            return null;
+        }
+        evictionLock.lock();
+        try {
+            unlink(node);
+        } finally {
+            evictionLock.unlock();
+        }
+        return node.value;
+    }
+
+    @Override
+    public void clear() {
+        evictionLock.lock();
+        try {
+            data.clear();
+            for (Node node = head; node != null; ) {
+                final Node next = node.next;
+                node.prev = null;
+                node.next = null;
+                node.linked = false;
+                node = next;
+            }
+            head = null;
+            tail = null;
+            for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+                readBuffer.lazySet(i, null);
+            }
+            drainedReads = readCount.get();
+            delegate.clear();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+        return null;
+    }
+
+    //有损记录: 缓冲区满了就覆盖旧的, LRU本来就只是近似
+    private void recordRead(Node node) {
+        final long count = readCount.getAndIncrement();
+        readBuffer.lazySet((int) (count & READ_BUFFER_MASK), node);
+        if ((count & (READ_DRAIN_THRESHOLD - 1)) == 0 && evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffer() {
+        final long end = readCount.get();
+        //落后超过一圈的记录已经被覆盖了, 从最近一圈开始
+        long start = Math.max(drainedReads, end - READ_BUFFER_SIZE);
+        for (; start < end; start++) {
+            final Node node = readBuffer.getAndSet((int) (start & READ_BUFFER_MASK), null);
+            if (node != null && node.linked) {
+                unlink(node);
+                linkLast(node);
+            }
+        }
+        drainedReads = end;
+    }
+
+    private void evict() {
+        while (data.size() > size && head != null) {
+            final Node eldest = head;
+            unlink(eldest);
+            data.remove(eldest.key, eldest);
+            if (statistics != null) {
+                statistics.recordEviction();
+            }
+        }
+    }
+
+    private void linkLast(Node node) {
+        node.prev = tail;
+        node.next = null;
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+        node.linked = true;
+    }
+
+    private void unlink(Node node) {
+        if (!node.linked) {
+            return;
+        }
+        if (node.prev == null) {
+            head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        node.linked = false;
+    }
+
+    private static final class Node {
+        final Object key;
+        final Object value;
+        //以下字段由evictionLock保护
+        Node prev;
+        Node next;
+        boolean linked;
+
+        Node(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+}
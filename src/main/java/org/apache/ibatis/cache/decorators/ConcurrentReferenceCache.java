@@ -0,0 +1,183 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * 线程安全的软/弱引用缓存, eviction="CONCURRENT_SOFT"或"CONCURRENT_WEAK"<br/>
+ * 和SoftCache/WeakCache的区别:
+ * <ul>
+ * <li>数据直接存在ConcurrentHashMap里(delegate只提供id), CacheBuilder不再套SynchronizedCache</li>
+ * <li>最近命中的size个值放在一个环形数组里防止被回收, 命中时只做一次原子自增和一次写, 不再锁LinkedList</li>
+ * <li>被回收的引用每次最多清理DRAIN_BATCH个, 写操作和每隔若干次读时才清理, 同一时刻只有一个线程在清理</li>
+ * </ul>
+ */
+public abstract class ConcurrentReferenceCache implements Cache {
+
+    //每读这么多次顺带清理一次, 必须是2的幂
+    private static final int READ_DRAIN_INTERVAL = 64;
+    private static final int DRAIN_BATCH = 64;
+
+    private final Cache delegate;
+    private final ConcurrentMap<Object, Reference<Object>> data = new ConcurrentHashMap<Object, Reference<Object>>();
+    private final ReferenceQueue<Object> queueOfGarbageCollectedEntries = new ReferenceQueue<Object>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicLong hardLinkCount = new AtomicLong();
+    //换size时整个换掉, 旧数组里的强引用随之释放
+    private volatile AtomicReferenceArray<Object> hardLinksToAvoidGarbageCollection;
+    private volatile CacheStatistics statistics;
+
+    /**
+     * 默认保留最近256次命中的强引用, 和SoftCache一样
+     */
+    protected ConcurrentReferenceCache(Cache delegate) {
+        this.delegate = delegate;
+        setSize(256);
+    }
+
+    /**
+     * @return 带key的软/弱引用, 注册到queue上, 被回收后按key清理
+     */
+    protected abstract Reference<Object> newReference(Object key, Object value, ReferenceQueue<Object> queue);
+
+    /**
+     * @param reference 由{@link #newReference}创建的引用
+     */
+    protected abstract Object keyOf(Reference<?> reference);
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public int getSize() {
+        while (drain()) {
+            //清完为止
+        }
+        return data.size();
+    }
+
+    /**
+     * @param size 防止被回收的最近命中个数
+     */
+    public void setSize(int size) {
+        this.hardLinksToAvoidGarbageCollection = new AtomicReferenceArray<Object>(Math.max(1, size));
+    }
+
+    /**
+     * 淘汰时记到统计里, 由CacheBuilder设置
+     */
+    public void setStatistics(CacheStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        drain();
+        data.put(key, newReference(key, value, queueOfGarbageCollectedEntries));
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        final Reference<Object> reference = data.get(key);
+        if (reference == null) {
+            return null;
+        }
+        final Object result = reference.get();
+        if (result == null) {
+            //只删自己读到的这个引用, 并发put进来的新值不受影响
+            if (data.remove(key, reference)) {
+                recordEviction();
+            }
+            return null;
+        }
+        final long count = hardLinkCount.getAndIncrement();
+        final AtomicReferenceArray<Object> hardLinks = hardLinksToAvoidGarbageCollection;
+        hardLinks.lazySet((int) (count % hardLinks.length()), result);
+        if ((count & (READ_DRAIN_INTERVAL - 1)) == 0) {
+            drain();
+        }
+        return result;
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        drain();
+        final Reference<Object> reference = data.remove(key);
+        return reference == null ? null : reference.get();
+    }
+
+    @Override
+    public void clear() {
+        data.clear();
+        final AtomicReferenceArray<Object> hardLinks = hardLinksToAvoidGarbageCollection;
+        for (int i = 0; i < hardLinks.length(); i++) {
+            hardLinks.lazySet(i, null);
+        }
+        delegate.clear();
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+        return null;
+    }
+
+    /**
+     * 清理一批被回收的条目, 别的线程正在清理就跳过
+     *
+     * @return 这一批清满了, 队列里可能还有
+     */
+    private boolean drain() {
+        if (!draining.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                final Reference<?> reference = queueOfGarbageCollectedEntries.poll();
+                if (reference == null) {
+                    return false;
+                }
+                //已经被替换、删除或者clear掉的不算淘汰
+                if (data.remove(keyOf(reference), reference)) {
+                    recordEviction();
+                }
+            }
+            return true;
+        } finally {
+            draining.set(false);
+        }
+    }
+
+    private void recordEviction() {
+        final CacheStatistics statistics = this.statistics;
+        if (statistics != null) {
+            statistics.recordEviction();
+        }
+    }
+
+}
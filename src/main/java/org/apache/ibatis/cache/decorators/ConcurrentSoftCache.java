@@ -0,0 +1,52 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import org.apache.ibatis.cache.Cache;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+
+/**
+ * 线程安全的软引用缓存, eviction="CONCURRENT_SOFT", 见{@link ConcurrentReferenceCache}
+ */
+public class ConcurrentSoftCache extends ConcurrentReferenceCache {
+
+    public ConcurrentSoftCache(Cache delegate) {
+        super(delegate);
+    }
+
+    @Override
+    protected Reference<Object> newReference(Object key, Object value, ReferenceQueue<Object> queue) {
+        return new SoftEntry(key, value, queue);
+    }
+
+    @Override
+    protected Object keyOf(Reference<?> reference) {
+        return ((SoftEntry) reference).key;
+    }
+
+    private static final class SoftEntry extends SoftReference<Object> {
+        private final Object key;
+
+        SoftEntry(Object key, Object value, ReferenceQueue<Object> garbageCollectionQueue) {
+            super(value, garbageCollectionQueue);
+            this.key = key;
+        }
+    }
+
+}
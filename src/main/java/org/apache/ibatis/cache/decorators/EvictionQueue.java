@@ -0,0 +1,61 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * MemoryBoundedCache淘汰掉的key, 交给上面记着key的一层(LRU的keyMap, 按表失效的依赖登记等), 由CacheBuilder给每层单独建一个.<br/>
+ * 淘汰可能发生在别的缓存写入的线程里, 这时不能直接改上面那层(它不是线程安全的, 或者会反过来锁住整条装饰链),
+ * 所以只把key记下来, 那一层下一次被调用时自己{@link #drain()}
+ */
+public final class EvictionQueue {
+
+    private final MemoryBoundedCache source;
+    private final Queue<Object> keys = new ConcurrentLinkedQueue<Object>();
+
+    EvictionQueue(MemoryBoundedCache source) {
+        this.source = source;
+    }
+
+    void add(Object key) {
+        keys.add(key);
+    }
+
+    /**
+     * @return 淘汰以后没有再放回去的key
+     */
+    List<Object> drain() {
+        Object key = keys.poll();
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        final List<Object> evicted = new ArrayList<Object>();
+        do {
+            //记下来以后又被放回去了, 上面那层已经重新记着它, 不能再丢
+            if (!source.containsKey(key)) {
+                evicted.add(key);
+            }
+            key = keys.poll();
+        } while (key != null);
+        return evicted;
+    }
+
+}
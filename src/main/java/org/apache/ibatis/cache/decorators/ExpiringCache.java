@@ -0,0 +1,320 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * 按条目过期的缓存<br/>
+ * 和ScheduledCache每隔clearInterval清空整个namespace不同, 这里每个条目有自己的过期时间:
+ * <ul>
+ * <li>expireAfterWrite: 写入后多少毫秒过期</li>
+ * <li>expireAfterAccess: 多少毫秒没被读过就过期</li>
+ * <li>jitter: 0~1, 每个条目的TTL随机缩短最多这个比例, 同一批写入的条目不会在同一时刻一起过期</li>
+ * <li>refreshAhead: 配合expireAfterWrite, 离写入过期不到这么多毫秒时被读到, 第一个读到的线程领到刷新任务,
+ * CachingExecutor通过{@link #refreshAheadClaimed()}得知后照常返回当前值, 同时在后台用这次的语句和参数重新查询并putObject.
+ * 常被读的条目在过期前就换成了新值, 读的人不用等数据库. 刷新期间条目被移除(失效、清空)或者换过了, 刷新结果直接丢掉</li>
+ * </ul>
+ * 读的时候检查过期(lazy), 另外每次访问都顺带推进一个时间轮, 清理已经到期的槽位, 清理的工作量分摊到各次访问上.<br/>
+ * 通过&lt;cache&gt;的property配置, 例如 &lt;property name="expireAfterWrite" value="600000"/&gt;
+ */
+public class ExpiringCache implements Cache {
+
+    //时间轮的槽数, 必须是2的幂
+    private static final int WHEEL_SIZE = 64;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    //本线程最近一次getObject是否领到了提前刷新的任务
+    private static final ThreadLocal<Boolean> REFRESH_AHEAD_CLAIMED = new ThreadLocal<Boolean>();
+    //本线程接下来的putObject是在写回领到的提前刷新任务的结果
+    private static final ThreadLocal<Boolean> WRITING_REFRESH_AHEAD = new ThreadLocal<Boolean>();
+
+    private final Cache delegate;
+    private final Map<Object, Entry> entries = new HashMap<Object, Entry>();
+    private final Set<Object>[] wheel;
+    private final Random random = new Random();
+    private long expireAfterWrite;
+    private long expireAfterAccess;
+    private CacheStatistics statistics;
+    private double jitter;
+    private long refreshAhead;
+    private EvictionQueue evictionQueue;
+    //每个槽代表的毫秒数, 取最短TTL的1/64
+    private long tickMillis = 1;
+    private long lastTick = -1;
+
+    @SuppressWarnings("unchecked")
+    public ExpiringCache(Cache delegate) {
+        this.delegate = delegate;
+        this.wheel = new Set[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new HashSet<Object>();
+        }
+    }
+
+    public void setExpireAfterWrite(long expireAfterWrite) {
+        this.expireAfterWrite = expireAfterWrite;
+        resetTick();
+    }
+
+    public void setExpireAfterAccess(long expireAfterAccess) {
+        this.expireAfterAccess = expireAfterAccess;
+        resetTick();
+    }
+
+    public void setJitter(double jitter) {
+        if (jitter < 0 || jitter >= 1) {
+            throw new IllegalArgumentException("Cache jitter must be between 0 (inclusive) and 1 (exclusive) but was " + jitter);
+        }
+        this.jitter = jitter;
+    }
+
+    public void setRefreshAhead(long refreshAhead) {
+        this.refreshAhead = refreshAhead;
+    }
+
+    /**
+     * 取出并清除本线程最近一次读缓存时是否领到了提前刷新的任务
+     */
+    public static boolean refreshAheadClaimed() {
+        final Boolean claimed = REFRESH_AHEAD_CLAIMED.get();
+        if (claimed == null) {
+            return false;
+        }
+        REFRESH_AHEAD_CLAIMED.remove();
+        return claimed;
+    }
+
+    /**
+     * CachingExecutor写回提前刷新的结果之前设为true, 写完设回false
+     */
+    public static void setWritingRefreshAhead(boolean writing) {
+        if (writing) {
+            WRITING_REFRESH_AHEAD.set(Boolean.TRUE);
+        } else {
+            WRITING_REFRESH_AHEAD.remove();
+        }
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public int getSize() {
+        expireEntries(System.currentTimeMillis());
+        return delegate.getSize();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        final long now = System.currentTimeMillis();
+        expireEntries(now);
+        //领任务的条目已经不在了(被失效、清空、过期)或者被换成了新值: 刷新查到的可能是写操作之前的数据
+        if (WRITING_REFRESH_AHEAD.get() != null) {
+            final Entry claimed = entries.get(key);
+            if (claimed == null || !claimed.refreshClaimed) {
+                return;
+            }
+        }
+        final Entry entry = new Entry(now + ttl(expireAfterWrite));
+        entry.deadline = Math.min(entry.writeDeadline, now + ttl(expireAfterAccess));
+        unschedule(key, entries.put(key, entry));
+        schedule(key, entry);
+        delegate.putObject(key, value);
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        REFRESH_AHEAD_CLAIMED.remove();
+        final long now = System.currentTimeMillis();
+        expireEntries(now);
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return delegate.getObject(key);
+        }
+        if (entry.deadline <= now) {
+            expire(key, entry);
+            return null;
+        }
+        final Object value = delegate.getObject(key);
+        if (value == null) {
+            //被下面的淘汰策略(LRU等)移除了
+            unschedule(key, entries.remove(key));
+        } else if (expireAfterAccess > 0) {
+            unschedule(key, entry);
+            entry.deadline = Math.min(entry.writeDeadline, now + ttl(expireAfterAccess));
+            schedule(key, entry);
+        }
+        //每个条目只领一次, 刷新回来的putObject会换上新的Entry; 刷新失败的到期后照常过期
+        if (value != null && refreshAhead > 0 && !entry.refreshClaimed && entry.writeDeadline - now <= refreshAhead) {
+            entry.refreshClaimed = true;
+            REFRESH_AHEAD_CLAIMED.set(Boolean.TRUE);
+        }
+        return value;
+    }
+
+    /**
+     * 过期移除时记到统计里, 由CacheBuilder设置
+     */
+    public void setStatistics(CacheStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * 下层MemoryBoundedCache淘汰的条目也从时间轮上摘掉, 由CacheBuilder设置
+     */
+    public void setEvictionQueue(EvictionQueue evictionQueue) {
+        this.evictionQueue = evictionQueue;
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        unschedule(key, entries.remove(key));
+        return delegate.removeObject(key);
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        for (Set<Object> slot : wheel) {
+            slot.clear();
+        }
+        delegate.clear();
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+        return null;
+    }
+
+    @Override
+    public int hashCode() {
+        return delegate.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return delegate.equals(obj);
+    }
+
+    //先忘掉下层淘汰的条目, 再推进时间轮, 清理经过的槽里已经到期的条目; 长时间没访问最多转一圈
+    private void expireEntries(long now) {
+        if (evictionQueue != null) {
+            for (Object key : evictionQueue.drain()) {
+                unschedule(key, entries.remove(key));
+            }
+        }
+        final long tick = now / tickMillis;
+        if (lastTick < 0) {
+            lastTick = tick;
+            return;
+        }
+        final long steps = Math.min(tick - lastTick, WHEEL_SIZE);
+        for (long i = 1; i <= steps; i++) {
+            final Iterator<Object> keys = wheel[(int) ((lastTick + i) & WHEEL_MASK)].iterator();
+            while (keys.hasNext()) {
+                final Object key = keys.next();
+                final Entry entry = entries.get(key);
+                //到期时间超出一圈的还留在槽里, 下一圈再看
+                if (entry == null || entry.deadline <= now) {
+                    keys.remove();
+                    if (entry != null) {
+                        entries.remove(key);
+                        delegate.removeObject(key);
+                        recordExpiration();
+                    }
+                }
+            }
+        }
+        if (tick > lastTick) {
+            lastTick = tick;
+        }
+    }
+
+    private void expire(Object key, Entry entry) {
+        unschedule(key, entry);
+        entries.remove(key);
+        delegate.removeObject(key);
+        recordExpiration();
+    }
+
+    private void recordExpiration() {
+        if (statistics != null) {
+            statistics.recordExpiration();
+        }
+    }
+
+    private void schedule(Object key, Entry entry) {
+        wheel[slot(entry.deadline)].add(key);
+    }
+
+    private void unschedule(Object key, Entry entry) {
+        if (entry != null) {
+            wheel[slot(entry.deadline)].remove(key);
+        }
+    }
+
+    private int slot(long deadline) {
+        return (int) ((deadline / tickMillis) & WHEEL_MASK);
+    }
+
+    //TTL为0表示不过期; jitter只缩短TTL, 不会比配置的活得更久
+    private long ttl(long configured) {
+        if (configured <= 0) {
+            return Long.MAX_VALUE / 2;
+        }
+        if (jitter == 0) {
+            return configured;
+        }
+        return Math.max(1, configured - (long) (configured * jitter * random.nextDouble()));
+    }
+
+    //改了TTL以后重新分槽, 只在构建缓存时发生
+    private void resetTick() {
+        long shortest = Long.MAX_VALUE;
+        if (expireAfterWrite > 0) {
+            shortest = expireAfterWrite;
+        }
+        if (expireAfterAccess > 0) {
+            shortest = Math.min(shortest, expireAfterAccess);
+        }
+        tickMillis = shortest == Long.MAX_VALUE ? 1000 : Math.max(1, shortest / WHEEL_SIZE);
+        lastTick = -1;
+        clear();
+    }
+
+    private static final class Entry {
+        final long writeDeadline;
+        long deadline;
+        boolean refreshClaimed;
+
+        Entry(long writeDeadline) {
+            this.writeDeadline = writeDeadline;
+        }
+    }
+
+}
@@ -16,6 +16,7 @@
 package org.apache.ibatis.cache.decorators;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 
 import java.util.Deque;
 import java.util.LinkedList;
@@ -31,6 +32,7 @@ public class FifoCache implements Cache {
     /***/
     private Deque<Object> keyList;
     private int size;
+    private CacheStatistics statistics;
 
     public FifoCache(Cache delegate) {
         this.delegate = delegate;
@@ -63,6 +65,13 @@ public class FifoCache implements Cache {
         return delegate.getObject(key);
     }
 
+    /**
+     * 淘汰时记到统计里, 由CacheBuilder设置
+     */
+    public void setStatistics(CacheStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     @Override
     public Object removeObject(Object key) {
         return delegate.removeObject(key);
@@ -88,6 +97,9 @@ public class FifoCache implements Cache {
         if (keyList.size() > size) {
             Object oldestKey = keyList.removeFirst();
             delegate.removeObject(oldestKey);
+            if (statistics != null) {
+                statistics.recordEviction();
+            }
         }
     }
 
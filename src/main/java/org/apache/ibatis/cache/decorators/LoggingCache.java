@@ -16,6 +16,7 @@
 package org.apache.ibatis.cache.decorators;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
@@ -23,18 +24,27 @@ import java.util.concurrent.locks.ReadWriteLock;
 
 /**
  * 日志缓存
- * 添加功能：取缓存时打印命中率
+ * 添加功能：取缓存时打印命中率. 命中/未命中/写入次数记在CacheStatistics里
  */
 public class LoggingCache implements Cache {
     //用的mybatis自己的抽象Log
     private Log log;
     private Cache delegate;
-    protected int requests = 0;
-    protected int hits = 0;
+    //CacheBuilder会换成Configuration里登记的那份
+    private CacheStatistics statistics;
 
     public LoggingCache(Cache delegate) {
         this.delegate = delegate;
         this.log = LogFactory.getLog(getId());
+        this.statistics = new CacheStatistics(getId());
+    }
+
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    public void setStatistics(CacheStatistics statistics) {
+        this.statistics = statistics;
     }
 
     @Override
@@ -50,21 +60,25 @@ public class LoggingCache implements Cache {
     @Override
     public void putObject(Object key, Object object) {
         delegate.putObject(key, object);
+        //BlockingCache放行用的null不算
+        if (object != null) {
+            statistics.recordPut();
+        }
     }
 
     /** getObject时，打印命中率 */
     @Override
     public Object getObject(Object key) {
-        //访问一次requests加一
-        requests++;
         final Object value = delegate.getObject(key);
-        //命中了则hits加一
+        //命中了记hit, 否则记miss
         if (value != null) {
-            hits++;
+            statistics.recordHit();
+        } else {
+            statistics.recordMiss();
         }
         if (log.isDebugEnabled()) {
             //就是打印命中率 hits/requests
-            log.debug("Cache Hit Ratio [" + getId() + "]: " + getHitRatio());
+            log.debug("Cache Hit Ratio [" + getId() + "]: " + statistics.getHitRatio());
         }
         return value;
     }
@@ -94,8 +108,4 @@ public class LoggingCache implements Cache {
         return delegate.equals(obj);
     }
 
-    private double getHitRatio() {
-        return (double) hits / (double) requests;
-    }
-
 }
@@ -16,6 +16,7 @@
 package org.apache.ibatis.cache.decorators;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -31,6 +32,8 @@ public class LruCache implements Cache {
     private Map<Object, Object> keyMap;
     /** 在keyMap中移除entry时, 把被移除的entry的key存到这里, 以便让delegate同步移除这个entry */
     private Object eldestKey;
+    private CacheStatistics statistics;
+    private EvictionQueue evictionQueue;
 
     /**
      * 默认用于LRU的map大小为1024
@@ -81,6 +84,7 @@ public class LruCache implements Cache {
 
     @Override
     public void putObject(Object key, Object value) {
+        forgetEvicted();
         delegate.putObject(key, value);
         //增加新纪录后，判断是否要将最老元素移除
         cycleKeyList(key);
@@ -89,11 +93,26 @@ public class LruCache implements Cache {
     /** get的时候调用一下LinkedHashMap.get，让经常访问的值移动到链表末尾 */
     @Override
     public Object getObject(Object key) {
+        forgetEvicted();
         //get的时候调用一下LinkedHashMap.get，让经常访问的值移动到链表末尾
         keyMap.get(key); //touch
         return delegate.getObject(key);
     }
 
+    /**
+     * 淘汰时记到统计里, 由CacheBuilder设置
+     */
+    public void setStatistics(CacheStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * 下层MemoryBoundedCache淘汰的条目也从keyMap里去掉, 免得占着位置, 由CacheBuilder设置
+     */
+    public void setEvictionQueue(EvictionQueue evictionQueue) {
+        this.evictionQueue = evictionQueue;
+    }
+
     @Override
     public Object removeObject(Object key) {
         return delegate.removeObject(key);
@@ -110,6 +129,14 @@ public class LruCache implements Cache {
         return null;
     }
 
+    private void forgetEvicted() {
+        if (evictionQueue != null) {
+            for (Object key : evictionQueue.drain()) {
+                keyMap.remove(key);
+            }
+        }
+    }
+
     /**
      * 把keyMap中的KeyList转(cycle)一下
      *
@@ -121,6 +148,9 @@ public class LruCache implements Cache {
         if (eldestKey != null) {
             delegate.removeObject(eldestKey);
             eldestKey = null;
+            if (statistics != null) {
+                statistics.recordEviction();
+            }
         }
     }
 
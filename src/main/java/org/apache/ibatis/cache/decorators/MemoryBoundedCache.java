@@ -0,0 +1,250 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheMemoryBudget;
+import org.apache.ibatis.cache.CacheWeigher;
+import org.apache.ibatis.cache.DefaultCacheWeigher;
+import org.apache.ibatis.io.Resources;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * 按字节数限制大小的缓存<br/>
+ * 每个条目放入时用CacheWeigher估算大小, 超过maxBytes(本namespace)时按LRU顺序淘汰本缓存里的条目;
+ * 超过全局的CacheMemoryBudget时, 由CacheMemoryBudget从占用最多的缓存开始淘汰, 不一定是正在写入的这个.
+ * 单个条目就超过预算的直接不缓存.<br/>
+ * 别的缓存写入时也可能来淘汰这里的条目, 所以各方法自己加锁(不在持有自己的锁时去淘汰别的缓存, 不会死锁).<br/>
+ * CacheBuilder把它放在最里层(紧贴PerpetualCache), 这样上面各层(LRU, 过期等)的移除都会经过它,
+ * 配了readOnly="false"时它看到的值就是SerializedCache序列化后的byte[], 大小是准确的.
+ * 反过来它淘汰的条目上面各层看不到, 记着key的那几层由CacheBuilder各登记一个{@link EvictionQueue}, 淘汰时通知它们
+ */
+public class MemoryBoundedCache implements Cache {
+
+    private final Cache delegate;
+    //key -> 字节数, access-order
+    private final Map<Object, Long> weights = new LinkedHashMap<Object, Long>(16, .75F, true);
+    private CacheWeigher weigher = new DefaultCacheWeigher();
+    private CacheMemoryBudget memoryBudget;
+    /** 0表示本namespace不限制 */
+    private long maxBytes;
+    private volatile long usedBytes;
+    private CacheStatistics statistics;
+    private final List<EvictionQueue> evictionQueues = new CopyOnWriteArrayList<EvictionQueue>();
+
+    public MemoryBoundedCache(Cache delegate) {
+        this.delegate = delegate;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @param weigher CacheWeigher实现类的全名
+     */
+    public void setWeigher(String weigher) {
+        try {
+            this.weigher = (CacheWeigher) Resources.classForName(weigher).newInstance();
+        } catch (Exception e) {
+            throw new CacheException("Error creating cache weigher '" + weigher + "'.  Cause: " + e, e);
+        }
+    }
+
+    public void setMemoryBudget(CacheMemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        if (memoryBudget != null) {
+            memoryBudget.register(this);
+        }
+    }
+
+    /**
+     * 给上面记着key的一层登记淘汰通知
+     */
+    public EvictionQueue newEvictionQueue() {
+        final EvictionQueue evictionQueue = new EvictionQueue(this);
+        evictionQueues.add(evictionQueue);
+        return evictionQueue;
+    }
+
+    public synchronized boolean containsKey(Object key) {
+        return weights.containsKey(key);
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return delegate.getSize();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        synchronized (this) {
+            release(key);
+            final long weight = weigher.weigh(key, value);
+            if (exceedsLimit(weight)) {
+                //一个条目就放不下, 不缓存(旧值也要去掉, 否则读到的是过期数据)
+                delegate.removeObject(key);
+                //上面各层会照常记下这个key
+                notifyEviction(key);
+                return;
+            }
+            delegate.putObject(key, value);
+            weights.put(key, weight);
+            usedBytes += weight;
+            if (memoryBudget != null) {
+                memoryBudget.allocate(weight);
+            }
+            evict(key);
+        }
+        //放开自己的锁再按全局预算淘汰
+        if (memoryBudget != null) {
+            memoryBudget.shed(this, key);
+        }
+    }
+
+    @Override
+    public synchronized Object getObject(Object key) {
+        final Object value = delegate.getObject(key);
+        if (value != null) {
+            weights.get(key); //touch
+        }
+        return value;
+    }
+
+    /**
+     * 淘汰时记到统计里, 由CacheBuilder设置
+     */
+    public void setStatistics(CacheStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public synchronized Object removeObject(Object key) {
+        release(key);
+        return delegate.removeObject(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        if (memoryBudget != null) {
+            memoryBudget.release(usedBytes);
+        }
+        weights.clear();
+        usedBytes = 0;
+        delegate.clear();
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+        return null;
+    }
+
+    @Override
+    public int hashCode() {
+        return delegate.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return delegate.equals(obj);
+    }
+
+    private boolean exceedsLimit(long weight) {
+        return (maxBytes > 0 && weight > maxBytes)
+                || (memoryBudget != null && memoryBudget.isEnabled() && weight > memoryBudget.getMaxBytes());
+    }
+
+    /**
+     * 淘汰本缓存最久没用的一个条目, 由CacheMemoryBudget在超出全局预算时调用
+     * @param keep 不淘汰的key(刚放进去的条目), 可以是null
+     * @return 有没有淘汰掉条目
+     */
+    public synchronized boolean evictEldest(Object keep) {
+        final Iterator<Map.Entry<Object, Long>> iterator = weights.entrySet().iterator();
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        final Map.Entry<Object, Long> eldest = iterator.next();
+        if (eldest.getKey().equals(keep)) {
+            return false;
+        }
+        evict(iterator, eldest);
+        return true;
+    }
+
+    //满足本namespace的限制, 刚放进去的条目不淘汰
+    private void evict(Object newest) {
+        final Iterator<Map.Entry<Object, Long>> iterator = weights.entrySet().iterator();
+        while (iterator.hasNext() && maxBytes > 0 && usedBytes > maxBytes) {
+            final Map.Entry<Object, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(newest)) {
+                break;
+            }
+            evict(iterator, eldest);
+        }
+    }
+
+    private void evict(Iterator<Map.Entry<Object, Long>> iterator, Map.Entry<Object, Long> eldest) {
+        iterator.remove();
+        usedBytes -= eldest.getValue();
+        if (memoryBudget != null) {
+            memoryBudget.release(eldest.getValue());
+        }
+        delegate.removeObject(eldest.getKey());
+        notifyEviction(eldest.getKey());
+        if (statistics != null) {
+            statistics.recordEviction();
+        }
+    }
+
+    private void notifyEviction(Object key) {
+        for (EvictionQueue evictionQueue : evictionQueues) {
+            evictionQueue.add(key);
+        }
+    }
+
+    private void release(Object key) {
+        final Long weight = weights.remove(key);
+        if (weight != null) {
+            usedBytes -= weight;
+            if (memoryBudget != null) {
+                memoryBudget.release(weight);
+            }
+        }
+    }
+
+}
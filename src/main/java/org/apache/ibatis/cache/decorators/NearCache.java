@@ -0,0 +1,169 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * 每个线程自己的一级近端缓存, &lt;property name="nearCacheSize" value="..."/&gt;, 只能用于readOnly="true"的缓存.<br/>
+ * 每个线程最多留nearCacheSize个最近读到的条目, 命中时不碰下面的共享缓存(不抢SynchronizedCache的锁).<br/>
+ * clear/removeObject把namespace的版本号加一, 各线程下次读时发现版本变了就整个丢掉自己的那份.
+ * putObject不加版本: 共享缓存只会在未命中之后才放进这个key, 数据经mybatis修改一定会先clear.<br/>
+ * 版本号管不到的(ScheduledCache定时清空, 条目按时间过期, staleWhileRevalidate的后台刷新),
+ * 由nearCacheTtl(毫秒, 默认1000)兜底: 近端条目最多用这么久就回共享缓存重新读
+ */
+public class NearCache implements Cache {
+
+    private final Cache delegate;
+    private final AtomicLong version = new AtomicLong();
+    private final ThreadLocal<Local> locals = new ThreadLocal<Local>() {
+        @Override
+        protected Local initialValue() {
+            return new Local();
+        }
+    };
+    private int nearCacheSize = 64;
+    private long nearCacheTtl = 1000;
+    private CacheStatistics statistics;
+
+    public NearCache(Cache delegate) {
+        this.delegate = delegate;
+    }
+
+    public void setNearCacheSize(int nearCacheSize) {
+        this.nearCacheSize = nearCacheSize;
+    }
+
+    public void setNearCacheTtl(long nearCacheTtl) {
+        this.nearCacheTtl = nearCacheTtl;
+    }
+
+    //近端命中不经过下面的LoggingCache, 在这里记hit
+    public void setStatistics(CacheStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        //先读版本: 放的过程中有clear, 这份就不留在近端了
+        final long current = version.get();
+        delegate.putObject(key, value);
+        final Local local = current(current);
+        if (value == null) {
+            //BlockingCache放行用的null
+            local.entries.remove(key);
+        } else if (local.version == current) {
+            local.entries.put(key, new Entry(value, System.currentTimeMillis() + nearCacheTtl));
+        }
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        final long current = version.get();
+        final Local local = current(current);
+        final Entry entry = local.entries.get(key);
+        if (entry != null) {
+            if (entry.expiresAt > System.currentTimeMillis()) {
+                if (statistics != null) {
+                    statistics.recordHit();
+                }
+                return entry.value;
+            }
+            local.entries.remove(key);
+        }
+        final Object value = delegate.getObject(key);
+        if (value != null && version.get() == current) {
+            local.entries.put(key, new Entry(value, System.currentTimeMillis() + nearCacheTtl));
+        }
+        return value;
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        version.incrementAndGet();
+        return delegate.removeObject(key);
+    }
+
+    @Override
+    public void clear() {
+        version.incrementAndGet();
+        delegate.clear();
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+        return null;
+    }
+
+    @Override
+    public int hashCode() {
+        return delegate.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return delegate.equals(obj);
+    }
+
+    //本线程的近端缓存, 版本落后了就清空
+    private Local current(long current) {
+        final Local local = locals.get();
+        if (local.version != current) {
+            local.entries.clear();
+            local.version = current;
+        }
+        return local;
+    }
+
+    private final class Local {
+        long version;
+        final Map<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+                return size() > nearCacheSize;
+            }
+        };
+    }
+
+    private static final class Entry {
+        final Object value;
+        final long expiresAt;
+
+        Entry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
@@ -26,7 +26,7 @@ import java.util.concurrent.locks.ReadWriteLock;
 public class ScheduledCache implements Cache {
     private Cache delegate;
     protected long clearInterval;
-    protected long lastClear;
+    protected volatile long lastClear;
 
     public ScheduledCache(Cache delegate) {
         this.delegate = delegate;
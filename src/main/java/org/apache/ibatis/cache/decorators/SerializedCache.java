@@ -15,18 +15,18 @@
  */
 package org.apache.ibatis.cache.decorators;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.cache.CloningCacheSerializer;
+import org.apache.ibatis.cache.DefaultCacheSerializer;
 import org.apache.ibatis.io.Resources;
 
 /**
@@ -36,16 +36,38 @@ import org.apache.ibatis.io.Resources;
  * 序列化缓存
  * 用途是先将对象序列化成2进制，再缓存,好处是将对象压缩了，省内存
  * 坏处是速度慢了
+ * 怎么做副本由CacheSerializer决定, 默认DefaultCacheSerializer, 可以用&lt;property name="serializer" value="CLONING"/&gt;换成反射深拷贝
  * 
  */
 public class SerializedCache implements Cache {
 
   private Cache delegate;
+  private CacheSerializer serializer = new DefaultCacheSerializer();
 
   public SerializedCache(Cache delegate) {
     this.delegate = delegate;
   }
 
+  /**
+   * @param serializer JAVA, CLONING或者CacheSerializer实现类的全名
+   */
+  public void setSerializer(String serializer) {
+    this.serializer = newSerializer(serializer);
+  }
+
+  public static CacheSerializer newSerializer(String serializer) {
+    if ("JAVA".equals(serializer)) {
+      return new DefaultCacheSerializer();
+    } else if ("CLONING".equals(serializer)) {
+      return new CloningCacheSerializer();
+    }
+    try {
+      return (CacheSerializer) Resources.classForName(serializer).newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Error creating cache serializer '" + serializer + "'.  Cause: " + e, e);
+    }
+  }
+
   @Override
   public String getId() {
     return delegate.getId();
@@ -70,7 +92,7 @@ public class SerializedCache implements Cache {
   public Object getObject(Object key) {
       //先委托被包装者getObject,再反序列化
     Object object = delegate.getObject(key);
-    return object == null ? null : deserialize((byte[]) object);
+    return object == null ? null : deserialize(object);
   }
 
   @Override
@@ -98,32 +120,12 @@ public class SerializedCache implements Cache {
     return delegate.equals(obj);
   }
 
-  private byte[] serialize(Serializable value) {
-    try {
-        //序列化核心就是ByteArrayOutputStream
-      ByteArrayOutputStream bos = new ByteArrayOutputStream();
-      ObjectOutputStream oos = new ObjectOutputStream(bos);
-      oos.writeObject(value);
-      oos.flush();
-      oos.close();
-      return bos.toByteArray();
-    } catch (Exception e) {
-      throw new CacheException("Error serializing object.  Cause: " + e, e);
-    }
+  private Object serialize(Serializable value) {
+    return serializer.serialize(value);
   }
 
-  private Serializable deserialize(byte[] value) {
-    Serializable result;
-    try {
-        //反序列化核心就是ByteArrayInputStream
-      ByteArrayInputStream bis = new ByteArrayInputStream(value);
-      ObjectInputStream ois = new CustomObjectInputStream(bis);
-      result = (Serializable) ois.readObject();
-      ois.close();
-    } catch (Exception e) {
-      throw new CacheException("Error deserializing object.  Cause: " + e, e);
-    }
-    return result;
+  private Serializable deserialize(Object value) {
+    return serializer.deserialize(value);
   }
 
   //这个Custom不明白何意
@@ -0,0 +1,168 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import org.apache.ibatis.cache.Cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * 可以保存快照的缓存, &lt;property name="snapshot" value="true"/&gt;, 配合&lt;setting name="cacheSnapshotDirectory"/&gt;使用.<br/>
+ * 记下放进来的key, 由CacheSnapshotManager在JVM关闭时把还在缓存里的条目写到文件, 下次启动时在后台放回来.<br/>
+ * 放在SerializedCache上面、LoggingCache下面: 拿到的是反序列化后的值, 保存和恢复都不计入命中统计.
+ * 方法都加了锁(外面的SynchronizedCache本来就是串行的, 基本没有竞争), 恢复线程和查询线程互不干扰
+ */
+public class SnapshotCache implements Cache {
+
+    private final Cache delegate;
+    //按放入先后排列, 恢复时按原来的顺序放回去
+    private final Set<Object> keys = new LinkedHashSet<Object>();
+    //clear/removeObject的次数, 恢复期间发生过失效就不再往回放
+    private long modifications;
+    private EvictionQueue evictionQueue;
+
+    public SnapshotCache(Cache delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return delegate.getSize();
+    }
+
+    @Override
+    public synchronized void putObject(Object key, Object value) {
+        forgetEvicted();
+        delegate.putObject(key, value);
+        keys.remove(key);
+        keys.add(key);
+        trimKeys();
+    }
+
+    @Override
+    public synchronized Object getObject(Object key) {
+        forgetEvicted();
+        return delegate.getObject(key);
+    }
+
+    /**
+     * 下层MemoryBoundedCache淘汰的条目不再记着, 不算失效, 由CacheBuilder设置
+     */
+    public void setEvictionQueue(EvictionQueue evictionQueue) {
+        this.evictionQueue = evictionQueue;
+    }
+
+    @Override
+    public synchronized Object removeObject(Object key) {
+        keys.remove(key);
+        modifications++;
+        return delegate.removeObject(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        keys.clear();
+        modifications++;
+        delegate.clear();
+    }
+
+    /**
+     * @return 还在缓存里的条目, 按放入先后排列
+     */
+    public synchronized Map<Object, Object> entries() {
+        final Map<Object, Object> entries = new LinkedHashMap<Object, Object>();
+        final Iterator<Object> iterator = keys.iterator();
+        while (iterator.hasNext()) {
+            final Object key = iterator.next();
+            final Object value = delegate.getObject(key);
+            if (value == null) {
+                //下层已经淘汰或过期了
+                iterator.remove();
+            } else {
+                entries.put(key, value);
+            }
+        }
+        return entries;
+    }
+
+    public synchronized long getModifications() {
+        return modifications;
+    }
+
+    /**
+     * 把快照里的条目放回来, 缓存里已经有的(查询线程刚放进去的)不覆盖
+     *
+     * @param since 开始恢复时的{@link #getModifications()}
+     * @return 之后发生过失效时返回false, 剩下的条目也不要再放了
+     */
+    public synchronized boolean restore(Object key, Object value, long since) {
+        if (modifications != since) {
+            return false;
+        }
+        if (delegate.getObject(key) == null) {
+            putObject(key, value);
+        }
+        return true;
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+        return null;
+    }
+
+    @Override
+    public int hashCode() {
+        return delegate.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return delegate.equals(obj);
+    }
+
+    //下层淘汰掉的key这里感知不到, 记下的key明显多于缓存条目数时, 丢掉最早的
+    private void forgetEvicted() {
+        if (evictionQueue != null) {
+            keys.removeAll(evictionQueue.drain());
+        }
+    }
+
+    private void trimKeys() {
+        final int limit = Math.max(1024, delegate.getSize() * 2);
+        if (keys.size() <= limit) {
+            return;
+        }
+        final List<Object> dropped = new ArrayList<Object>();
+        final Iterator<Object> iterator = keys.iterator();
+        while (keys.size() - dropped.size() > limit && iterator.hasNext()) {
+            dropped.add(iterator.next());
+        }
+        keys.removeAll(dropped);
+    }
+
+}
@@ -22,11 +22,13 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 
 /**
  * Soft Reference cache decorator
  * Thanks to Dr. Heinz Kabutz for his guidance here.
  * 软引用缓存,核心是SoftReference
+ * 每次命中都要锁住同一个LinkedList, 并发高的namespace用eviction="CONCURRENT_SOFT"({@link ConcurrentSoftCache})
  *
  * @author Clinton Begin
  */
@@ -37,6 +39,7 @@ public class SoftCache implements Cache {
   private final ReferenceQueue<Object> queueOfGarbageCollectedEntries;
   private final Cache delegate;
   private int numberOfHardLinks;
+  private CacheStatistics statistics;
 
   public SoftCache(Cache delegate) {
     this.delegate = delegate;
@@ -93,6 +96,13 @@ public class SoftCache implements Cache {
     return result;
   }
 
+  /**
+   * 淘汰时记到统计里, 由CacheBuilder设置
+   */
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
   @Override
   public Object removeObject(Object key) {
     removeGarbageCollectedItems();
@@ -118,6 +128,10 @@ public class SoftCache implements Cache {
     //查看被垃圾回收的引用队列,然后调用removeObject移除他们
     while ((sv = (SoftEntry) queueOfGarbageCollectedEntries.poll()) != null) {
       delegate.removeObject(sv.key);
+      //被GC回收的条目算淘汰, 每个引用只会进队列一次
+      if (statistics != null) {
+        statistics.recordEviction();
+      }
     }
   }
 
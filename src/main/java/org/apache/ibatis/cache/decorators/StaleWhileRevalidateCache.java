@@ -0,0 +1,184 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import org.apache.ibatis.cache.Cache;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * stale-while-revalidate缓存, &lt;property name="staleWhileRevalidate" value="true"/&gt;<br/>
+ * update刷新缓存(clear)时不真的清空, 只是把当前所有条目标成过期(代数加一). 读到过期条目时照样返回旧值,
+ * 同时第一个读到它的线程领到刷新任务: CachingExecutor通过{@link #refreshClaimed()}得知后,
+ * 在后台重新执行这条语句并putObject, 新值整体替换旧值.<br/>
+ * 领到的刷新任务refreshTimeout毫秒(默认60秒)内没有完成(比如后台查询失败), 别的读者可以重新领.
+ * 刷新期间条目被移除(按表失效)或者被别人写入了新值, 任务也就不在了, 写回的刷新结果直接丢掉.<br/>
+ * 只适合能接受短暂读到旧数据的namespace
+ */
+public class StaleWhileRevalidateCache implements Cache {
+
+    //本线程最近一次getObject是否领到了刷新任务
+    private static final ThreadLocal<Boolean> REFRESH_CLAIMED = new ThreadLocal<Boolean>();
+    //本线程接下来的putObject是在写回领到的刷新任务的结果
+    private static final ThreadLocal<Boolean> WRITING_REFRESH = new ThreadLocal<Boolean>();
+
+    private final Cache delegate;
+    private final AtomicLong generation = new AtomicLong();
+    //key -> 写入时的代数
+    private final ConcurrentMap<Object, Long> generations = new ConcurrentHashMap<Object, Long>();
+    //key -> 领到刷新任务的时间
+    private final ConcurrentMap<Object, Claim> refreshing = new ConcurrentHashMap<Object, Claim>();
+    private long refreshTimeout = 60000;
+
+    public StaleWhileRevalidateCache(Cache delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 取出并清除本线程最近一次读缓存时是否领到了刷新任务
+     */
+    public static boolean refreshClaimed() {
+        final Boolean claimed = REFRESH_CLAIMED.get();
+        if (claimed == null) {
+            return false;
+        }
+        REFRESH_CLAIMED.remove();
+        return claimed;
+    }
+
+    /**
+     * CachingExecutor写回后台刷新的结果之前设为true, 写完设回false
+     */
+    public static void setWritingRefresh(boolean writing) {
+        if (writing) {
+            WRITING_REFRESH.set(Boolean.TRUE);
+        } else {
+            WRITING_REFRESH.remove();
+        }
+    }
+
+    public void setRefreshTimeout(long refreshTimeout) {
+        this.refreshTimeout = refreshTimeout;
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+    /** 后台刷新的结果以领任务时的代数写入: 刷新期间又有update的话, 它还是过期的 */
+    @Override
+    public void putObject(Object key, Object value) {
+        final Claim claim = refreshing.remove(key);
+        //任务已经不在了: 刷新查到的可能是写操作之前的数据, 不能放进去
+        if (claim == null && WRITING_REFRESH.get() != null) {
+            return;
+        }
+        delegate.putObject(key, value);
+        generations.put(key, claim == null ? generation.get() : claim.generation);
+        pruneGenerations();
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        REFRESH_CLAIMED.remove();
+        final Object value = delegate.getObject(key);
+        if (value == null) {
+            generations.remove(key);
+            return null;
+        }
+        final long current = generation.get();
+        final Long written = generations.get(key);
+        if (written == null || written != current) {
+            REFRESH_CLAIMED.set(claimRefresh(key, current));
+        }
+        return value;
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        generations.remove(key);
+        refreshing.remove(key);
+        return delegate.removeObject(key);
+    }
+
+    /** 不清空, 只让现有条目全部过期 */
+    @Override
+    public void clear() {
+        generation.incrementAndGet();
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+        return null;
+    }
+
+    @Override
+    public int hashCode() {
+        return delegate.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return delegate.equals(obj);
+    }
+
+    private boolean claimRefresh(Object key, long current) {
+        final long now = System.currentTimeMillis();
+        final Claim claim = new Claim(current, now);
+        final Claim previous = refreshing.putIfAbsent(key, claim);
+        if (previous == null) {
+            return true;
+        }
+        //之前领任务的线程迟迟没有完成, 换人
+        return now - previous.claimedAt > refreshTimeout && refreshing.replace(key, previous, claim);
+    }
+
+    //下层LRU等淘汰掉的key在这里留下的代数记录, 条数明显多于缓存大小时清理一遍.
+    //只删已过期的记录(没有记录也按过期处理), 不回头查delegate, 免得在BlockingCache上占住key
+    private void pruneGenerations() {
+        if (generations.size() <= Math.max(1024, delegate.getSize() * 2)) {
+            return;
+        }
+        final long current = generation.get();
+        final Iterator<Long> written = generations.values().iterator();
+        while (written.hasNext()) {
+            if (written.next() != current) {
+                written.remove();
+            }
+        }
+    }
+
+    private static final class Claim {
+        final long generation;
+        final long claimedAt;
+
+        Claim(long generation, long claimedAt) {
+            this.generation = generation;
+            this.claimedAt = claimedAt;
+        }
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.TableDependency;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * 按表/键失效的缓存, &lt;property name="invalidateByTable" value="true"/&gt;<br/>
+ * CachingExecutor把查询结果放进缓存时登记每个CacheKey依赖的表(和键值), flushCache的写操作不再清空整个缓存,
+ * 只移除受影响的条目. &lt;cache-ref&gt;引用过来的namespace用的是同一个Cache对象, 也就共用这份依赖登记.<br/>
+ * 解析不出表的写操作(存储过程等)还是整个清空
+ */
+public class TableDependencyCache implements Cache {
+
+    private final Cache delegate;
+    //按登记先后排列, 条数超出上限时最早的连同缓存条目一起丢掉, 没有依赖记录的条目不能留在缓存里
+    private final LinkedHashMap<Object, TableDependency> dependencies = new LinkedHashMap<Object, TableDependency>();
+    private final Map<String, Set<Object>> keysByTable = new HashMap<String, Set<Object>>();
+    //依赖所有表的key
+    private final Set<Object> keysOnAllTables = new HashSet<Object>();
+    private EvictionQueue evictionQueue;
+
+    public TableDependencyCache(Cache delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+    /**
+     * 放入查询结果并登记它依赖的表.<br/>
+     * 放入时才登记: 查询和放入之间(比如提交前)发生的失效会注销已有的登记, 提前登记的话条目就没有依赖记录了,
+     * 之后的写操作再也失效不到它
+     */
+    public void putObject(Object key, Object value, TableDependency dependency) {
+        delegate.putObject(key, value);
+        //BlockingCache放行用的null不登记
+        if (value != null && dependency != null) {
+            recordDependency(key, dependency);
+        }
+    }
+
+    /**
+     * 登记一个缓存条目依赖的表, 一般用{@link #putObject(Object, Object, TableDependency)}在放入时一起登记
+     */
+    public synchronized void recordDependency(Object key, TableDependency dependency) {
+        forgetEvicted();
+        unregister(key);
+        dependencies.put(key, dependency);
+        if (dependency.isAllTables()) {
+            keysOnAllTables.add(key);
+        } else {
+            for (String table : dependency.getTables()) {
+                Set<Object> keys = keysByTable.get(table);
+                if (keys == null) {
+                    keys = new HashSet<Object>();
+                    keysByTable.put(table, keys);
+                }
+                keys.add(key);
+            }
+        }
+        trimDependencies();
+    }
+
+    /**
+     * @return 这个写操作是否会影响key对应的查询结果, 没有登记过的key按受影响处理
+     */
+    public synchronized boolean isAffected(Object key, TableDependency write) {
+        final TableDependency dependency = dependencies.get(key);
+        return dependency == null || dependency.isAffectedBy(write);
+    }
+
+    /**
+     * @return 登记过的依赖, 没有登记时返回null
+     */
+    public synchronized TableDependency getDependency(Object key) {
+        return dependencies.get(key);
+    }
+
+    /**
+     * 移除所有受这个写操作影响的条目
+     */
+    public void invalidate(TableDependency write) {
+        if (write.isAllTables()) {
+            clear();
+            return;
+        }
+        final List<Object> affected = new ArrayList<Object>();
+        synchronized (this) {
+            forgetEvicted();
+            collectAffected(keysOnAllTables, write, affected);
+            for (String table : write.getTables()) {
+                collectAffected(keysByTable.get(table), write, affected);
+            }
+            for (Object key : affected) {
+                unregister(key);
+            }
+        }
+        for (Object key : affected) {
+            delegate.removeObject(key);
+        }
+    }
+
+    /**
+     * 不知道依赖的条目按依赖所有表登记, 任何写操作都会失效它(和isAffected对没有登记的key的处理一致),
+     * 同时替换掉这个key之前登记的依赖
+     */
+    @Override
+    public void putObject(Object key, Object value) {
+        putObject(key, value, TableDependency.ALL_TABLES);
+    }
+
+    /**
+     * 下层MemoryBoundedCache淘汰的条目注销登记, 由CacheBuilder设置
+     */
+    public void setEvictionQueue(EvictionQueue evictionQueue) {
+        this.evictionQueue = evictionQueue;
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        return delegate.getObject(key);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        synchronized (this) {
+            unregister(key);
+        }
+        return delegate.removeObject(key);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (this) {
+            delegate.clear();
+            //StaleWhileRevalidateCache在clear后还留着条目(只是标成过期), 依赖也要留着, 之后的写操作才能失效到它们
+            if (delegate.getSize() == 0) {
+                dependencies.clear();
+                keysByTable.clear();
+                keysOnAllTables.clear();
+            }
+        }
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+        return null;
+    }
+
+    @Override
+    public int hashCode() {
+        return delegate.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return delegate.equals(obj);
+    }
+
+    private void forgetEvicted() {
+        if (evictionQueue != null) {
+            for (Object key : evictionQueue.drain()) {
+                unregister(key);
+            }
+        }
+    }
+
+    private void collectAffected(Set<Object> keys, TableDependency write, List<Object> affected) {
+        if (keys == null) {
+            return;
+        }
+        for (Object key : keys) {
+            if (dependencies.get(key).isAffectedBy(write)) {
+                affected.add(key);
+            }
+        }
+    }
+
+    private void unregister(Object key) {
+        final TableDependency dependency = dependencies.remove(key);
+        if (dependency == null) {
+            return;
+        }
+        if (dependency.isAllTables()) {
+            keysOnAllTables.remove(key);
+            return;
+        }
+        for (String table : dependency.getTables()) {
+            final Set<Object> keys = keysByTable.get(table);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByTable.remove(table);
+                }
+            }
+        }
+    }
+
+    //下层淘汰掉的条目(没有配内存上限时)这里感知不到, 登记数明显多于缓存条目数时, 从最早登记的开始连同缓存条目一起移除
+    private void trimDependencies() {
+        final int limit = Math.max(1024, delegate.getSize() * 2);
+        final Iterator<Object> keys = dependencies.keySet().iterator();
+        final List<Object> dropped = new ArrayList<Object>();
+        while (dependencies.size() - dropped.size() > limit && keys.hasNext()) {
+            dropped.add(keys.next());
+        }
+        for (Object key : dropped) {
+            unregister(key);
+            delegate.removeObject(key);
+        }
+    }
+
+}
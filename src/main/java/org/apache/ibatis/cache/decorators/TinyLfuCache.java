@@ -0,0 +1,223 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * TinyLFU准入缓存, eviction="TINY_LFU"<br/>
+ * 在LRU的基础上加一道准入过滤: 缓存满了以后, 新key只有在最近的访问频率高于LRU将要淘汰的key时才会被放进来,
+ * 否则直接丢弃新key. 一次性扫描大量数据的查询(报表等)访问频率低, 不会把热点数据挤出去.<br/>
+ * 访问频率由一个count-min sketch估算(4位计数器, 每行最大15), 记录次数达到容量的10倍时所有计数器减半(老化),
+ * 让过去的热点慢慢冷却
+ */
+public class TinyLfuCache implements Cache {
+
+    private final Cache delegate;
+    /** 和LruCache一样, 用access-order的LinkedHashMap维护LRU顺序 */
+    private Map<Object, Object> keyMap;
+    private FrequencySketch sketch;
+    private int size;
+    private CacheStatistics statistics;
+    private EvictionQueue evictionQueue;
+
+    /**
+     * 默认容量1024
+     */
+    public TinyLfuCache(Cache delegate) {
+        this.delegate = delegate;
+        setSize(1024);
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+    /**
+     * @param size 最多保留的元素个数, 同时决定sketch的宽度
+     */
+    public void setSize(int size) {
+        this.size = size;
+        this.keyMap = new LinkedHashMap<Object, Object>(size, .75F, true);
+        this.sketch = new FrequencySketch(size);
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        forgetEvicted();
+        if (keyMap.containsKey(key) || keyMap.size() < size) {
+            keyMap.put(key, key);
+            delegate.putObject(key, value);
+            return;
+        }
+        final Object victim = keyMap.keySet().iterator().next();
+        //频率相同时保留老的, 新key要多被访问几次才能进来
+        if (sketch.frequency(key) > sketch.frequency(victim)) {
+            keyMap.remove(victim);
+            delegate.removeObject(victim);
+            keyMap.put(key, key);
+            delegate.putObject(key, value);
+        }
+        //被换出的老key, 或者没能进来的新key
+        if (statistics != null) {
+            statistics.recordEviction();
+        }
+    }
+
+    /** 每次get(不论是否命中)都计入频率, 命中时顺便touch一下LRU顺序 */
+    @Override
+    public Object getObject(Object key) {
+        forgetEvicted();
+        sketch.increment(key);
+        keyMap.get(key); //touch
+        return delegate.getObject(key);
+    }
+
+    /**
+     * 淘汰和拒绝准入都记成淘汰, 由CacheBuilder设置
+     */
+    public void setStatistics(CacheStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * 下层MemoryBoundedCache淘汰的条目也从keyMap里去掉, 否则还会被当成准入时比较的对象, 由CacheBuilder设置
+     */
+    public void setEvictionQueue(EvictionQueue evictionQueue) {
+        this.evictionQueue = evictionQueue;
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        keyMap.remove(key);
+        return delegate.removeObject(key);
+    }
+
+    /** 频率历史不清空: 刷新缓存后, 热点查询还是同样的CacheKey */
+    @Override
+    public void clear() {
+        delegate.clear();
+        keyMap.clear();
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+        return null;
+    }
+
+    private void forgetEvicted() {
+        if (evictionQueue != null) {
+            for (Object key : evictionQueue.drain()) {
+                keyMap.remove(key);
+            }
+        }
+    }
+
+    /**
+     * count-min sketch, 4行, 每个计数器4位(16个计数器打包在一个long里)
+     */
+    private static final class FrequencySketch {
+
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final int[] SEEDS = {0x97cb3127, 0xb4b82e39, 0xbe6ee7cb, 0x7b9a1e25};
+
+        //每行width个计数器(容量的16倍左右, 减少碰撞), 占width/16个long
+        private final long[][] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int width = 16;
+            while (width < 16L * maximumSize && width < (1 << 30)) {
+                width <<= 1;
+            }
+            this.table = new long[DEPTH][width >>> 4];
+            this.mask = width - 1;
+            this.sampleSize = maximumSize <= 0 ? 10 : (int) Math.min(10L * maximumSize, Integer.MAX_VALUE);
+        }
+
+        int frequency(Object key) {
+            final int hash = spread(key.hashCode());
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                frequency = Math.min(frequency, counter(i, index(hash, i)));
+            }
+            return frequency;
+        }
+
+        //conservative update: 只增加等于最小值的那些计数器, 减少碰撞带来的高估
+        void increment(Object key) {
+            final int hash = spread(key.hashCode());
+            final int[] indexes = new int[DEPTH];
+            int min = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                indexes[i] = index(hash, i);
+                min = Math.min(min, counter(i, indexes[i]));
+            }
+            if (min == MAX_COUNT) {
+                return;
+            }
+            for (int i = 0; i < DEPTH; i++) {
+                if (counter(i, indexes[i]) == min) {
+                    table[i][indexes[i] >>> 4] += 1L << ((indexes[i] & 15) << 2);
+                }
+            }
+            if (++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        //老化: 所有计数器减半
+        private void reset() {
+            for (long[] row : table) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = (row[j] >>> 1) & RESET_MASK;
+                }
+            }
+            additions >>>= 1;
+        }
+
+        private int counter(int row, int index) {
+            return (int) ((table[row][index >>> 4] >>> ((index & 15) << 2)) & 15L);
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 17;
+            return h & mask;
+        }
+
+        private static int spread(int hash) {
+            int h = hash * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+}
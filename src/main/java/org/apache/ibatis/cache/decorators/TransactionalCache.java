@@ -16,9 +16,14 @@
 package org.apache.ibatis.cache.decorators;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheInvalidation;
+import org.apache.ibatis.cache.TableDependency;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -43,6 +48,10 @@ public class TransactionalCache implements Cache {
     //commit时要添加的元素
     private Map<Object, Object> entriesToAddOnCommit;
     private Set<Object> entriesMissedInCache;
+    //commit时要按表/键失效的写操作, 只有delegate是TableDependencyCache时才会有
+    private List<TableDependency> invalidationsOnCommit;
+    //commit时要添加的元素依赖的表, 在失效之后放入时再登记
+    private Map<Object, TableDependency> dependenciesToAddOnCommit;
 
     public TransactionalCache(Cache delegate) {
         this.delegate = delegate;
@@ -50,6 +59,8 @@ public class TransactionalCache implements Cache {
         this.clearOnCommit = false;
         this.entriesToAddOnCommit = new HashMap<Object, Object>();
         this.entriesMissedInCache = new HashSet<Object>();
+        this.invalidationsOnCommit = new ArrayList<TableDependency>();
+        this.dependenciesToAddOnCommit = new HashMap<Object, TableDependency>();
     }
 
     @Override
@@ -70,7 +81,7 @@ public class TransactionalCache implements Cache {
             entriesMissedInCache.add(key);
         }
         // issue #146
-        if (clearOnCommit) {
+        if (clearOnCommit || isInvalidated(key)) {
             return null;
         } else {
             return object;
@@ -84,7 +95,21 @@ public class TransactionalCache implements Cache {
 
     @Override
     public void putObject(Object key, Object object) {
+        //直接在TableDependencyCache上登记过的, 拿下来到commit时重新登记
+        putObject(key, object, delegate instanceof TableDependencyCache
+                ? ((TableDependencyCache) delegate).getDependency(key) : null);
+    }
+
+    /**
+     * @param dependency 查询结果依赖的表, delegate是TableDependencyCache时在commit放入时登记
+     */
+    public void putObject(Object key, Object object, TableDependency dependency) {
         entriesToAddOnCommit.put(key, object);
+        if (dependency == null) {
+            dependenciesToAddOnCommit.remove(key);
+        } else {
+            dependenciesToAddOnCommit.put(key, dependency);
+        }
     }
 
     @Override
@@ -96,12 +121,50 @@ public class TransactionalCache implements Cache {
     public void clear() {
         clearOnCommit = true;
         entriesToAddOnCommit.clear();
+        dependenciesToAddOnCommit.clear();
+    }
+
+    /**
+     * 和clear一样推迟到commit, 但只失效受这个写操作影响的条目
+     */
+    public void invalidate(TableDependency write) {
+        if (!(delegate instanceof TableDependencyCache) || write.isAllTables()) {
+            clear();
+            return;
+        }
+        invalidationsOnCommit.add(write);
+        final Iterator<Object> keys = entriesToAddOnCommit.keySet().iterator();
+        while (keys.hasNext()) {
+            final Object key = keys.next();
+            final TableDependency dependency = dependenciesToAddOnCommit.get(key);
+            //不知道依赖的按受影响处理
+            if (dependency == null || dependency.isAffectedBy(write)) {
+                keys.remove();
+                dependenciesToAddOnCommit.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return commit时会对缓存做的失效, 没有的话返回null. 供TransactionalCacheManager发布给其它节点
+     */
+    public CacheInvalidation getInvalidationOnCommit() {
+        if (clearOnCommit) {
+            return CacheInvalidation.clear(getId());
+        } else if (!invalidationsOnCommit.isEmpty()) {
+            return new CacheInvalidation(getId(), false, invalidationsOnCommit);
+        }
+        return null;
     }
 
     //多了commit方法，提供事务功能
     public void commit() {
         if (clearOnCommit) {
             delegate.clear();
+        } else {
+            for (TableDependency write : invalidationsOnCommit) {
+                ((TableDependencyCache) delegate).invalidate(write);
+            }
         }
         flushPendingEntries();
         reset();
@@ -116,11 +179,33 @@ public class TransactionalCache implements Cache {
         clearOnCommit = false;
         entriesToAddOnCommit.clear();
         entriesMissedInCache.clear();
+        invalidationsOnCommit.clear();
+        dependenciesToAddOnCommit.clear();
+    }
+
+    //本事务里已经有写操作影响到这个key了, 提交前读不到缓存
+    private boolean isInvalidated(Object key) {
+        if (invalidationsOnCommit.isEmpty()) {
+            return false;
+        }
+        final TableDependencyCache tracking = (TableDependencyCache) delegate;
+        for (TableDependency write : invalidationsOnCommit) {
+            if (tracking.isAffected(key, write)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void flushPendingEntries() {
+        //上面的失效已经做完, 这时登记的依赖不会再被本事务的写操作注销
         for (Map.Entry<Object, Object> entry : entriesToAddOnCommit.entrySet()) {
-            delegate.putObject(entry.getKey(), entry.getValue());
+            final TableDependency dependency = dependenciesToAddOnCommit.get(entry.getKey());
+            if (dependency != null && delegate instanceof TableDependencyCache) {
+                ((TableDependencyCache) delegate).putObject(entry.getKey(), entry.getValue(), dependency);
+            } else {
+                delegate.putObject(entry.getKey(), entry.getValue());
+            }
         }
         for (Object entry : entriesMissedInCache) {
             if (!entriesToAddOnCommit.containsKey(entry)) {
@@ -16,6 +16,7 @@
 package org.apache.ibatis.cache.decorators;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
@@ -25,6 +26,7 @@ import java.util.concurrent.locks.ReadWriteLock;
 
 /**
  * 弱引用缓存，可以看到代码和SoftCache如出一辙，就是SoftReference变成了WeakReference<br/><br/>
+ * 并发高的namespace用eviction="CONCURRENT_WEAK"({@link ConcurrentWeakCache})<br/><br/>
  * Weak Reference cache decorator.
  * Thanks to Dr. Heinz Kabutz for his guidance here.
  *
@@ -35,6 +37,7 @@ public class WeakCache implements Cache {
     private final ReferenceQueue<Object> queueOfGarbageCollectedEntries;
     private final Cache delegate;
     private int numberOfHardLinks;
+    private CacheStatistics statistics;
 
     public WeakCache(Cache delegate) {
         this.delegate = delegate;
@@ -83,6 +86,13 @@ public class WeakCache implements Cache {
         return result;
     }
 
+    /**
+     * 淘汰时记到统计里, 由CacheBuilder设置
+     */
+    public void setStatistics(CacheStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     @Override
     public Object removeObject(Object key) {
         removeGarbageCollectedItems();
@@ -105,6 +115,10 @@ public class WeakCache implements Cache {
         WeakEntry sv;
         while ((sv = (WeakEntry) queueOfGarbageCollectedEntries.poll()) != null) {
             delegate.removeObject(sv.key);
+            //被GC回收的条目算淘汰, 每个引用只会进队列一次
+            if (statistics != null) {
+                statistics.recordEviction();
+            }
         }
     }
 
@@ -0,0 +1,112 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import org.apache.ibatis.cache.CacheWeigher;
+import org.apache.ibatis.cache.DefaultCacheWeigher;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 有上限的一级缓存, &lt;setting name="localCacheSize"/&gt;或&lt;setting name="localCacheMaxBytes"/&gt;大于0时BaseExecutor用它代替PerpetualCache.<br/>
+ * 按LRU淘汰, 但放进去时不淘汰: 嵌套查询的占位符和延迟加载要用的结果在最外层查询结束前都不能丢,
+ * 所以由BaseExecutor在最外层查询结束时调用trim
+ */
+public class BoundedLocalCache extends PerpetualCache {
+
+    private final int maxSize;
+    private final long maxBytes;
+    private final CacheWeigher weigher = new DefaultCacheWeigher();
+    //按访问顺序排列, 值是估算的字节数(不按字节限制时都是0)
+    private final Map<Object, Long> weights = new LinkedHashMap<Object, Long>(16, .75F, true);
+    private long usedBytes;
+
+    /**
+     * @param maxSize  最多条数, 0为不限制
+     * @param maxBytes 最多字节数(估算), 0为不限制
+     */
+    public BoundedLocalCache(String id, int maxSize, long maxBytes) {
+        super(id);
+        this.maxSize = maxSize;
+        this.maxBytes = maxBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        release(key);
+        super.putObject(key, value);
+        //估算要遍历整个结果对象图, 只在按字节限制时才做
+        final long weight = maxBytes > 0 ? weigher.weigh(key, value) : 0;
+        weights.put(key, weight);
+        usedBytes += weight;
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        final Object value = super.getObject(key);
+        if (value != null) {
+            weights.get(key); //touch
+        }
+        return value;
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        release(key);
+        return super.removeObject(key);
+    }
+
+    @Override
+    public void clear() {
+        weights.clear();
+        usedBytes = 0;
+        super.clear();
+    }
+
+    /**
+     * 从最久没用过的开始淘汰, 直到条数和字节数都不超限
+     *
+     * @return 淘汰掉的key
+     */
+    public List<Object> trim() {
+        final List<Object> evicted = new ArrayList<Object>();
+        final Iterator<Map.Entry<Object, Long>> iterator = weights.entrySet().iterator();
+        while (iterator.hasNext() && ((maxSize > 0 && weights.size() > maxSize) || (maxBytes > 0 && usedBytes > maxBytes))) {
+            final Map.Entry<Object, Long> eldest = iterator.next();
+            iterator.remove();
+            usedBytes -= eldest.getValue();
+            super.removeObject(eldest.getKey());
+            evicted.add(eldest.getKey());
+        }
+        return evicted;
+    }
+
+    private void release(Object key) {
+        final Long weight = weights.remove(key);
+        if (weight != null) {
+            usedBytes -= weight;
+        }
+    }
+
+}
@@ -0,0 +1,370 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.DefaultCacheSerializer;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 堆外缓存, &lt;cache type="OFF_HEAP"/&gt;<br/>
+ * 值序列化以后存到direct ByteBuffer里, 堆上只留key和(偏移, 长度)索引, 几个G的缓存也不会拖长GC停顿.<br/>
+ * 容量(capacity, 字节, 默认64M)按key的hash分成若干段, 每段一个环形日志: 顺序追加写入, 写满了从头覆盖,
+ * 被覆盖的最老条目就是淘汰掉的(FIFO). 每段一把读写锁, 读只拿读锁, 所以本身是线程安全的.<br/>
+ * 一个条目只能放在一段里, 所以单个值序列化后不能超过每段的大小: 最多分16段, 但每段至少有maxEntryBytes(默认8M)那么大,
+ * 超过的值不缓存并打一条警告日志.<br/>
+ * 和其它自定义type一样, CacheBuilder不会再给它加LRU/SerializedCache等装饰者, 值必须是Serializable
+ */
+public class OffHeapCache implements Cache {
+
+    private static final Log log = LogFactory.getLog(OffHeapCache.class);
+
+    //单段最大1G, 超过就多分几段
+    private static final long MAX_SEGMENT_CAPACITY = 1L << 30;
+    //每段都放得下maxEntryBytes时最多分这么多段, 段越多写入的锁竞争越小
+    private static final int MAX_SEGMENTS = 16;
+
+    private final String id;
+    private long capacity = 64L * 1024 * 1024;
+    private long maxEntryBytes = 8L * 1024 * 1024;
+    private CacheSerializer serializer = new DefaultCacheSerializer();
+    private volatile Segment[] segments;
+    private volatile CacheStatistics statistics;
+    //超大的值只警告一次
+    private volatile boolean oversizedWarned;
+
+    public OffHeapCache(String id) {
+        this.id = id;
+    }
+
+    /**
+     * @param capacity 堆外内存总字节数, 第一次写入时才真正分配. 分段以后单个条目的上限是每段的大小,
+     *                 见{@link #setMaxEntryBytes(long)}
+     */
+    public void setCapacity(long capacity) {
+        if (segments != null) {
+            throw new CacheException("Cannot change the capacity of off-heap cache " + id + " after it has been used");
+        }
+        this.capacity = capacity;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param maxEntryBytes 单个值序列化后预计最大的字节数(默认8M, 不能超过1G). 分段时保证每段至少这么大,
+     *                      段数因此可能少于16, 比capacity还大时只分一段; 实际上限是每段的大小(capacity/段数), 超过的值不缓存
+     */
+    public void setMaxEntryBytes(long maxEntryBytes) {
+        if (segments != null) {
+            throw new CacheException("Cannot change the maximum entry size of off-heap cache " + id + " after it has been used");
+        }
+        if (maxEntryBytes <= 0 || maxEntryBytes > MAX_SEGMENT_CAPACITY) {
+            throw new CacheException("The maximum entry size of off-heap cache " + id + " must be between 1 and " + MAX_SEGMENT_CAPACITY + " bytes but was " + maxEntryBytes);
+        }
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * @param serializer 和SerializedCache的serializer属性一样, 但存储形式必须是byte[](CLONING不行)
+     */
+    public void setSerializer(String serializer) {
+        this.serializer = SerializedCache.newSerializer(serializer);
+    }
+
+    /**
+     * 被覆盖掉的条目记到统计里, 由CacheBuilder设置
+     */
+    public void setStatistics(CacheStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public int getSize() {
+        final Segment[] current = segments;
+        if (current == null) {
+            return 0;
+        }
+        int size = 0;
+        for (Segment segment : current) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        if (value != null && !(value instanceof Serializable)) {
+            throw new CacheException("Off-heap cache " + id + " can only store serializable objects: " + value);
+        }
+        final Object stored = serializer.serialize((Serializable) value);
+        if (!(stored instanceof byte[])) {
+            throw new CacheException("Off-heap cache " + id + " needs a serializer that produces byte[] but got " + stored.getClass().getName());
+        }
+        final byte[] bytes = (byte[]) stored;
+        final Segment segment = segmentFor(key);
+        if (bytes.length > segment.capacity) {
+            //旧值也要去掉, 否则读到的是过期数据
+            segment.remove(key);
+            warnOversized(bytes.length, segment.capacity);
+            return;
+        }
+        final int evicted = segment.put(key, bytes);
+        final CacheStatistics current = statistics;
+        if (current != null) {
+            for (int i = 0; i < evicted; i++) {
+                current.recordEviction();
+            }
+        }
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        if (segments == null) {
+            return null;
+        }
+        final byte[] bytes = segmentFor(key).get(key);
+        return bytes == null ? null : serializer.deserialize(bytes);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        if (segments == null) {
+            return null;
+        }
+        final byte[] bytes = segmentFor(key).remove(key);
+        return bytes == null ? null : serializer.deserialize(bytes);
+    }
+
+    @Override
+    public void clear() {
+        final Segment[] current = segments;
+        if (current != null) {
+            for (Segment segment : current) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Cache)) {
+            return false;
+        }
+        return id.equals(((Cache) o).getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+
+    private Segment segmentFor(Object key) {
+        Segment[] current = segments;
+        if (current == null) {
+            current = initSegments();
+        }
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return current[(hash & 0x7fffffff) % current.length];
+    }
+
+    private void warnOversized(int length, int limit) {
+        if (!oversizedWarned) {
+            oversizedWarned = true;
+            log.warn("Off-heap cache " + id + " did not store a value of " + length + " bytes, entries are limited to "
+                    + limit + " bytes. Raise the capacity or maxEntryBytes property to cache larger values.");
+        }
+    }
+
+    private synchronized Segment[] initSegments() {
+        if (segments == null) {
+            //段数: 单段不超过1G的前提下, 尽量分到16段, 但每段不小于maxEntryBytes(比capacity还大时只分一段)
+            final long required = (capacity + MAX_SEGMENT_CAPACITY - 1) / MAX_SEGMENT_CAPACITY;
+            final int count = (int) Math.max(1, Math.max(required, Math.min(MAX_SEGMENTS, capacity / maxEntryBytes)));
+            final int segmentCapacity = (int) Math.max(1, capacity / count);
+            final Segment[] created = new Segment[count];
+            for (int i = 0; i < count; i++) {
+                created[i] = new Segment(segmentCapacity);
+            }
+            segments = created;
+        }
+        return segments;
+    }
+
+    /**
+     * 一段环形日志. 条目按写入顺序排在fifo里, 写指针绕回开头时, 覆盖区域里的老条目按顺序淘汰
+     */
+    private static final class Segment {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final int capacity;
+        private final Map<Object, Entry> index = new HashMap<Object, Entry>();
+        private final Deque<Entry> fifo = new ArrayDeque<Entry>();
+        private ByteBuffer buffer;
+        private int writePosition;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return index.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        byte[] get(Object key) {
+            lock.readLock().lock();
+            try {
+                final Entry entry = index.get(key);
+                return entry == null ? null : read(entry);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * @return 为腾地方淘汰掉的条目数
+         */
+        int put(Object key, byte[] bytes) {
+            lock.writeLock().lock();
+            try {
+                int evicted = 0;
+                final Entry previous = index.remove(key);
+                if (previous != null) {
+                    previous.removed = true;
+                }
+                if (buffer == null) {
+                    buffer = ByteBuffer.allocateDirect(capacity);
+                }
+                if (writePosition + bytes.length > capacity) {
+                    //尾部放不下, 尾部剩下的都是最老的条目, 先全部淘汰再绕回开头
+                    while (!fifo.isEmpty() && fifo.peekFirst().offset >= writePosition) {
+                        evicted += evict(fifo.pollFirst());
+                    }
+                    writePosition = 0;
+                }
+                final int end = writePosition + bytes.length;
+                while (!fifo.isEmpty() && fifo.peekFirst().offset < end && fifo.peekFirst().offset >= writePosition) {
+                    evicted += evict(fifo.pollFirst());
+                }
+                final ByteBuffer target = buffer.duplicate();
+                target.position(writePosition);
+                target.put(bytes);
+                final Entry entry = new Entry(key, writePosition, bytes.length);
+                writePosition = end;
+                fifo.addLast(entry);
+                index.put(key, entry);
+                return evicted;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        byte[] remove(Object key) {
+            lock.writeLock().lock();
+            try {
+                final Entry entry = index.remove(key);
+                if (entry == null) {
+                    return null;
+                }
+                entry.removed = true;
+                return read(entry);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void clear() {
+            lock.writeLock().lock();
+            try {
+                index.clear();
+                fifo.clear();
+                writePosition = 0;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        //已经被删除或覆盖写的条目不算淘汰
+        private int evict(Entry entry) {
+            if (!entry.removed) {
+                index.remove(entry.key);
+                return 1;
+            }
+            return 0;
+        }
+
+        private byte[] read(Entry entry) {
+            final byte[] bytes = new byte[entry.length];
+            final ByteBuffer source = buffer.duplicate();
+            source.position(entry.offset);
+            source.get(bytes);
+            return bytes;
+        }
+    }
+
+    private static final class Entry {
+        final Object key;
+        final int offset;
+        final int length;
+        //被覆盖写入或remove以后, fifo里只剩个占位
+        boolean removed;
+
+        Entry(Object key, int offset, int length) {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import org.apache.ibatis.cache.CacheInvalidation;
+import org.apache.ibatis.cache.CacheInvalidationBus;
+import org.apache.ibatis.cache.CacheInvalidationListener;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 进程内的参考实现, &lt;setting name="cacheInvalidationBus" value="LOOPBACK"/&gt;<br/>
+ * 同一个channel上的每个实例相当于一个节点, 一个实例发布的失效在调用线程上同步投递给同channel的其它实例.
+ * 同一个JVM里有多个SqlSessionFactory连同一个库时可以直接用, 也用来测试多节点的行为.<br/>
+ * channel只弱引用各个实例: 实例由Configuration持有, Configuration没人用了实例也就跟着回收, 不用非得调close
+ */
+public class LoopbackCacheInvalidationBus implements CacheInvalidationBus {
+
+    private static final ConcurrentMap<String, List<WeakReference<LoopbackCacheInvalidationBus>>> CHANNELS = new ConcurrentHashMap<String, List<WeakReference<LoopbackCacheInvalidationBus>>>();
+
+    private final String channel;
+    private final List<CacheInvalidationListener> listeners = new CopyOnWriteArrayList<CacheInvalidationListener>();
+
+    public LoopbackCacheInvalidationBus() {
+        this("default");
+    }
+
+    public LoopbackCacheInvalidationBus(String channel) {
+        this.channel = channel;
+        List<WeakReference<LoopbackCacheInvalidationBus>> nodes = CHANNELS.get(channel);
+        if (nodes == null) {
+            final List<WeakReference<LoopbackCacheInvalidationBus>> created = new CopyOnWriteArrayList<WeakReference<LoopbackCacheInvalidationBus>>();
+            nodes = CHANNELS.putIfAbsent(channel, created);
+            if (nodes == null) {
+                nodes = created;
+            }
+        }
+        //顺便清掉已经回收的实例
+        remove(nodes, null);
+        nodes.add(new WeakReference<LoopbackCacheInvalidationBus>(this));
+    }
+
+    @Override
+    public void publish(CacheInvalidation invalidation) {
+        final List<WeakReference<LoopbackCacheInvalidationBus>> nodes = CHANNELS.get(channel);
+        if (nodes == null) {
+            return;
+        }
+        boolean collected = false;
+        for (WeakReference<LoopbackCacheInvalidationBus> reference : nodes) {
+            final LoopbackCacheInvalidationBus node = reference.get();
+            if (node == null) {
+                collected = true;
+            } else if (node != this) {
+                node.deliver(invalidation);
+            }
+        }
+        if (collected) {
+            remove(nodes, null);
+        }
+    }
+
+    @Override
+    public void subscribe(CacheInvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        final List<WeakReference<LoopbackCacheInvalidationBus>> nodes = CHANNELS.get(channel);
+        if (nodes != null) {
+            remove(nodes, this);
+        }
+    }
+
+    //node为null时去掉已经回收的实例
+    private static void remove(List<WeakReference<LoopbackCacheInvalidationBus>> nodes, LoopbackCacheInvalidationBus node) {
+        for (WeakReference<LoopbackCacheInvalidationBus> reference : nodes) {
+            if (reference.get() == node) {
+                nodes.remove(reference);
+            }
+        }
+    }
+
+    private void deliver(CacheInvalidation invalidation) {
+        for (CacheInvalidationListener listener : listeners) {
+            listener.onInvalidation(invalidation);
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheInvalidation;
+import org.apache.ibatis.cache.CacheInvalidationBus;
+import org.apache.ibatis.cache.CacheInvalidationListener;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 基于UDP的实现, 每个节点绑定一个端口, 把失效逐个发给登记的其它节点.<br/>
+ * 不保证送达, 也不重发, 适合本机多进程测试或者对一致性要求不高、缓存另有过期时间的场景.<br/>
+ * 失效按{@link CacheInvalidation#writeTo}的格式发送, 不用java序列化; 只接受登记过的节点(addPeer)发来的包.
+ * 一个失效编码后超过一个UDP包时, 改为发送整个缓存清空
+ */
+public class UdpCacheInvalidationBus implements CacheInvalidationBus {
+
+    private static final Log log = LogFactory.getLog(UdpCacheInvalidationBus.class);
+    private static final int MAX_PACKET = 65507;
+
+    private final DatagramSocket socket;
+    private final List<SocketAddress> peers = new CopyOnWriteArrayList<SocketAddress>();
+    private final List<CacheInvalidationListener> listeners = new CopyOnWriteArrayList<CacheInvalidationListener>();
+    private final Thread receiver;
+
+    /**
+     * @param port 本节点在127.0.0.1上监听的端口, 0表示随便选一个(用getPort取)
+     */
+    public UdpCacheInvalidationBus(int port) {
+        this(new InetSocketAddress("127.0.0.1", port));
+    }
+
+    public UdpCacheInvalidationBus(InetSocketAddress bindAddress) {
+        try {
+            this.socket = new DatagramSocket(bindAddress);
+        } catch (SocketException e) {
+            throw new CacheException("Could not bind cache invalidation socket to " + bindAddress + ".  Cause: " + e, e);
+        }
+        this.receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive();
+            }
+        }, "mybatis-cache-invalidation-" + socket.getLocalPort());
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * 登记一个节点: 失效会发给它, 也只接受从这些地址发来的失效
+     */
+    public void addPeer(SocketAddress peer) {
+        peers.add(peer);
+    }
+
+    @Override
+    public void publish(CacheInvalidation invalidation) {
+        byte[] bytes = encode(invalidation);
+        if (bytes == null || bytes.length > MAX_PACKET) {
+            bytes = encode(CacheInvalidation.clear(invalidation.getCacheId()));
+            if (bytes == null) {
+                throw new CacheException("Error encoding cache invalidation " + invalidation);
+            }
+        }
+        for (SocketAddress peer : peers) {
+            try {
+                socket.send(new DatagramPacket(bytes, bytes.length, peer));
+            } catch (IOException e) {
+                log.warn("Error sending cache invalidation to " + peer + ".  Cause: " + e);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(CacheInvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+
+    private void receive() {
+        final byte[] buffer = new byte[MAX_PACKET];
+        while (!socket.isClosed()) {
+            final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                //close()以后receive会抛异常, 正常退出
+                if (!socket.isClosed()) {
+                    log.warn("Error receiving cache invalidation.  Cause: " + e);
+                }
+                continue;
+            }
+            if (!peers.contains(packet.getSocketAddress())) {
+                log.warn("Ignoring cache invalidation from unknown peer " + packet.getSocketAddress());
+                continue;
+            }
+            try {
+                final DataInputStream in = new DataInputStream(new ByteArrayInputStream(packet.getData(), 0, packet.getLength()));
+                final CacheInvalidation invalidation = CacheInvalidation.readFrom(in);
+                for (CacheInvalidationListener listener : listeners) {
+                    listener.onInvalidation(invalidation);
+                }
+            } catch (Exception e) {
+                log.warn("Error applying cache invalidation from " + packet.getSocketAddress() + ".  Cause: " + e);
+            }
+        }
+    }
+
+    //键值太长等writeUTF写不下的返回null, 由调用方改为发送清空
+    private static byte[] encode(CacheInvalidation invalidation) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            invalidation.writeTo(out);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            log.debug("Error encoding cache invalidation " + invalidation + ".  Cause: " + e);
+            return null;
+        }
+    }
+
+}
@@ -16,6 +16,7 @@
 package org.apache.ibatis.executor;
 
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.impl.BoundedLocalCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
@@ -28,11 +29,11 @@ import org.apache.ibatis.session.LocalCacheScope;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
-import org.apache.ibatis.type.TypeHandlerRegistry;
 
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -56,6 +57,8 @@ public abstract class BaseExecutor implements Executor {
     //本地输出参数缓存
     protected PerpetualCache localOutputParameterCache;
     protected Configuration configuration;
+    //localCache="false"的语句放进一级缓存的key, 最外层查询结束时移除
+    private final List<CacheKey> statementScopedKeys = new ArrayList<CacheKey>();
 
     //查询堆栈
     /**
@@ -67,7 +70,7 @@ public abstract class BaseExecutor implements Executor {
     protected BaseExecutor(Configuration configuration, Transaction transaction) {
         this.transaction = transaction;
         this.deferredLoads = new ConcurrentLinkedQueue<DeferredLoad>();
-        this.localCache = new PerpetualCache("LocalCache");
+        this.localCache = newLocalCache(configuration);
         this.localOutputParameterCache = new PerpetualCache("LocalOutputParameterCache");
         this.closed = false;
         this.configuration = configuration;
@@ -190,11 +193,36 @@ public abstract class BaseExecutor implements Executor {
                 // issue #482
                 //如果是STATEMENT，清本地缓存
                 clearLocalCache();
+            } else {
+                //只在最外层查询结束时移除, 嵌套查询和延迟加载还要用
+                evictLocalCache();
             }
         }
         return list;
     }
 
+    private PerpetualCache newLocalCache(Configuration configuration) {
+        //ResultLoaderMap.ClosedExecutor没有configuration
+        if (configuration != null && (configuration.getLocalCacheSize() > 0 || configuration.getLocalCacheMaxBytes() > 0)) {
+            return new BoundedLocalCache("LocalCache", configuration.getLocalCacheSize(), configuration.getLocalCacheMaxBytes());
+        }
+        return new PerpetualCache("LocalCache");
+    }
+
+    private void evictLocalCache() {
+        for (CacheKey key : statementScopedKeys) {
+            localCache.removeObject(key);
+            localOutputParameterCache.removeObject(key);
+        }
+        statementScopedKeys.clear();
+        if (localCache instanceof BoundedLocalCache) {
+            //OUT参数跟着结果一起淘汰
+            for (Object key : ((BoundedLocalCache) localCache).trim()) {
+                localOutputParameterCache.removeObject(key);
+            }
+        }
+    }
+
     //延迟加载，DefaultResultSetHandler.getNestedQueryMappingValue调用.属于嵌套查询，比较高级.
     @Override
     public void deferLoad(MappedStatement ms, MetaObject resultObject, String property, CacheKey key, Class<?> targetType) {
@@ -217,32 +245,17 @@ public abstract class BaseExecutor implements Executor {
         if (closed) {
             throw new ExecutorException("Executor was closed.");
         }
-        CacheKey cacheKey = new CacheKey();
         //MyBatis 对于其 Key 的生成采取规则为：[mappedStementId + offset + limit + SQL + queryParams + environment]生成一个哈希码
-        cacheKey.update(ms.getId());
+        //id和SQL合成一个按形态复用的前缀, 后面是offset, limit, 参数和环境id
+        List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+        CacheKey cacheKey = new CacheKey(ms.getCacheKeyPrefix(boundSql.getSql()), parameterMappings.size() + 3);
         cacheKey.update(Integer.valueOf(rowBounds.getOffset()));
         cacheKey.update(Integer.valueOf(rowBounds.getLimit()));
-        cacheKey.update(boundSql.getSql());
-        List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
-        TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
-        // mimic DefaultParameterHandler logic
-        //模仿DefaultParameterHandler的逻辑,不再重复，请参考DefaultParameterHandler
+        //参数值和DefaultParameterHandler用的是BoundSql里同一份解析结果
+        Object[] parameterValues = boundSql.getParameterValues();
         for (int i = 0; i < parameterMappings.size(); i++) {
-            ParameterMapping parameterMapping = parameterMappings.get(i);
-            if (parameterMapping.getMode() != ParameterMode.OUT) {
-                Object value;
-                String propertyName = parameterMapping.getProperty();
-                if (boundSql.hasAdditionalParameter(propertyName)) {
-                    value = boundSql.getAdditionalParameter(propertyName);
-                } else if (parameterObject == null) {
-                    value = null;
-                } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
-                    value = parameterObject;
-                } else {
-                    MetaObject metaObject = configuration.newMetaObject(parameterObject);
-                    value = metaObject.getValue(propertyName);
-                }
-                cacheKey.update(value);
+            if (parameterMappings.get(i).getMode() != ParameterMode.OUT) {
+                cacheKey.update(parameterValues[i]);
             }
         }
         if (configuration.getEnvironment() != null) {
@@ -291,6 +304,7 @@ public abstract class BaseExecutor implements Executor {
         if (!closed) {
             localCache.clear();
             localOutputParameterCache.clear();
+            statementScopedKeys.clear();
         }
     }
 
@@ -342,6 +356,9 @@ public abstract class BaseExecutor implements Executor {
         }
         //加入缓存
         localCache.putObject(key, list);
+        if (!ms.isUseLocalCache()) {
+            statementScopedKeys.add(key);
+        }
         //如果是存储过程，OUT参数也加入缓存
         if (ms.getStatementType() == StatementType.CALLABLE) {
             localOutputParameterCache.putObject(key, parameter);
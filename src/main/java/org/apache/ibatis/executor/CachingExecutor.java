@@ -16,16 +16,29 @@
 package org.apache.ibatis.executor;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheInvalidationBus;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.TableDependency;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.StaleWhileRevalidateCache;
+import org.apache.ibatis.cache.decorators.TableDependencyCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.mapping.*;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
 
 import java.sql.SQLException;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * 装饰者, 增加缓存功能
@@ -33,11 +46,27 @@ import java.util.List;
  * 二级缓存就是通过这个类实现的
  */
 public class CachingExecutor implements Executor {
+    private static final Log log = LogFactory.getLog(CachingExecutor.class);
+    //加锁的查询: for update / for share / lock in share mode
+    static final Pattern LOCKING_READ = Pattern.compile("\\bfor\\s+(update|share)\\b|\\block\\s+in\\s+share\\s+mode\\b", Pattern.CASE_INSENSITIVE);
+
     private Executor delegate;
-    private TransactionalCacheManager transactionalCacheManager = new TransactionalCacheManager();
+    private final CacheInvalidationBus invalidationBus;
+    //第一次用到时才创建, 只读的session用不到
+    private TransactionalCacheManager transactionalCacheManager;
+    //本事务里执行过写操作(或者flushCache的查询)没有, 没有的话二级缓存直接读写, 不经过TransactionalCache
+    private boolean dirty;
 
     public CachingExecutor(Executor delegate) {
+        this(delegate, null);
+    }
+
+    /**
+     * @param invalidationBus 提交时把缓存失效发布给其它节点, 可以为null
+     */
+    public CachingExecutor(Executor delegate, CacheInvalidationBus invalidationBus) {
         this.delegate = delegate;
+        this.invalidationBus = invalidationBus;
         delegate.setExecutorWrapper(this);
     }
 
@@ -50,6 +79,9 @@ public class CachingExecutor implements Executor {
     public void close(boolean forceRollback) {
         try {
             //issues #499, #524 and #573
+            if (transactionalCacheManager == null) {
+                return;
+            }
             if (forceRollback) {
                 transactionalCacheManager.rollback();
             } else {
@@ -67,8 +99,10 @@ public class CachingExecutor implements Executor {
 
     @Override
     public int update(MappedStatement ms, Object parameterObject) throws SQLException {
+        //不管有没有二级缓存, 写过以后本事务读到的都可能是未提交的数据
+        dirty = true;
         //刷新缓存完再update
-        flushCacheIfRequired(ms);
+        flushCacheIfRequired(ms, parameterObject);
         return delegate.update(ms, parameterObject);
     }
 
@@ -96,16 +130,95 @@ public class CachingExecutor implements Executor {
             flushCacheIfRequired(mappedStatement);
             if (mappedStatement.isUseCache() && resultHandler == null) {
                 ensureNoOutParams(mappedStatement, parameterObject, boundSql);
+                //没写过的事务读到的都是已提交的数据, 可以直接写进二级缓存, 省掉TransactionalCache的簿记
+                final boolean writeThrough = !dirty && mappedStatement.getConfiguration().isCacheReadOnlyFastPath();
                 //先从cache里面查
-                @SuppressWarnings("unchecked") List<E> list = (List<E>) transactionalCacheManager.getObject(cache, cacheKey);
+                @SuppressWarnings("unchecked") List<E> list = (List<E>) (writeThrough
+                        ? cache.getObject(cacheKey) : transactionalCacheManager().getObject(cache, cacheKey));
+                //读到的是过期(或快要过期)的数据, 并且由本线程负责刷新: 先把当前值返回, 后台重新查.
+                //两个标记都要取出来清掉
+                final boolean staleClaimed = StaleWhileRevalidateCache.refreshClaimed();
+                final boolean aheadClaimed = ExpiringCache.refreshAheadClaimed();
+                if ((staleClaimed || aheadClaimed) && list != null) {
+                    scheduleRefresh(mappedStatement, parameterObject, rowBounds, cacheKey, staleClaimed, aheadClaimed);
+                }
                 if (list == null) {
-                    list = delegate.<E>query(mappedStatement, parameterObject, rowBounds, resultHandler, cacheKey, boundSql);
-                    transactionalCacheManager.putObject(cache, cacheKey, list); // issue #578 and #116
+                    final long start = System.nanoTime();
+                    try {
+                        list = queryDatabase(mappedStatement, parameterObject, rowBounds, resultHandler, cacheKey, boundSql);
+                    } finally {
+                        //查询失败: 没有TransactionalCache在回滚时释放BlockingCache的锁, 这里自己释放
+                        if (list == null && writeThrough) {
+                            cache.putObject(cacheKey, null);
+                        }
+                    }
+                    recordLoad(mappedStatement, cache, System.nanoTime() - start);
+                    //依赖在放入缓存时才登记, 期间的失效不会把它注销掉
+                    final TableDependency dependency = cache instanceof TableDependencyCache ? TableDependency.of(boundSql) : null;
+                    if (writeThrough && dependency != null) {
+                        ((TableDependencyCache) cache).putObject(cacheKey, list, dependency);
+                    } else if (writeThrough) {
+                        cache.putObject(cacheKey, list);
+                    } else {
+                        transactionalCacheManager().putObject(cache, cacheKey, list, dependency); // issue #578 and #116
+                    }
                 }
                 return list;
             }
         }
-        return delegate.<E>query(mappedStatement, parameterObject, rowBounds, resultHandler, cacheKey, boundSql);
+        return queryDatabase(mappedStatement, parameterObject, rowBounds, resultHandler, cacheKey, boundSql);
+    }
+
+    //二级缓存没有命中(或者没配二级缓存)时去查数据库, 开了queryCoalescing的话和其它session同时发出的相同查询合并
+    private <E> List<E> queryDatabase(final MappedStatement ms, final Object parameterObject, final RowBounds rowBounds,
+                                      final ResultHandler resultHandler, final CacheKey cacheKey, final BoundSql boundSql) throws SQLException {
+        if (!isCoalescable(ms, resultHandler, cacheKey, boundSql)) {
+            return delegate.<E>query(ms, parameterObject, rowBounds, resultHandler, cacheKey, boundSql);
+        }
+        final Configuration configuration = ms.getConfiguration();
+        return configuration.getQueryCoalescer().query(cacheKey, isReadOnly(ms.getCache()), configuration.getQueryCoalescingTimeout(), new QueryCoalescer.Loader<E>() {
+            @Override
+            public List<E> load() throws SQLException {
+                return delegate.<E>query(ms, parameterObject, rowBounds, resultHandler, cacheKey, boundSql);
+            }
+        });
+    }
+
+    /**
+     * 只合并读已提交数据的普通查询: 写过的事务可能读到自己未提交的数据, 不能给别人也不能用别人的;
+     * 有ResultHandler的没有结果List; 嵌套查询(懒加载)的结果对象绑着leader的session; 一级缓存里已有的不用去等别人;
+     * 加锁读(for update等)要各自拿到行锁
+     */
+    private boolean isCoalescable(MappedStatement ms, ResultHandler resultHandler, CacheKey cacheKey, BoundSql boundSql) {
+        if (!ms.getConfiguration().isQueryCoalescing() || dirty || resultHandler != null
+                || ms.getSqlCommandType() != SqlCommandType.SELECT || ms.isFlushCacheRequired()
+                || ms.getStatementType() == StatementType.CALLABLE
+                || LOCKING_READ.matcher(boundSql.getSql()).find()) {
+            return false;
+        }
+        for (ResultMap resultMap : ms.getResultMaps()) {
+            if (resultMap.hasNestedQueries()) {
+                return false;
+            }
+        }
+        return !delegate.isCached(ms, cacheKey);
+    }
+
+    //readOnly的二级缓存各session本来就共用同一份结果, 合并时也不用复制; 没配缓存或者readOnly="false"的要复制
+    private static boolean isReadOnly(Cache cache) {
+        Object current = cache;
+        while (current != null) {
+            if (current instanceof SerializedCache) {
+                return false;
+            }
+            if (current instanceof PerpetualCache) {
+                return true;
+            }
+            final MetaObject metaCache = SystemMetaObject.forObject(current);
+            current = metaCache.hasGetter("delegate") ? metaCache.getValue("delegate") : null;
+        }
+        //自定义的缓存实现不知道是不是返回副本, 按要复制处理
+        return false;
     }
 
     @Override
@@ -116,7 +229,10 @@ public class CachingExecutor implements Executor {
     @Override
     public void commit(boolean required) throws SQLException {
         delegate.commit(required);
-        transactionalCacheManager.commit();
+        if (transactionalCacheManager != null) {
+            transactionalCacheManager.commit();
+        }
+        dirty = false;
     }
 
     @Override
@@ -125,7 +241,10 @@ public class CachingExecutor implements Executor {
             delegate.rollback(required);
         } finally {
             if (required) {
-                transactionalCacheManager.rollback();
+                if (transactionalCacheManager != null) {
+                    transactionalCacheManager.rollback();
+                }
+                dirty = false;
             }
         }
     }
@@ -160,10 +279,76 @@ public class CachingExecutor implements Executor {
         delegate.clearLocalCache();
     }
 
+    /**
+     * 用独立的事务和SimpleExecutor在后台重新执行语句, 结果直接写入二级缓存(不经过本session的TransactionalCache).<br/>
+     * 写回时告诉领任务的装饰者这是刷新结果, 刷新期间条目被失效了的话由它丢掉这份结果
+     */
+    private void scheduleRefresh(final MappedStatement ms, final Object parameterObject, final RowBounds rowBounds, final CacheKey cacheKey,
+                                 final boolean staleClaimed, final boolean aheadClaimed) {
+        final Configuration configuration = ms.getConfiguration();
+        configuration.getCacheRefreshExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Environment environment = configuration.getEnvironment();
+                final Transaction tx = environment.getTransactionFactory().newTransaction(environment.getDataSource(), null, false);
+                final Executor executor = new SimpleExecutor(configuration, tx);
+                try {
+                    final BoundSql boundSql = ms.getBoundSql(parameterObject);
+                    final List<Object> list = executor.query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, cacheKey, boundSql);
+                    final Cache cache = ms.getCache();
+                    StaleWhileRevalidateCache.setWritingRefresh(staleClaimed);
+                    ExpiringCache.setWritingRefreshAhead(aheadClaimed);
+                    try {
+                        //和未命中时一样登记依赖, 否则刷新回来的条目再也不会被写操作失效
+                        if (cache instanceof TableDependencyCache) {
+                            ((TableDependencyCache) cache).putObject(cacheKey, list, TableDependency.of(boundSql));
+                        } else {
+                            cache.putObject(cacheKey, list);
+                        }
+                    } finally {
+                        StaleWhileRevalidateCache.setWritingRefresh(false);
+                        ExpiringCache.setWritingRefreshAhead(false);
+                    }
+                } catch (Exception e) {
+                    //staleWhileRevalidate的刷新任务超时以后会有别的读者重新领, refreshAhead的条目到期后照常过期
+                    log.warn("Error refreshing cache entry of " + ms.getId() + ".  Cause: " + e);
+                } finally {
+                    executor.close(false);
+                }
+            }
+        });
+    }
+
+    //未命中后去数据库加载的耗时
+    private void recordLoad(MappedStatement ms, Cache cache, long nanos) {
+        final CacheStatistics statistics = ms.getConfiguration().getCacheStatisticsRegistry().findStatistics(cache.getId());
+        if (statistics != null) {
+            statistics.recordLoad(nanos);
+        }
+    }
+
+    private TransactionalCacheManager transactionalCacheManager() {
+        if (transactionalCacheManager == null) {
+            transactionalCacheManager = new TransactionalCacheManager(invalidationBus);
+        }
+        return transactionalCacheManager;
+    }
+
+    //写操作: 缓存支持的话只失效受影响的表/键
+    private void flushCacheIfRequired(MappedStatement ms, Object parameterObject) {
+        Cache cache = ms.getCache();
+        if (cache instanceof TableDependencyCache && ms.isFlushCacheRequired()) {
+            transactionalCacheManager().invalidate(cache, TableDependency.of(ms.getBoundSql(parameterObject)));
+        } else {
+            flushCacheIfRequired(ms);
+        }
+    }
+
     private void flushCacheIfRequired(MappedStatement ms) {
         Cache cache = ms.getCache();
         if (cache != null && ms.isFlushCacheRequired()) {
-            transactionalCacheManager.clear(cache);
+            dirty = true;
+            transactionalCacheManager().clear(cache);
         }
     }
 
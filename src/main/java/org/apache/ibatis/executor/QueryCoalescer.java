@@ -0,0 +1,163 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.cache.DefaultCacheSerializer;
+
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 跨session合并同时发出的相同查询, &lt;setting name="queryCoalescing" value="true"/&gt;.<br/>
+ * 同一个CacheKey第一个到的session(leader)去查数据库, 查询期间到达的其它session(follower)等它的结果,
+ * 不再各自执行一遍. 跟二级缓存无关, 没配&lt;cache/&gt;的namespace也生效.
+ * <ul>
+ * <li>follower默认拿到的是序列化出来的副本, 各session改动自己的结果互不影响; 只有readOnly的缓存才直接共用同一个List</li>
+ * <li>结果不能序列化, 或者leader查询失败, follower自己再查一次, 异常不会传给别的session</li>
+ * <li>follower最多等timeout毫秒, 等不到也自己查: leader可能在等follower的session持有的行锁, 不能无限等下去</li>
+ * <li>哪些查询可以合并由CachingExecutor决定(没写过的事务、没有ResultHandler、没有嵌套查询、不是加锁读等)</li>
+ * </ul>
+ */
+public class QueryCoalescer {
+
+    private final ConcurrentMap<CacheKey, Flight> flights = new ConcurrentHashMap<CacheKey, Flight>();
+    private final CacheSerializer serializer = new DefaultCacheSerializer();
+
+    /**
+     * 真正执行查询的回调
+     */
+    public interface Loader<E> {
+        List<E> load() throws SQLException;
+    }
+
+    /**
+     * @param share   为true时follower直接共用leader的结果, 否则各自拿一份副本
+     * @param timeout follower最多等多少毫秒
+     */
+    public <E> List<E> query(CacheKey key, boolean share, long timeout, Loader<E> loader) throws SQLException {
+        final Flight flight = new Flight(share);
+        final Flight leader = flights.putIfAbsent(key, flight);
+        if (leader == null) {
+            return lead(key, flight, loader);
+        }
+        //同一个线程又查到自己正在查的key, 不能等自己
+        if (leader.thread == Thread.currentThread()) {
+            return loader.load();
+        }
+        final List<E> shared = leader.await(timeout, serializer);
+        return shared != null ? shared : loader.load();
+    }
+
+    /**
+     * @return 正在执行的合并查询数
+     */
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    private <E> List<E> lead(CacheKey key, Flight flight, Loader<E> loader) throws SQLException {
+        List<E> list = null;
+        try {
+            list = loader.load();
+            return list;
+        } finally {
+            //先从map里拿掉, 之后来的session不会再搭这一趟
+            flights.remove(key, flight);
+            flight.land(list, serializer);
+        }
+    }
+
+    private static final class Flight {
+        final Thread thread = Thread.currentThread();
+        final boolean share;
+        final CountDownLatch latch = new CountDownLatch(1);
+        private boolean landed;
+        private int followers;
+        private List<?> result;
+        //要副本时leader在返回之前序列化一次, 之后leader自己改结果也不影响follower
+        private Object stored;
+
+        Flight(boolean share) {
+            this.share = share;
+        }
+
+        void land(List<?> list, CacheSerializer serializer) {
+            synchronized (this) {
+                landed = true;
+                if (list != null && followers > 0) {
+                    if (share) {
+                        result = list;
+                    } else {
+                        stored = serialize(list, serializer);
+                    }
+                }
+            }
+            latch.countDown();
+        }
+
+        @SuppressWarnings("unchecked")
+        <E> List<E> await(long timeout, CacheSerializer serializer) {
+            synchronized (this) {
+                //已经查完了, 没赶上
+                if (landed) {
+                    return null;
+                }
+                followers++;
+            }
+            boolean arrived;
+            try {
+                arrived = latch.await(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                arrived = false;
+            }
+            final Object copy;
+            synchronized (this) {
+                if (!arrived && !landed) {
+                    //不等了, leader也不用再为它准备副本
+                    followers--;
+                    return null;
+                }
+                if (result != null) {
+                    return (List<E>) result;
+                }
+                copy = stored;
+            }
+            return copy == null ? null : (List<E>) serializer.deserialize(copy);
+        }
+
+        private static Object serialize(List<?> list, CacheSerializer serializer) {
+            if (!(list instanceof Serializable)) {
+                return null;
+            }
+            try {
+                return serializer.serialize((Serializable) list);
+            } catch (CacheException e) {
+                //结果对象里有不能序列化的
+                return null;
+            }
+        }
+    }
+
+}
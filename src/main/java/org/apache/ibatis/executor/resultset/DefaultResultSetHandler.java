@@ -29,6 +29,7 @@ import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.session.*;
+import org.apache.ibatis.type.JdbcType;
 import org.apache.ibatis.type.TypeHandler;
 import org.apache.ibatis.type.TypeHandlerRegistry;
 
@@ -38,6 +39,12 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -117,7 +124,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
             final String resultMapId = parameterMapping.getResultMapId();
             final ResultMap resultMap = configuration.getResultMap(resultMapId);
             final DefaultResultHandler resultHandler = new DefaultResultHandler(objectFactory);
-            final ResultSetWrapper rsw = new ResultSetWrapper(rs, configuration);
+            final ResultSetWrapper rsw = new ResultSetWrapper(rs, configuration, mappedStatement.getId() + "#" + parameterMapping.getProperty());
             //里面就和一般ResultSet处理没两样了
             handleRowValues(rsw, resultMap, resultHandler, new RowBounds(), null);
             metaParam.setValue(parameterMapping.getProperty(), resultHandler.getResultList());
@@ -146,7 +153,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         while (rsw != null && resultMapCount > resultSetCount) {
             ResultMap resultMap = resultMaps.get(resultSetCount);
             handleResultSet(rsw, resultMap, multipleResults, null);
-            rsw = getNextResultSet(stmt);
+            rsw = getNextResultSet(stmt, resultSetCount + 1);
             cleanUpAfterHandlingResultSet();
             resultSetCount++;
         }
@@ -160,7 +167,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
                     ResultMap resultMap = configuration.getResultMap(nestedResultMapId);
                     handleResultSet(rsw, resultMap, null, parentMapping);
                 }
-                rsw = getNextResultSet(stmt);
+                rsw = getNextResultSet(stmt, resultSetCount + 1);
                 cleanUpAfterHandlingResultSet();
                 resultSetCount++;
             }
@@ -188,13 +195,14 @@ public class DefaultResultSetHandler implements ResultSetHandler {
                 }
             }
         }
-        return rs != null ? new ResultSetWrapper(rs, configuration) : null;
+        return rs != null ? new ResultSetWrapper(rs, configuration, mappedStatement.getId()) : null;
     }
 
     /**
-     * java官方文档说一个Statement只能打开一个ResultSet啊?
+     * java官方文档说一个Statement只能打开一个ResultSet啊?<br/>
+     * resultSetIndex是这个结果集的序号, 用来区分同一语句的各个结果集的列布局
      */
-    private ResultSetWrapper getNextResultSet(Statement stmt) throws SQLException {
+    private ResultSetWrapper getNextResultSet(Statement stmt, int resultSetIndex) throws SQLException {
         // Making this method tolerant of bad JDBC drivers
         try {
             //问一下数据库是否支持多结果集
@@ -202,7 +210,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
                 // Crazy Standard JDBC way of determining if there are more results
                 if (!((!stmt.getMoreResults()) && (stmt.getUpdateCount() == -1))) {
                     ResultSet rs = stmt.getResultSet();
-                    return rs != null ? new ResultSetWrapper(rs, configuration) : null;
+                    return rs != null ? new ResultSetWrapper(rs, configuration, mappedStatement.getId() + "#" + resultSetIndex) : null;
                 }
             }
         } catch (Exception e) {
@@ -292,6 +300,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     private void handleRowValuesForSimpleResultMap(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
         DefaultResultContext resultContext = new DefaultResultContext();
         skipRows(rsw.getResultSet(), rowBounds);
+        if (shouldMapInParallel(resultMap, parentMapping)) {
+            handleRowValuesInParallel(rsw, resultMap, resultHandler, resultContext, rowBounds);
+            return;
+        }
         while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
             ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
             Object rowValue = getRowValue(rsw, discriminatedResultMap);
@@ -299,6 +311,119 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
     }
 
+    //
+    // PARALLEL ROW MAPPING
+    //
+
+    //嵌套查询(要用executor)、多结果集(要记录pendingRelations)和鉴别器(可能切换到上面两种)都只能在本线程上映射
+    private boolean shouldMapInParallel(ResultMap resultMap, ResultMapping parentMapping) {
+        return configuration.getResultMappingThreads() > 0
+                && parentMapping == null
+                && mappedStatement.getResulSets() == null
+                && !resultMap.hasNestedQueries()
+                && resultMap.getDiscriminator() == null;
+    }
+
+    //本线程只负责从ResultSet拉取原始列值, 按批交给线程池映射成结果对象.
+    //selectList(DefaultResultHandler)和resultOrdered=true的语句按行的顺序交付, 其它ResultHandler按完成的先后交付.
+    //ResultHandler始终在本线程上调用, 同时在途的批次不超过线程数的两倍, 内存是有界的
+    private void handleRowValuesInParallel(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler, DefaultResultContext resultContext, RowBounds rowBounds) throws SQLException {
+        final ResultSet rs = rsw.getResultSet();
+        final boolean ordered = resultHandler instanceof DefaultResultHandler || mappedStatement.isResultOrdered();
+        final int batchSize = Math.max(1, configuration.getResultMappingBatchSize());
+        final int maxPending = configuration.getResultMappingThreads() * 2;
+        final ExecutorService pool = configuration.getResultMappingExecutor();
+        final CompletionService<List<Object>> completionService = ordered ? null : new ExecutorCompletionService<List<Object>>(pool);
+        final LinkedList<Future<List<Object>>> pending = new LinkedList<Future<List<Object>>>();
+        final List<JdbcType> jdbcTypes = rsw.getJdbcTypes();
+        int rowsRead = 0;
+        try {
+            boolean moreRows = true;
+            while (moreRows && !resultContext.isStopped()) {
+                final Object[][] rows = new Object[batchSize][];
+                int rowCount = 0;
+                while (rowCount < batchSize && rowsRead < rowBounds.getLimit() && rs.next()) {
+                    rows[rowCount++] = RowBufferResultSet.readRow(rs, jdbcTypes);
+                    rowsRead++;
+                }
+                moreRows = rowCount == batchSize;
+                if (rowCount > 0) {
+                    final RowMappingTask task = new RowMappingTask(rsw, resultMap, rows, rowCount);
+                    pending.add(ordered ? pool.submit(task) : completionService.submit(task));
+                }
+                if (pending.size() >= maxPending) {
+                    deliverMappedRows(nextMappedRows(pending, completionService), resultHandler, resultContext);
+                }
+            }
+            while (!pending.isEmpty() && !resultContext.isStopped()) {
+                deliverMappedRows(nextMappedRows(pending, completionService), resultHandler, resultContext);
+            }
+        } finally {
+            for (Future<List<Object>> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    //ordered时等最早提交的一批, 否则等任意完成的一批
+    private List<Object> nextMappedRows(LinkedList<Future<List<Object>>> pending, CompletionService<List<Object>> completionService) throws SQLException {
+        try {
+            final Future<List<Object>> future;
+            if (completionService == null) {
+                future = pending.removeFirst();
+            } else {
+                future = completionService.take();
+                pending.remove(future);
+            }
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutorException("Interrupted while waiting for mapped rows.  Cause: " + e, e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ExecutorException("Error mapping rows.  Cause: " + cause, cause);
+        }
+    }
+
+    private void deliverMappedRows(List<Object> rowValues, ResultHandler resultHandler, DefaultResultContext resultContext) {
+        for (Object rowValue : rowValues) {
+            if (resultContext.isStopped()) {
+                break;
+            }
+            callResultHandler(resultHandler, resultContext, rowValue);
+        }
+    }
+
+    //在映射线程上运行, 只用到简单结果映射的代码路径, 这条路径不修改DefaultResultSetHandler的状态
+    private class RowMappingTask implements Callable<List<Object>> {
+        private final ResultSetWrapper rsw;
+        private final ResultMap resultMap;
+        private final Object[][] rows;
+        private final int rowCount;
+
+        private RowMappingTask(ResultSetWrapper rsw, ResultMap resultMap, Object[][] rows, int rowCount) {
+            this.rsw = rsw;
+            this.resultMap = resultMap;
+            this.rows = rows;
+            this.rowCount = rowCount;
+        }
+
+        @Override
+        public List<Object> call() throws SQLException {
+            final ResultSetWrapper bufferRsw = new ResultSetWrapper(RowBufferResultSet.newInstance(rsw, rows, rowCount), rsw);
+            final List<Object> rowValues = new ArrayList<Object>(rowCount);
+            while (bufferRsw.getResultSet().next()) {
+                rowValues.add(getRowValue(bufferRsw, resultMap));
+            }
+            return rowValues;
+        }
+    }
+
     private void storeObject(ResultHandler resultHandler, DefaultResultContext resultContext, Object rowValue, ResultMapping parentMapping, ResultSet rs) throws SQLException {
         if (parentMapping != null) {
             linkToParents(rs, parentMapping, rowValue);
@@ -334,6 +459,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
     //核心，取得一行的值
     private Object getRowValue(ResultSetWrapper rsw, ResultMap resultMap) throws SQLException {
+        if (resultMap.getType() == ResultRow.class) {
+            return createResultRow(rsw);
+        }
         //实例化ResultLoaderMap(延迟加载器)
         final ResultLoaderMap lazyLoader = new ResultLoaderMap();
         //调用自己的createResultObject,内部就是new一个对象(如果是简单类型，new完也把值赋进去)
@@ -355,6 +483,18 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         return resultObject;
     }
 
+    //resultType="resultRow": 不做对象映射, 按列的顺序把值放进数组, 列信息由结果集的所有行共享
+    private Object createResultRow(ResultSetWrapper rsw) throws SQLException {
+        final TypeHandler<?>[] typeHandlers = rsw.getResultRowTypeHandlers();
+        final Object[] values = new Object[typeHandlers.length];
+        boolean foundValues = configuration.isCallSettersOnNulls();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = typeHandlers[i].getResult(rsw.getResultSet(), i + 1);
+            foundValues = values[i] != null || foundValues;
+        }
+        return foundValues ? new ResultRow(rsw.getResultRowSchema(), values) : null;
+    }
+
     private boolean shouldApplyAutomaticMappings(ResultMap resultMap, boolean isNested) {
         if (resultMap.getAutoMapping() != null) {
             return resultMap.getAutoMapping();
@@ -411,8 +551,37 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
     //自动映射咯
     private boolean applyAutomaticMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
-        final List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
+        final List<UnMappedColumnAutoMapping> autoMappings = getAutoMappings(rsw, resultMap, metaObject, columnPrefix);
         boolean foundValues = false;
+        for (UnMappedColumnAutoMapping autoMapping : autoMappings) {
+            //巧妙的用TypeHandler取得结果
+            final Object value = autoMapping.typeHandler.getResult(rsw.getResultSet(), autoMapping.column);
+            // issue #377, call setter on nulls
+            if (value != null || configuration.isCallSettersOnNulls()) {
+                if (value != null || !autoMapping.primitive) {
+                    //然后巧妙的用反射来设置到对象
+                    metaObject.setValue(autoMapping.property, value);
+                }
+                foundValues = true;
+            }
+        }
+        return foundValues;
+    }
+
+    //哪些列自动映射到哪些属性只和resultMap、列前缀和结果集的列有关,
+    //缓存在跨执行共享的列布局快照里, 没有才逐列解析
+    private List<UnMappedColumnAutoMapping> getAutoMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
+        List<UnMappedColumnAutoMapping> autoMappings = rsw.getAutoMappings(resultMap, columnPrefix);
+        if (autoMappings == null) {
+            autoMappings = createAutoMappings(rsw, resultMap, metaObject, columnPrefix);
+            rsw.putAutoMappings(resultMap, columnPrefix, autoMappings);
+        }
+        return autoMappings;
+    }
+
+    private List<UnMappedColumnAutoMapping> createAutoMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
+        final List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
+        final List<UnMappedColumnAutoMapping> autoMappings = new ArrayList<UnMappedColumnAutoMapping>();
         for (String columnName : unmappedColumnNames) {
             String propertyName = columnName;
             if (columnPrefix != null && !columnPrefix.isEmpty()) {
@@ -429,20 +598,11 @@ public class DefaultResultSetHandler implements ResultSetHandler {
                 final Class<?> propertyType = metaObject.getSetterType(property);
                 if (typeHandlerRegistry.hasTypeHandler(propertyType)) {
                     final TypeHandler<?> typeHandler = rsw.getTypeHandler(propertyType, columnName);
-                    //巧妙的用TypeHandler取得结果
-                    final Object value = typeHandler.getResult(rsw.getResultSet(), columnName);
-                    // issue #377, call setter on nulls
-                    if (value != null || configuration.isCallSettersOnNulls()) {
-                        if (value != null || !propertyType.isPrimitive()) {
-                            //然后巧妙的用反射来设置到对象
-                            metaObject.setValue(property, value);
-                        }
-                        foundValues = true;
-                    }
+                    autoMappings.add(new UnMappedColumnAutoMapping(columnName, property, typeHandler, propertyType.isPrimitive()));
                 }
             }
         }
-        return foundValues;
+        return Collections.unmodifiableList(autoMappings);
     }
 
     // MULTIPLE RESULT SETS
@@ -772,28 +932,56 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     private void handleRowValuesForNestedResultMap(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
         final DefaultResultContext resultContext = new DefaultResultContext();
         skipRows(rsw.getResultSet(), rowBounds);
-        Object rowValue = null;
+        // issue #577 && #542
+        if (mappedStatement.isResultOrdered()) {
+            handleOrderedRowValuesForNestedResultMap(rsw, resultMap, resultHandler, resultContext, rowBounds, parentMapping);
+            return;
+        }
         while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
             final ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
             final CacheKey rowKey = createRowKey(discriminatedResultMap, rsw, null);
             Object partialObject = nestedResultObjects.get(rowKey);
-            // issue #577 && #542
-            if (mappedStatement.isResultOrdered()) {
-                if (partialObject == null && rowValue != null) {
-                    nestedResultObjects.clear();
-                    storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
-                }
-                rowValue = getRowValue(rsw, discriminatedResultMap, rowKey, rowKey, null, partialObject);
+            Object rowValue = getRowValue(rsw, discriminatedResultMap, rowKey, rowKey, null, partialObject);
+            if (partialObject == null) {
+                storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
+            }
+        }
+    }
+
+    //resultOrdered=true时,结果集按父对象的id排好序,所以只需要和上一行的key比较:
+    //key一变,上一个父对象就已经完整了,立即交给ResultHandler,并释放它的所有嵌套对象,
+    //这样流式处理时内存里最多只有一个父对象的对象图
+    private void handleOrderedRowValuesForNestedResultMap(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler, DefaultResultContext resultContext, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
+        Object rowValue = null;
+        CacheKey previousRowKey = null;
+        while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
+            final ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
+            final CacheKey rowKey = createRowKey(discriminatedResultMap, rsw, null);
+            Object partialObject = null;
+            if (rowKey.equals(previousRowKey)) {
+                partialObject = rowValue;
             } else {
-                rowValue = getRowValue(rsw, discriminatedResultMap, rowKey, rowKey, null, partialObject);
-                if (partialObject == null) {
+                if (rowValue != null) {
                     storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
                 }
+                releaseNestedResultObjects();
+                if (!shouldProcessMoreRows(resultContext, rowBounds)) {
+                    // the handler stopped or the limit was reached on the parent we just emitted
+                    return;
+                }
             }
+            rowValue = getRowValue(rsw, discriminatedResultMap, rowKey, rowKey, null, partialObject);
+            previousRowKey = rowKey;
         }
-        if (rowValue != null && mappedStatement.isResultOrdered() && shouldProcessMoreRows(resultContext, rowBounds)) {
+        if (rowValue != null && shouldProcessMoreRows(resultContext, rowBounds)) {
             storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
         }
+        releaseNestedResultObjects();
+    }
+
+    private void releaseNestedResultObjects() {
+        nestedResultObjects.clear();
+        ancestorObjects.clear();
     }
 
     //
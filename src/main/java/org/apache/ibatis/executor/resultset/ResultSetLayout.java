@@ -0,0 +1,248 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.session.ResultRowSchema;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.ObjectTypeHandler;
+import org.apache.ibatis.type.TypeHandler;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+import org.apache.ibatis.type.UnknownTypeHandler;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 结果集列信息的不可变快照, 以及从它推导出来的各种缓存(TypeHandler、映射/未映射的列、自动映射).<br/>
+ * 同一个语句的结果集列的布局几乎总是不变的, 所以快照由ResultSetLayoutCache按语句共享给以后的每次执行,
+ * 这些缓存也就只需要算一次. 所有缓存都是并发安全的, 并行映射的线程也直接共用
+ */
+final class ResultSetLayout {
+
+    private final TypeHandlerRegistry typeHandlerRegistry;
+    private final boolean useColumnLabel;
+    private final List<String> columnNames;
+    private final List<String> classNames;
+    private final List<JdbcType> jdbcTypes;
+    /** 驱动返回的原始类型码, matches时直接比int */
+    private final int[] columnTypes;
+    /** 按列名解析好的java类型, Class.forName只做一次, 找不到的是null */
+    private final List<Class<?>> javaTypes;
+    private final ConcurrentMap<String, ConcurrentMap<Class<?>, TypeHandler<?>>> typeHandlerMap = new ConcurrentHashMap<String, ConcurrentMap<Class<?>, TypeHandler<?>>>();
+    private final ConcurrentMap<String, List<String>> mappedColumnNamesMap = new ConcurrentHashMap<String, List<String>>();
+    private final ConcurrentMap<String, List<String>> unMappedColumnNamesMap = new ConcurrentHashMap<String, List<String>>();
+    private final ConcurrentMap<String, List<UnMappedColumnAutoMapping>> autoMappingsMap = new ConcurrentHashMap<String, List<UnMappedColumnAutoMapping>>();
+    private volatile ResultRowSchema resultRowSchema;
+    private volatile TypeHandler<?>[] resultRowTypeHandlers;
+
+    ResultSetLayout(ResultSetMetaData metaData, TypeHandlerRegistry typeHandlerRegistry, boolean useColumnLabel) throws SQLException {
+        this.typeHandlerRegistry = typeHandlerRegistry;
+        this.useColumnLabel = useColumnLabel;
+        final int columnCount = metaData.getColumnCount();
+        final List<String> columnNames = new ArrayList<String>(columnCount);
+        final List<String> classNames = new ArrayList<String>(columnCount);
+        final List<JdbcType> jdbcTypes = new ArrayList<JdbcType>(columnCount);
+        final List<Class<?>> javaTypes = new ArrayList<Class<?>>(columnCount);
+        this.columnTypes = new int[columnCount];
+        for (int i = 1; i <= columnCount; i++) {
+            columnNames.add(useColumnLabel ? metaData.getColumnLabel(i) : metaData.getColumnName(i));
+            columnTypes[i - 1] = metaData.getColumnType(i);
+            jdbcTypes.add(JdbcType.forCode(columnTypes[i - 1]));
+            final String className = metaData.getColumnClassName(i);
+            classNames.add(className);
+            javaTypes.add(resolveClass(className));
+        }
+        this.columnNames = Collections.unmodifiableList(columnNames);
+        this.classNames = Collections.unmodifiableList(classNames);
+        this.jdbcTypes = Collections.unmodifiableList(jdbcTypes);
+        this.javaTypes = Collections.unmodifiableList(javaTypes);
+    }
+
+    /**
+     * 列数、每列的类型码和列名都一样就认为是同一个布局. 先比int的类型码, 不一样就不用再取列名.<br/>
+     * 快照里的TypeHandler和自动映射都是按列的类型和列名选的, 这两样不能省; java类名不比较,
+     * 有的驱动每次都要现算, 而同一个驱动里它基本由类型码决定
+     */
+    boolean matches(ResultSetMetaData metaData) throws SQLException {
+        final int columnCount = metaData.getColumnCount();
+        if (columnCount != columnTypes.length) {
+            return false;
+        }
+        for (int i = 1; i <= columnCount; i++) {
+            if (columnTypes[i - 1] != metaData.getColumnType(i)) {
+                return false;
+            }
+        }
+        for (int i = 1; i <= columnCount; i++) {
+            final String columnName = useColumnLabel ? metaData.getColumnLabel(i) : metaData.getColumnName(i);
+            if (!columnNames.get(i - 1).equals(columnName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    List<String> getClassNames() {
+        return classNames;
+    }
+
+    List<JdbcType> getJdbcTypes() {
+        return jdbcTypes;
+    }
+
+    TypeHandler<?> getTypeHandler(Class<?> propertyType, String columnName) {
+        ConcurrentMap<Class<?>, TypeHandler<?>> columnHandlers = typeHandlerMap.get(columnName);
+        if (columnHandlers == null) {//第一次使用, typeHandlerMap这个缓存中没有缓存, 则new一个放进去
+            columnHandlers = new ConcurrentHashMap<Class<?>, TypeHandler<?>>();
+            final ConcurrentMap<Class<?>, TypeHandler<?>> existing = typeHandlerMap.putIfAbsent(columnName, columnHandlers);
+            if (existing != null) {
+                columnHandlers = existing;
+            }
+        }
+        TypeHandler<?> handler = columnHandlers.get(propertyType);
+        //not found
+        if (handler == null) {
+            handler = typeHandlerRegistry.getTypeHandler(propertyType);
+            // Replicate logic of UnknownTypeHandler#resolveTypeHandler
+            // See issue #59 comment 10
+            if (handler == null || handler instanceof UnknownTypeHandler) {
+                final int index = columnNames.indexOf(columnName);
+                final JdbcType jdbcType = jdbcTypes.get(index);
+                final Class<?> javaType = javaTypes.get(index);
+                if (javaType != null && jdbcType != null) {
+                    handler = typeHandlerRegistry.getTypeHandler(javaType, jdbcType);
+                } else if (javaType != null) {
+                    handler = typeHandlerRegistry.getTypeHandler(javaType);
+                } else if (jdbcType != null) {
+                    handler = typeHandlerRegistry.getTypeHandler(jdbcType);
+                }
+            }
+            if (handler == null || handler instanceof UnknownTypeHandler) {
+                handler = new ObjectTypeHandler();
+            }
+            columnHandlers.put(propertyType, handler);
+        }
+        return handler;
+    }
+
+    List<String> getMappedColumnNames(ResultMap resultMap, String columnPrefix) {
+        final String mapKey = getMapKey(resultMap, columnPrefix);
+        List<String> mappedColumnNames = mappedColumnNamesMap.get(mapKey);
+        if (mappedColumnNames == null) {
+            loadMappedAndUnmappedColumnNames(resultMap, columnPrefix);
+            mappedColumnNames = mappedColumnNamesMap.get(mapKey);
+        }
+        return mappedColumnNames;
+    }
+
+    List<String> getUnmappedColumnNames(ResultMap resultMap, String columnPrefix) {
+        final String mapKey = getMapKey(resultMap, columnPrefix);
+        List<String> unMappedColumnNames = unMappedColumnNamesMap.get(mapKey);
+        if (unMappedColumnNames == null) {
+            loadMappedAndUnmappedColumnNames(resultMap, columnPrefix);
+            unMappedColumnNames = unMappedColumnNamesMap.get(mapKey);
+        }
+        return unMappedColumnNames;
+    }
+
+    private void loadMappedAndUnmappedColumnNames(ResultMap resultMap, String columnPrefix) {
+        List<String> mappedColumnNames = new ArrayList<String>();
+        List<String> unmappedColumnNames = new ArrayList<String>();
+        final String upperColumnPrefix = columnPrefix == null ? null : columnPrefix.toUpperCase(Locale.ENGLISH);
+        final Set<String> mappedColumns = prependPrefixes(resultMap.getMappedColumns(), upperColumnPrefix);
+        for (String columnName : columnNames) {
+            final String upperColumnName = columnName.toUpperCase(Locale.ENGLISH);
+            if (mappedColumns.contains(upperColumnName)) {
+                mappedColumnNames.add(upperColumnName);
+            } else {
+                unmappedColumnNames.add(columnName);
+            }
+        }
+        // 先放unmapped, 这样别的线程看到mapped时unmapped一定也在
+        unMappedColumnNamesMap.put(getMapKey(resultMap, columnPrefix), Collections.unmodifiableList(unmappedColumnNames));
+        mappedColumnNamesMap.put(getMapKey(resultMap, columnPrefix), Collections.unmodifiableList(mappedColumnNames));
+    }
+
+    List<UnMappedColumnAutoMapping> getAutoMappings(String mapKey) {
+        return autoMappingsMap.get(mapKey);
+    }
+
+    void putAutoMappings(String mapKey, List<UnMappedColumnAutoMapping> autoMappings) {
+        autoMappingsMap.put(mapKey, autoMappings);
+    }
+
+    ResultRowSchema getResultRowSchema() {
+        if (resultRowSchema == null) {
+            resultRowSchema = new ResultRowSchema(columnNames);
+        }
+        return resultRowSchema;
+    }
+
+    /**
+     * 按列的顺序, 每列按它的JDBC类型选的TypeHandler(和resultType="map"取值的方式一样)
+     */
+    TypeHandler<?>[] getResultRowTypeHandlers() {
+        if (resultRowTypeHandlers == null) {
+            final TypeHandler<?>[] handlers = new TypeHandler<?>[columnNames.size()];
+            for (int i = 0; i < handlers.length; i++) {
+                handlers[i] = getTypeHandler(Object.class, columnNames.get(i));
+            }
+            resultRowTypeHandlers = handlers;
+        }
+        return resultRowTypeHandlers;
+    }
+
+    String getMapKey(ResultMap resultMap, String columnPrefix) {
+        return resultMap.getId() + ":" + columnPrefix;
+    }
+
+    private Class<?> resolveClass(String className) {
+        if (className == null) {
+            return null;
+        }
+        try {
+            return Resources.classForName(className);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private Set<String> prependPrefixes(Set<String> columnNames, String prefix) {
+        if (columnNames == null || columnNames.isEmpty() || prefix == null || prefix.length() == 0) {
+            return columnNames;
+        }
+        final Set<String> prefixed = new HashSet<String>();
+        for (String columnName : columnNames) {
+            prefixed.add(prefix + columnName);
+        }
+        return prefixed;
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import org.apache.ibatis.type.TypeHandlerRegistry;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 按语句(和第几个结果集)缓存结果集的列布局快照, 由Configuration持有.<br/>
+ * 再次执行时比较列数、列名和列的类型, 一样就直接重用快照, 不一样就换成新的快照
+ */
+public class ResultSetLayoutCache {
+
+    private final ConcurrentMap<String, ResultSetLayout> layouts = new ConcurrentHashMap<String, ResultSetLayout>();
+
+    ResultSetLayout getLayout(String key, ResultSetMetaData metaData, TypeHandlerRegistry typeHandlerRegistry, boolean useColumnLabel) throws SQLException {
+        ResultSetLayout layout = layouts.get(key);
+        if (layout == null || !layout.matches(metaData)) {
+            layout = new ResultSetLayout(metaData, typeHandlerRegistry, useColumnLabel);
+            layouts.put(key, layout);
+        }
+        return layout;
+    }
+
+    public int size() {
+        return layouts.size();
+    }
+
+    public void clear() {
+        layouts.clear();
+    }
+
+}
@@ -15,42 +15,47 @@
  */
 package org.apache.ibatis.executor.resultset;
 
-import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.mapping.ResultMap;
 import org.apache.ibatis.session.Configuration;
-import org.apache.ibatis.type.*;
+import org.apache.ibatis.session.ResultRowSchema;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
 
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.*;
+import java.util.List;
 
 /**
- * 内部持有一个ResultSet
+ * 内部持有一个ResultSet.<br/>
+ * 列信息和由它推导出来的缓存都在共享的ResultSetLayout里, 所以构造一个ResultSetWrapper几乎没有开销
  */
 class ResultSetWrapper {
 
     private final ResultSet resultSet;
-    private final TypeHandlerRegistry typeHandlerRegistry;
-    private final List<String> columnNames = new ArrayList<String>();
-    private final List<String> classNames = new ArrayList<String>();
-    private final List<JdbcType> jdbcTypes = new ArrayList<JdbcType>();
-    /** 缓存 */
-    private final Map<String, Map<Class<?>, TypeHandler<?>>> typeHandlerMap = new HashMap<String, Map<Class<?>, TypeHandler<?>>>();
-    private Map<String, List<String>> mappedColumnNamesMap = new HashMap<String, List<String>>();
-    private Map<String, List<String>> unMappedColumnNamesMap = new HashMap<String, List<String>>();
+    private final ResultSetLayout layout;
 
+    /**
+     * 不共享的快照, 每次都读取ResultSetMetaData
+     */
     public ResultSetWrapper(ResultSet rs, Configuration configuration) throws SQLException {
-        super();
-        this.typeHandlerRegistry = configuration.getTypeHandlerRegistry();
         this.resultSet = rs;
-        final ResultSetMetaData metaData = rs.getMetaData();
-        final int columnCount = metaData.getColumnCount();
-        for (int i = 1; i <= columnCount; i++) {
-            columnNames.add(configuration.isUseColumnLabel() ? metaData.getColumnLabel(i) : metaData.getColumnName(i));
-            jdbcTypes.add(JdbcType.forCode(metaData.getColumnType(i)));
-            classNames.add(metaData.getColumnClassName(i));
-        }
+        this.layout = new ResultSetLayout(rs.getMetaData(), configuration.getTypeHandlerRegistry(), configuration.isUseColumnLabel());
+    }
+
+    /**
+     * 共享Configuration里按layoutKey(语句id和第几个结果集)缓存的快照, 列名变了才重新读取ResultSetMetaData
+     */
+    public ResultSetWrapper(ResultSet rs, Configuration configuration, String layoutKey) throws SQLException {
+        this.resultSet = rs;
+        this.layout = configuration.getResultSetLayoutCache().getLayout(layoutKey, rs.getMetaData(), configuration.getTypeHandlerRegistry(), configuration.isUseColumnLabel());
+    }
+
+    /**
+     * 并行映射用: 共享template的列信息, 但读取另一个ResultSet(一批缓冲好的行)
+     */
+    ResultSetWrapper(ResultSet rs, ResultSetWrapper template) {
+        this.resultSet = rs;
+        this.layout = template.layout;
     }
 
     public ResultSet getResultSet() {
@@ -58,11 +63,15 @@ class ResultSetWrapper {
     }
 
     public List<String> getColumnNames() {
-        return this.columnNames;
+        return layout.getColumnNames();
     }
 
     public List<String> getClassNames() {
-        return Collections.unmodifiableList(classNames);
+        return layout.getClassNames();
+    }
+
+    public List<JdbcType> getJdbcTypes() {
+        return layout.getJdbcTypes();
     }
 
     /**
@@ -71,95 +80,35 @@ class ResultSetWrapper {
      * If not found, it gets the column JDBC type and tries to get a handler for it.
      */
     public TypeHandler<?> getTypeHandler(Class<?> propertyType, String columnName) {
-        TypeHandler<?> handler = null;
-        Map<Class<?>, TypeHandler<?>> columnHandlers = typeHandlerMap.get(columnName);
-        if (columnHandlers == null) {//第一次使用, typeHandlerMap这个缓存中没有缓存, 则new一个放进去
-            columnHandlers = new HashMap<Class<?>, TypeHandler<?>>();
-            typeHandlerMap.put(columnName, columnHandlers);
-        } else {
-            handler = columnHandlers.get(propertyType);
-        }
-        //not found
-        if (handler == null) {
-            handler = typeHandlerRegistry.getTypeHandler(propertyType);
-            // Replicate logic of UnknownTypeHandler#resolveTypeHandler
-            // See issue #59 comment 10
-            if (handler == null || handler instanceof UnknownTypeHandler) {
-                final int index = columnNames.indexOf(columnName);
-                final JdbcType jdbcType = jdbcTypes.get(index);
-                final Class<?> javaType = resolveClass(classNames.get(index));
-                if (javaType != null && jdbcType != null) {
-                    handler = typeHandlerRegistry.getTypeHandler(javaType, jdbcType);
-                } else if (javaType != null) {
-                    handler = typeHandlerRegistry.getTypeHandler(javaType);
-                } else if (jdbcType != null) {
-                    handler = typeHandlerRegistry.getTypeHandler(jdbcType);
-                }
-            }
-            if (handler == null || handler instanceof UnknownTypeHandler) {
-                handler = new ObjectTypeHandler();
-            }
-            columnHandlers.put(propertyType, handler);
-        }
-        return handler;
+        return layout.getTypeHandler(propertyType, columnName);
     }
 
-    private Class<?> resolveClass(String className) {
-        try {
-            return Resources.classForName(className);
-        } catch (ClassNotFoundException e) {
-            return null;
-        }
+    public ResultRowSchema getResultRowSchema() {
+        return layout.getResultRowSchema();
     }
 
-    private void loadMappedAndUnmappedColumnNames(ResultMap resultMap, String columnPrefix) throws SQLException {
-        List<String> mappedColumnNames = new ArrayList<String>();
-        List<String> unmappedColumnNames = new ArrayList<String>();
-        final String upperColumnPrefix = columnPrefix == null ? null : columnPrefix.toUpperCase(Locale.ENGLISH);
-        final Set<String> mappedColumns = prependPrefixes(resultMap.getMappedColumns(), upperColumnPrefix);
-        for (String columnName : columnNames) {
-            final String upperColumnName = columnName.toUpperCase(Locale.ENGLISH);
-            if (mappedColumns.contains(upperColumnName)) {
-                mappedColumnNames.add(upperColumnName);
-            } else {
-                unmappedColumnNames.add(columnName);
-            }
-        }
-        mappedColumnNamesMap.put(getMapKey(resultMap, columnPrefix), mappedColumnNames);
-        unMappedColumnNamesMap.put(getMapKey(resultMap, columnPrefix), unmappedColumnNames);
+    public TypeHandler<?>[] getResultRowTypeHandlers() {
+        return layout.getResultRowTypeHandlers();
     }
 
     public List<String> getMappedColumnNames(ResultMap resultMap, String columnPrefix) throws SQLException {
-        List<String> mappedColumnNames = mappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-        if (mappedColumnNames == null) {
-            loadMappedAndUnmappedColumnNames(resultMap, columnPrefix);
-            mappedColumnNames = mappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-        }
-        return mappedColumnNames;
+        return layout.getMappedColumnNames(resultMap, columnPrefix);
     }
 
     public List<String> getUnmappedColumnNames(ResultMap resultMap, String columnPrefix) throws SQLException {
-        List<String> unMappedColumnNames = unMappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-        if (unMappedColumnNames == null) {
-            loadMappedAndUnmappedColumnNames(resultMap, columnPrefix);
-            unMappedColumnNames = unMappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-        }
-        return unMappedColumnNames;
+        return layout.getUnmappedColumnNames(resultMap, columnPrefix);
     }
 
-    private String getMapKey(ResultMap resultMap, String columnPrefix) {
-        return resultMap.getId() + ":" + columnPrefix;
+    List<UnMappedColumnAutoMapping> getAutoMappings(ResultMap resultMap, String columnPrefix) {
+        return layout.getAutoMappings(getMapKey(resultMap, columnPrefix));
+    }
+
+    void putAutoMappings(ResultMap resultMap, String columnPrefix, List<UnMappedColumnAutoMapping> autoMappings) {
+        layout.putAutoMappings(getMapKey(resultMap, columnPrefix), autoMappings);
     }
 
-    private Set<String> prependPrefixes(Set<String> columnNames, String prefix) {
-        if (columnNames == null || columnNames.isEmpty() || prefix == null || prefix.length() == 0) {
-            return columnNames;
-        }
-        final Set<String> prefixed = new HashSet<String>();
-        for (String columnName : columnNames) {
-            prefixed.add(prefix + columnName);
-        }
-        return prefixed;
+    private String getMapKey(ResultMap resultMap, String columnPrefix) {
+        return layout.getMapKey(resultMap, columnPrefix);
     }
 
 }
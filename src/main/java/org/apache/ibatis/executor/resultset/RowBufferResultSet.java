@@ -0,0 +1,274 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.type.JdbcType;
+
+import javax.sql.rowset.serial.SerialBlob;
+import javax.sql.rowset.serial.SerialClob;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 只读的ResultSet代理, 数据来自预先读出的一批行(每行一个Object[]).<br/>
+ * 并行映射时由读取线程从真正的ResultSet拉取原始列值, 映射线程通过它调用TypeHandler,
+ * 所以只支持TypeHandler常用的getXXX方法, 其余方法抛出SQLException
+ */
+final class RowBufferResultSet implements InvocationHandler {
+
+    private final Map<String, Integer> columnIndexes = new HashMap<String, Integer>();
+    private final List<String> columnNames;
+    private final List<String> classNames;
+    private final List<JdbcType> jdbcTypes;
+    private final Object[][] rows;
+    private final int rowCount;
+    private int cursor = -1;
+    private boolean wasNull;
+    private ResultSetMetaData metaData;
+
+    private RowBufferResultSet(ResultSetWrapper rsw, Object[][] rows, int rowCount) {
+        this.columnNames = rsw.getColumnNames();
+        this.classNames = rsw.getClassNames();
+        this.jdbcTypes = rsw.getJdbcTypes();
+        for (int i = 0; i < columnNames.size(); i++) {
+            final String key = columnNames.get(i).toUpperCase(Locale.ENGLISH);
+            // JDBC: 同名列取第一个
+            if (!columnIndexes.containsKey(key)) {
+                columnIndexes.put(key, i);
+            }
+        }
+        this.rows = rows;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * 列信息(也用于getMetaData)取自读取这批行的ResultSetWrapper
+     */
+    public static ResultSet newInstance(ResultSetWrapper rsw, Object[][] rows, int rowCount) {
+        InvocationHandler handler = new RowBufferResultSet(rsw, rows, rowCount);
+        ClassLoader cl = ResultSet.class.getClassLoader();
+        return (ResultSet) Proxy.newProxyInstance(cl, new Class[]{ResultSet.class}, handler);
+    }
+
+    /**
+     * 读取当前行的所有列. LOB在游标移动后可能失效, 所以立即复制成SerialBlob/SerialClob
+     */
+    public static Object[] readRow(ResultSet rs, List<JdbcType> jdbcTypes) throws SQLException {
+        final Object[] row = new Object[jdbcTypes.size()];
+        for (int i = 0; i < row.length; i++) {
+            final JdbcType jdbcType = jdbcTypes.get(i);
+            if (jdbcType == JdbcType.BLOB) {
+                final Blob blob = rs.getBlob(i + 1);
+                row[i] = blob == null ? null : new SerialBlob(blob);
+            } else if (jdbcType == JdbcType.CLOB || jdbcType == JdbcType.NCLOB) {
+                final Clob clob = rs.getClob(i + 1);
+                row[i] = clob == null ? null : new SerialClob(clob);
+            } else {
+                row[i] = rs.getObject(i + 1);
+            }
+        }
+        return row;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] params) throws Throwable {
+        try {
+            if (Object.class.equals(method.getDeclaringClass())) {
+                return method.invoke(this, params);
+            }
+            final String name = method.getName();
+            if ("next".equals(name)) {
+                return ++cursor < rowCount;
+            } else if ("wasNull".equals(name)) {
+                return wasNull;
+            } else if ("close".equals(name)) {
+                cursor = rowCount;
+                return null;
+            } else if ("isClosed".equals(name)) {
+                return cursor >= rowCount;
+            } else if ("getType".equals(name)) {
+                return ResultSet.TYPE_FORWARD_ONLY;
+            } else if ("getMetaData".equals(name)) {
+                return getMetaData();
+            } else if ("findColumn".equals(name)) {
+                return columnIndex(params[0]) + 1;
+            } else if (name.startsWith("get") && params != null && params.length == 1) {
+                final Object value = currentValue(params[0]);
+                wasNull = value == null;
+                return convert(value, method.getReturnType());
+            }
+            throw new SQLException("Method " + name + " is not supported on a buffered row");
+        } catch (Throwable t) {
+            throw ExceptionUtil.unwrapThrowable(t);
+        }
+    }
+
+    //UnknownTypeHandler要通过元数据决定用哪个TypeHandler
+    private ResultSetMetaData getMetaData() {
+        if (metaData == null) {
+            ClassLoader cl = ResultSetMetaData.class.getClassLoader();
+            metaData = (ResultSetMetaData) Proxy.newProxyInstance(cl, new Class[]{ResultSetMetaData.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] params) throws Throwable {
+                    if (Object.class.equals(method.getDeclaringClass())) {
+                        return method.invoke(this, params);
+                    }
+                    final String name = method.getName();
+                    if ("getColumnCount".equals(name)) {
+                        return columnNames.size();
+                    }
+                    final int index = columnIndex(params == null ? null : params[0]);
+                    if ("getColumnName".equals(name) || "getColumnLabel".equals(name)) {
+                        return columnNames.get(index);
+                    } else if ("getColumnClassName".equals(name)) {
+                        return classNames.get(index);
+                    } else if ("getColumnType".equals(name)) {
+                        final JdbcType jdbcType = jdbcTypes.get(index);
+                        return jdbcType == null ? Types.OTHER : jdbcType.TYPE_CODE;
+                    }
+                    throw new SQLException("Method " + name + " is not supported on buffered row metadata");
+                }
+            });
+        }
+        return metaData;
+    }
+
+    private Object currentValue(Object column) throws SQLException {
+        if (cursor < 0 || cursor >= rowCount) {
+            throw new SQLException("The buffered result set is not positioned on a row");
+        }
+        return rows[cursor][columnIndex(column)];
+    }
+
+    private int columnIndex(Object column) throws SQLException {
+        if (column instanceof Integer) {
+            final int index = (Integer) column - 1;
+            if (index < 0 || index >= columnNames.size()) {
+                throw new SQLException("Invalid column index " + column);
+            }
+            return index;
+        }
+        final Integer index = columnIndexes.get(String.valueOf(column).toUpperCase(Locale.ENGLISH));
+        if (index == null) {
+            throw new SQLException("Invalid column name " + column);
+        }
+        return index;
+    }
+
+    private Object convert(Object value, Class<?> type) throws SQLException {
+        if (type == Object.class) {
+            return value;
+        }
+        if (value == null) {
+            return type.isPrimitive() ? defaultPrimitive(type) : null;
+        }
+        if (type.isInstance(value)) {
+            return value;
+        }
+        if (type == String.class) {
+            if (value instanceof Clob) {
+                final Clob clob = (Clob) value;
+                return clob.getSubString(1, (int) clob.length());
+            }
+            return value.toString();
+        }
+        if (type == boolean.class) {
+            if (value instanceof Boolean) {
+                return value;
+            } else if (value instanceof Number) {
+                return ((Number) value).intValue() != 0;
+            }
+            final String string = value.toString().trim();
+            return "1".equals(string) || "true".equalsIgnoreCase(string);
+        }
+        if (type.isPrimitive() || type == BigDecimal.class) {
+            final Number number;
+            try {
+                number = value instanceof Number ? (Number) value : new BigDecimal(value.toString().trim());
+            } catch (NumberFormatException e) {
+                throw new SQLException("Cannot convert " + value + " to " + type.getName());
+            }
+            if (type == int.class) {
+                return number.intValue();
+            } else if (type == long.class) {
+                return number.longValue();
+            } else if (type == double.class) {
+                return number.doubleValue();
+            } else if (type == float.class) {
+                return number.floatValue();
+            } else if (type == short.class) {
+                return number.shortValue();
+            } else if (type == byte.class) {
+                return number.byteValue();
+            }
+            return number instanceof BigDecimal ? number : new BigDecimal(number.toString());
+        }
+        if (value instanceof java.util.Date) {
+            final long time = ((java.util.Date) value).getTime();
+            if (type == Timestamp.class) {
+                return new Timestamp(time);
+            } else if (type == java.sql.Date.class) {
+                return new java.sql.Date(time);
+            } else if (type == Time.class) {
+                return new Time(time);
+            }
+        }
+        if (type == byte[].class && value instanceof Blob) {
+            final Blob blob = (Blob) value;
+            return blob.getBytes(1, (int) blob.length());
+        }
+        if (type == Blob.class && value instanceof byte[]) {
+            return new SerialBlob((byte[]) value);
+        }
+        if (type == Clob.class && value instanceof String) {
+            return new SerialClob(((String) value).toCharArray());
+        }
+        throw new SQLException("Cannot convert " + value.getClass().getName() + " to " + type.getName());
+    }
+
+    private Object defaultPrimitive(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0d;
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,37 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * 自动映射的一列: 哪一列、设置到哪个属性、用哪个TypeHandler取值
+ */
+final class UnMappedColumnAutoMapping {
+
+    final String column;
+    final String property;
+    final TypeHandler<?> typeHandler;
+    final boolean primitive;
+
+    UnMappedColumnAutoMapping(String column, String property, TypeHandler<?> typeHandler, boolean primitive) {
+        this.column = column;
+        this.property = property;
+        this.typeHandler = typeHandler;
+        this.primitive = primitive;
+    }
+
+}
@@ -17,6 +17,7 @@ package org.apache.ibatis.mapping;
 
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.TypeHandlerRegistry;
 
 import java.util.HashMap;
 import java.util.List;
@@ -45,8 +46,14 @@ public class BoundSql {
      */
     private Map<String, Object> additionalParameters;
     private MetaObject metaParameters;
+    private final Configuration configuration;
+    /**
+     * 按parameterMappings顺序解析好的参数值, 第一次用到时才解析
+     */
+    private Object[] parameterValues;
 
     public BoundSql(Configuration configuration, String sql, List<ParameterMapping> parameterMappings, Object parameterObject) {
+        this.configuration = configuration;
         this.sql = sql;
         this.parameterMappings = parameterMappings;
         this.parameterObject = parameterObject;
@@ -72,9 +79,51 @@ public class BoundSql {
 
     public void setAdditionalParameter(String name, Object value) {
         metaParameters.setValue(name, value);
+        //额外参数变了, 已经解析好的参数值作废
+        parameterValues = null;
     }
 
     public Object getAdditionalParameter(String name) {
         return metaParameters.getValue(name);
     }
+
+    /**
+     * 每个参数映射对应的值(OUT参数为null). 第一次调用时解析, 之后CacheKey、ParameterHandler等复用同一份.
+     * 调用setAdditionalParameter以后重新解析
+     */
+    public Object[] getParameterValues() {
+        if (parameterValues == null) {
+            parameterValues = resolveParameterValues();
+        }
+        return parameterValues;
+    }
+
+    //先看额外参数, 再看参数本身是不是有TypeHandler的简单类型, 最后反射取属性, 整个参数对象只建一次MetaObject
+    private Object[] resolveParameterValues() {
+        final int size = parameterMappings == null ? 0 : parameterMappings.size();
+        final Object[] values = new Object[size];
+        final TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+        final boolean simpleParameter = parameterObject != null && typeHandlerRegistry.hasTypeHandler(parameterObject.getClass());
+        MetaObject metaObject = null;
+        for (int i = 0; i < size; i++) {
+            final ParameterMapping parameterMapping = parameterMappings.get(i);
+            if (parameterMapping.getMode() == ParameterMode.OUT) {
+                continue;
+            }
+            final String propertyName = parameterMapping.getProperty();
+            if (hasAdditionalParameter(propertyName)) { // issue #448 ask first for additional params
+                values[i] = getAdditionalParameter(propertyName);
+            } else if (parameterObject == null) {
+                values[i] = null;
+            } else if (simpleParameter) {
+                values[i] = parameterObject;
+            } else {
+                if (metaObject == null) {
+                    metaObject = configuration.newMetaObject(parameterObject);
+                }
+                values[i] = metaObject.getValue(propertyName);
+            }
+        }
+        return values;
+    }
 }
@@ -23,12 +23,24 @@ import java.util.Properties;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheMemoryBudget;
+import org.apache.ibatis.cache.CacheSnapshotManager;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
+import org.apache.ibatis.cache.decorators.ConcurrentReferenceCache;
+import org.apache.ibatis.cache.decorators.EvictionQueue;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.MemoryBoundedCache;
+import org.apache.ibatis.cache.decorators.NearCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.SnapshotCache;
+import org.apache.ibatis.cache.decorators.StaleWhileRevalidateCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TableDependencyCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
@@ -49,6 +61,11 @@ public class CacheBuilder {
   private boolean readWrite;
   private Properties properties;
   private boolean blocking;
+  private CacheMemoryBudget memoryBudget;
+  private CacheStatistics statistics;
+  private CacheSnapshotManager snapshotManager;
+  private SnapshotCache snapshotCache;
+  private MemoryBoundedCache memoryBoundedCache;
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -87,6 +104,23 @@ public class CacheBuilder {
     return this;
   }
   
+  public CacheBuilder memoryBudget(CacheMemoryBudget memoryBudget) {
+    this.memoryBudget = memoryBudget;
+    return this;
+  }
+
+  //不设就单独new一份, 只有MapperBuilderAssistant会把登记处里的那份传进来
+  public CacheBuilder statistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+    return this;
+  }
+
+  //配了snapshot属性的缓存登记到这里, 由它负责保存和恢复
+  public CacheBuilder snapshotManager(CacheSnapshotManager snapshotManager) {
+    this.snapshotManager = snapshotManager;
+    return this;
+  }
+
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
@@ -96,21 +130,38 @@ public class CacheBuilder {
     setDefaultImplementations();
     //先new一个base的cache(PerpetualCache)
     Cache cache = newBaseCacheInstance(implementation, id);
+    if (statistics == null) {
+      statistics = new CacheStatistics(id);
+    }
+    memoryBoundedCache = null;
     //设额外属性
     setCacheProperties(cache);
+    setStatistics(cache);
     // issue #352, do not apply decorators to custom caches
     if (PerpetualCache.class.equals(cache.getClass())) {
+      //按字节限制大小的放在最里层, 上面各层的移除都会经过它
+      if (isMemoryBounded()) {
+        memoryBoundedCache = newMemoryBoundedCache(cache);
+        cache = memoryBoundedCache;
+      }
       for (Class<? extends Cache> decorator : decorators) {
           //装饰者模式一个个包装cache
         cache = newCacheDecoratorInstance(decorator, cache);
         //又要来一遍设额外属性
         setCacheProperties(cache);
+        setStatistics(cache);
+        setEvictionQueue(cache);
       }
       //最后附加上标准的装饰者
       cache = setStandardDecorators(cache);
     } else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
         //如果是custom缓存，且不是日志，要加日志
       cache = new LoggingCache(cache);
+      setStatistics(cache);
+    }
+    statistics.attach(cache, memoryBoundedCache);
+    if (snapshotCache != null && snapshotManager != null) {
+      snapshotManager.register(cache, snapshotCache);
     }
     return cache;
   }
@@ -132,6 +183,13 @@ public class CacheBuilder {
       if (size != null && metaCache.hasSetter("size")) {
         metaCache.setValue("size", size);
       }
+      //配了expireAfterWrite/expireAfterAccess属性的, 按条目过期
+      if (isExpiring()) {
+        cache = new ExpiringCache(cache);
+        setCacheProperties(cache);
+        setStatistics(cache);
+        setEvictionQueue(cache);
+      }
       if (clearInterval != null) {
         //刷新缓存间隔,怎么刷新呢，用ScheduledCache来刷，还是装饰者模式，漂亮！
         cache = new ScheduledCache(cache);
@@ -140,20 +198,136 @@ public class CacheBuilder {
       if (readWrite) {
           //如果readOnly=false,可读写的缓存 会返回缓存对象的拷贝(通过序列化) 。这会慢一些,但是安全,因此默认是 false。
         cache = new SerializedCache(cache);
+        setCacheProperties(cache);
+      }
+      //在LoggingCache下面, 保存和恢复快照时不计入统计
+      if (isSnapshot()) {
+        snapshotCache = new SnapshotCache(cache);
+        cache = snapshotCache;
+        setEvictionQueue(cache);
       }
       //日志缓存
       cache = new LoggingCache(cache);
+      setStatistics(cache);
       //同步缓存, 3.2.6以后这个类已经没用了，考虑到Hazelcast, EhCache已经有锁机制了，所以这个锁就画蛇添足了。
-      cache = new SynchronizedCache(cache);
+      //装饰者自身都是线程安全的(比如CONCURRENT)就不用再加这把锁了;
+      //但ExpiringCache自己的HashMap和时间轮不是线程安全的, 配了过期的还得加锁
+      if (!isThreadSafe() || isExpiring()) {
+        cache = new SynchronizedCache(cache);
+      }
       if (blocking) {
         cache = new BlockingCache(cache);
       }
+      //放在最外层, clear时下面各层的数据都原样留着
+      if (isStaleWhileRevalidate()) {
+        cache = new StaleWhileRevalidateCache(cache);
+        setCacheProperties(cache);
+      }
+      //每个线程的近端缓存, 命中时下面各层都不经过; 按表失效要经过它的removeObject, 所以放在TableDependencyCache下面
+      if (isNear()) {
+        cache = new NearCache(cache);
+        setCacheProperties(cache);
+        setStatistics(cache);
+      }
+      //CachingExecutor要直接拿到它登记依赖, 所以在最外层
+      if (isInvalidatedByTable()) {
+        cache = new TableDependencyCache(cache);
+        setEvictionQueue(cache);
+      }
       return cache;
     } catch (Exception e) {
       throw new CacheException("Error building standard cache decorators.  Cause: " + e, e);
     }
   }
 
+  //CONCURRENT(_SOFT/_WEAK)自己存数据, 不经过下面的PerpetualCache, 没法按字节统计
+  private boolean isMemoryBounded() {
+    final boolean namespaceLimit = properties != null && properties.containsKey("maxBytes");
+    if (isThreadSafe()) {
+      if (namespaceLimit) {
+        throw new CacheException("Cache '" + id + "' cannot combine maxBytes with a self-storing eviction policy " + decorators);
+      }
+      return false;
+    }
+    return namespaceLimit || (memoryBudget != null && memoryBudget.isEnabled());
+  }
+
+  private MemoryBoundedCache newMemoryBoundedCache(Cache cache) {
+    MemoryBoundedCache memoryBoundedCache = new MemoryBoundedCache(cache);
+    setCacheProperties(memoryBoundedCache);
+    setStatistics(memoryBoundedCache);
+    memoryBoundedCache.setMemoryBudget(memoryBudget);
+    return memoryBoundedCache;
+  }
+
+  //SnapshotCache每个方法都加锁, 会抵消CONCURRENT的无锁读
+  private boolean isSnapshot() {
+    final boolean snapshot = properties != null && Boolean.valueOf(properties.getProperty("snapshot"));
+    if (snapshot && isThreadSafe()) {
+      throw new CacheException("Cache '" + id + "' cannot combine snapshot with a self-storing eviction policy " + decorators);
+    }
+    return snapshot;
+  }
+
+  //近端命中直接返回同一个对象, readOnly="false"要求每次拿到的都是副本
+  private boolean isNear() {
+    final boolean near = properties != null && properties.containsKey("nearCacheSize")
+        && Integer.parseInt(properties.getProperty("nearCacheSize")) > 0;
+    if (near && readWrite) {
+      throw new CacheException("Cache '" + id + "' can only use nearCacheSize when readOnly is true");
+    }
+    return near;
+  }
+
+  private boolean isExpiring() {
+    if (properties != null && properties.containsKey("refreshAhead") && !properties.containsKey("expireAfterWrite")) {
+      throw new CacheException("Cache '" + id + "' cannot use refreshAhead without expireAfterWrite");
+    }
+    return properties != null
+        && (properties.containsKey("expireAfterWrite") || properties.containsKey("expireAfterAccess"));
+  }
+
+  private boolean isInvalidatedByTable() {
+    return properties != null && Boolean.valueOf(properties.getProperty("invalidateByTable"));
+  }
+
+  private boolean isStaleWhileRevalidate() {
+    return properties != null && Boolean.valueOf(properties.getProperty("staleWhileRevalidate"));
+  }
+
+  //PerpetualCache本身不是线程安全的, 只有淘汰装饰者接管了存储并自己处理并发时才成立
+  private boolean isThreadSafe() {
+    if (decorators.isEmpty()) {
+      return false;
+    }
+    for (Class<? extends Cache> decorator : decorators) {
+      if (!ConcurrentLruCache.class.isAssignableFrom(decorator)
+          && !ConcurrentReferenceCache.class.isAssignableFrom(decorator)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  //有statistics属性的(LoggingCache, 各淘汰策略, ExpiringCache等)都共用这一份统计
+  private void setStatistics(Cache cache) {
+    MetaObject metaCache = SystemMetaObject.forObject(cache);
+    if (metaCache.hasSetter("statistics") && CacheStatistics.class == metaCache.getSetterType("statistics")) {
+      metaCache.setValue("statistics", statistics);
+    }
+  }
+
+  //记着key的各层(LRU, 过期, 按表失效等)要知道最里层按字节淘汰了哪些条目
+  private void setEvictionQueue(Cache cache) {
+    if (memoryBoundedCache == null) {
+      return;
+    }
+    MetaObject metaCache = SystemMetaObject.forObject(cache);
+    if (metaCache.hasSetter("evictionQueue") && EvictionQueue.class == metaCache.getSetterType("evictionQueue")) {
+      metaCache.setValue("evictionQueue", memoryBoundedCache.newEvictionQueue());
+    }
+  }
+
   private void setCacheProperties(Cache cache) {
     if (properties != null) {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
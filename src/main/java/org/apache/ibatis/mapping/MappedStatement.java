@@ -17,6 +17,7 @@ package org.apache.ibatis.mapping;
 
 import org.apache.ibatis.builder.MapperBuilderAssistant;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKeyPrefix;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -29,6 +30,8 @@ import org.apache.ibatis.session.Configuration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * 这是一个POJO, 带有ParameterMap和ResultMap的Statement. {@link Executor}依靠本类操作数据库
@@ -70,6 +73,8 @@ public final class MappedStatement {
      */
     private boolean flushCacheRequired;
     private boolean useCache;
+    //false时结果只在一次最外层查询内留在一级缓存里
+    private boolean useLocalCache = true;
     private boolean resultOrdered;
     private SqlCommandType sqlCommandType;
     /** key生成器 */
@@ -81,6 +86,10 @@ public final class MappedStatement {
     private Log statementLog;
     private LanguageDriver lang;
     private String[] resultSets;
+    //CacheKey前缀: 静态SQL只有一个, 动态SQL按形态最多缓存MAX_CACHE_KEY_PREFIXES个
+    private volatile CacheKeyPrefix lastCacheKeyPrefix;
+    private final ConcurrentMap<String, CacheKeyPrefix> cacheKeyPrefixes = new ConcurrentHashMap<String, CacheKeyPrefix>();
+    private static final int MAX_CACHE_KEY_PREFIXES = 64;
 
     /**
      * 不要用这个构造器, 使用Builder
@@ -168,6 +177,11 @@ public final class MappedStatement {
             return this;
         }
 
+        public Builder useLocalCache(boolean useLocalCache) {
+            mappedStatement.useLocalCache = useLocalCache;
+            return this;
+        }
+
         public Builder resultOrdered(boolean resultOrdered) {
             mappedStatement.resultOrdered = resultOrdered;
             return this;
@@ -277,6 +291,10 @@ public final class MappedStatement {
         return useCache;
     }
 
+    public boolean isUseLocalCache() {
+        return useLocalCache;
+    }
+
     public boolean isResultOrdered() {
         return resultOrdered;
     }
@@ -305,6 +323,30 @@ public final class MappedStatement {
         return resultSets;
     }
 
+    /**
+     * @param sql getBoundSql得到的最终SQL
+     * @return 本语句这个SQL形态的CacheKey前缀, 同一形态尽量返回同一个实例
+     */
+    public CacheKeyPrefix getCacheKeyPrefix(String sql) {
+        final CacheKeyPrefix last = lastCacheKeyPrefix;
+        //静态SQL每次都是同一个String实例, equals直接按引用返回
+        if (last != null && last.getSql().equals(sql)) {
+            return last;
+        }
+        CacheKeyPrefix prefix = cacheKeyPrefixes.get(sql);
+        if (prefix == null) {
+            prefix = new CacheKeyPrefix(id, sql);
+            if (cacheKeyPrefixes.size() < MAX_CACHE_KEY_PREFIXES) {
+                final CacheKeyPrefix existing = cacheKeyPrefixes.putIfAbsent(sql, prefix);
+                if (existing != null) {
+                    prefix = existing;
+                }
+            }
+        }
+        lastCacheKeyPrefix = prefix;
+        return prefix;
+    }
+
     /**
      * 本类的核心方法
      */
@@ -22,10 +22,24 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheInvalidation;
+import org.apache.ibatis.cache.CacheInvalidationBus;
+import org.apache.ibatis.cache.CacheInvalidationListener;
+import org.apache.ibatis.cache.CacheMemoryBudget;
+import org.apache.ibatis.cache.CacheSnapshotManager;
+import org.apache.ibatis.cache.CacheStatisticsRegistry;
+import org.apache.ibatis.cache.TableDependency;
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
+import org.apache.ibatis.cache.decorators.ConcurrentSoftCache;
+import org.apache.ibatis.cache.decorators.ConcurrentWeakCache;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.TableDependencyCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.apache.ibatis.cache.invalidation.LoopbackCacheInvalidationBus;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
@@ -38,6 +52,7 @@ import org.apache.ibatis.executor.loader.javassist.JavassistProxyFactory;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
 import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.executor.resultset.ResultSetLayoutCache;
 import org.apache.ibatis.executor.statement.RoutingStatementHandler;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.logging.Log;
@@ -70,6 +85,10 @@ import org.apache.ibatis.type.TypeAliasRegistry;
 import org.apache.ibatis.type.TypeHandlerRegistry;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 核心配置文件config.xml文件解析后就成了一个Configuration对象
@@ -113,6 +132,18 @@ public class Configuration {
      * namespace which the actual cache is bound to.
      */
     protected final Map<String, String> cacheRefMap = new HashMap<String, String>();
+    /**
+     * 按语句共享的结果集列布局快照, 省掉每次执行都要做的ResultSetMetaData读取和各种map的构造
+     */
+    protected final ResultSetLayoutCache resultSetLayoutCache = new ResultSetLayoutCache();
+    /** 所有二级缓存共用的内存预算 */
+    protected final CacheMemoryBudget cacheMemoryBudget = new CacheMemoryBudget();
+    /** 各二级缓存的命中/淘汰/加载统计 */
+    protected final CacheStatisticsRegistry cacheStatisticsRegistry = new CacheStatisticsRegistry();
+    /** 二级缓存快照, 用于启动预热 */
+    protected final CacheSnapshotManager cacheSnapshotManager = new CacheSnapshotManager();
+    /** 跨session合并相同的查询 */
+    protected final QueryCoalescer queryCoalescer = new QueryCoalescer();
     /**
      * 对应environment节点
      */
@@ -134,13 +165,34 @@ public class Configuration {
     protected boolean useColumnLabel = true;
     //默认启用缓存
     protected boolean cacheEnabled = true;
+    /** 没有执行过写操作的事务, 二级缓存直接读写, 不经过TransactionalCache, 默认不启用 */
+    protected boolean cacheReadOnlyFastPath = false;
+    /** 多个session同时发出的相同查询只执行一次, 默认不启用 */
+    protected boolean queryCoalescing = false;
+    /** 合并查询时follower最多等leader多少毫秒, 超时自己查 */
+    protected long queryCoalescingTimeout = 3000;
     protected boolean callSettersOnNulls = false;
     protected String logPrefix;
     protected Class<? extends Log> logImpl;
     protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+    /** 一级缓存最多条数和估算字节数, 0为不限制 */
+    protected int localCacheSize;
+    protected long localCacheMaxBytes;
     protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
     protected Set<String> lazyLoadTriggerMethods = new HashSet<String>(Arrays.asList("equals", "clone", "hashCode", "toString"));
     protected Integer defaultStatementTimeout;
+    /**
+     * 并行映射结果集的线程数, 0表示在调用线程上顺序映射(默认)
+     */
+    protected int resultMappingThreads = 0;
+    /** 并行映射时每批交给映射线程的行数 */
+    protected int resultMappingBatchSize = 256;
+    private ExecutorService resultMappingExecutor;
+    /** stale-while-revalidate缓存后台刷新的线程数 */
+    protected int cacheRefreshThreads = 2;
+    private ExecutorService cacheRefreshExecutor;
+    /** 多节点之间同步二级缓存失效, 默认不启用 */
+    protected CacheInvalidationBus cacheInvalidationBus;
     /** 默认为简单执行器--ExecutorType.SIMPLE */
     protected ExecutorType defaultExecutorType = ExecutorType.SIMPLE;
     /**
@@ -198,13 +250,22 @@ public class Configuration {
         typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
 
         typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
+        typeAliasRegistry.registerAlias("OFF_HEAP", OffHeapCache.class);
         typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
         typeAliasRegistry.registerAlias("LRU", LruCache.class);
         typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
         typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+        typeAliasRegistry.registerAlias("CONCURRENT", ConcurrentLruCache.class);
+        typeAliasRegistry.registerAlias("TINY_LFU", TinyLfuCache.class);
+        typeAliasRegistry.registerAlias("CONCURRENT_SOFT", ConcurrentSoftCache.class);
+        typeAliasRegistry.registerAlias("CONCURRENT_WEAK", ConcurrentWeakCache.class);
+
+        typeAliasRegistry.registerAlias("LOOPBACK", LoopbackCacheInvalidationBus.class);
 
         typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
+        typeAliasRegistry.registerAlias("resultRow", ResultRow.class);
+
         typeAliasRegistry.registerAlias("XML", XMLLanguageDriver.class);
         typeAliasRegistry.registerAlias("RAW", RawLanguageDriver.class);
 
@@ -267,6 +328,176 @@ public class Configuration {
         this.configurationFactory = configurationFactory;
     }
 
+    public long getCacheMaxBytes() {
+        return cacheMemoryBudget.getMaxBytes();
+    }
+
+    public void setCacheMaxBytes(long cacheMaxBytes) {
+        cacheMemoryBudget.setMaxBytes(cacheMaxBytes);
+    }
+
+    public CacheMemoryBudget getCacheMemoryBudget() {
+        return cacheMemoryBudget;
+    }
+
+    public boolean isCacheReadOnlyFastPath() {
+        return cacheReadOnlyFastPath;
+    }
+
+    public void setCacheReadOnlyFastPath(boolean cacheReadOnlyFastPath) {
+        this.cacheReadOnlyFastPath = cacheReadOnlyFastPath;
+    }
+
+    public boolean isQueryCoalescing() {
+        return queryCoalescing;
+    }
+
+    public void setQueryCoalescing(boolean queryCoalescing) {
+        this.queryCoalescing = queryCoalescing;
+    }
+
+    public long getQueryCoalescingTimeout() {
+        return queryCoalescingTimeout;
+    }
+
+    public void setQueryCoalescingTimeout(long queryCoalescingTimeout) {
+        this.queryCoalescingTimeout = queryCoalescingTimeout;
+    }
+
+    public QueryCoalescer getQueryCoalescer() {
+        return queryCoalescer;
+    }
+
+    public CacheStatisticsRegistry getCacheStatisticsRegistry() {
+        return cacheStatisticsRegistry;
+    }
+
+    public boolean isCacheJmxEnabled() {
+        return cacheStatisticsRegistry.isJmxEnabled();
+    }
+
+    public void setCacheJmxEnabled(boolean cacheJmxEnabled) {
+        cacheStatisticsRegistry.setJmxEnabled(cacheJmxEnabled);
+    }
+
+    public CacheSnapshotManager getCacheSnapshotManager() {
+        return cacheSnapshotManager;
+    }
+
+    public String getCacheSnapshotDirectory() {
+        return cacheSnapshotManager.getDirectory();
+    }
+
+    public void setCacheSnapshotDirectory(String cacheSnapshotDirectory) {
+        cacheSnapshotManager.setDirectory(cacheSnapshotDirectory);
+    }
+
+    public long getCacheSnapshotMaxAge() {
+        return cacheSnapshotManager.getMaxAge();
+    }
+
+    public void setCacheSnapshotMaxAge(long cacheSnapshotMaxAge) {
+        cacheSnapshotManager.setMaxAge(cacheSnapshotMaxAge);
+    }
+
+    public CacheInvalidationBus getCacheInvalidationBus() {
+        return cacheInvalidationBus;
+    }
+
+    /**
+     * 设置以后, 提交时的缓存失效会发布出去, 其它节点发来的失效应用到本配置同id的缓存上
+     */
+    public void setCacheInvalidationBus(CacheInvalidationBus cacheInvalidationBus) {
+        this.cacheInvalidationBus = cacheInvalidationBus;
+        if (cacheInvalidationBus != null) {
+            cacheInvalidationBus.subscribe(new CacheInvalidationListener() {
+                @Override
+                public void onInvalidation(CacheInvalidation invalidation) {
+                    applyCacheInvalidation(invalidation);
+                }
+            });
+        }
+    }
+
+    /**
+     * 应用一个其它节点发来的失效, 本节点没有这个缓存就忽略
+     */
+    public void applyCacheInvalidation(CacheInvalidation invalidation) {
+        if (!hasCache(invalidation.getCacheId())) {
+            return;
+        }
+        final Cache cache = getCache(invalidation.getCacheId());
+        if (invalidation.isClear() || !(cache instanceof TableDependencyCache)) {
+            cache.clear();
+        } else {
+            for (TableDependency write : invalidation.getWrites()) {
+                ((TableDependencyCache) cache).invalidate(write);
+            }
+        }
+    }
+
+    public int getResultMappingThreads() {
+        return resultMappingThreads;
+    }
+
+    public void setResultMappingThreads(int resultMappingThreads) {
+        this.resultMappingThreads = resultMappingThreads;
+    }
+
+    public int getResultMappingBatchSize() {
+        return resultMappingBatchSize;
+    }
+
+    public void setResultMappingBatchSize(int resultMappingBatchSize) {
+        this.resultMappingBatchSize = resultMappingBatchSize;
+    }
+
+    /**
+     * 并行映射用的线程池, 第一次用到时才创建, 线程都是daemon的
+     */
+    public synchronized ExecutorService getResultMappingExecutor() {
+        if (resultMappingExecutor == null) {
+            resultMappingExecutor = Executors.newFixedThreadPool(resultMappingThreads, new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "mybatis-result-mapping-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return resultMappingExecutor;
+    }
+
+    public int getCacheRefreshThreads() {
+        return cacheRefreshThreads;
+    }
+
+    public void setCacheRefreshThreads(int cacheRefreshThreads) {
+        this.cacheRefreshThreads = cacheRefreshThreads;
+    }
+
+    /**
+     * 二级缓存后台刷新用的线程池, 第一次用到时才创建, 线程都是daemon的
+     */
+    public synchronized ExecutorService getCacheRefreshExecutor() {
+        if (cacheRefreshExecutor == null) {
+            cacheRefreshExecutor = Executors.newFixedThreadPool(Math.max(1, cacheRefreshThreads), new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "mybatis-cache-refresh-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return cacheRefreshExecutor;
+    }
+
     public boolean isSafeResultHandlerEnabled() {
         return safeResultHandlerEnabled;
     }
@@ -289,6 +520,12 @@ public class Configuration {
 
     public void setMapUnderscoreToCamelCase(boolean mapUnderscoreToCamelCase) {
         this.mapUnderscoreToCamelCase = mapUnderscoreToCamelCase;
+        //属性名的解析方式变了, 缓存的自动映射作废
+        resultSetLayoutCache.clear();
+    }
+
+    public ResultSetLayoutCache getResultSetLayoutCache() {
+        return resultSetLayoutCache;
     }
 
     public void addLoadedResource(String resource) {
@@ -406,6 +643,22 @@ public class Configuration {
         this.localCacheScope = localCacheScope;
     }
 
+    public int getLocalCacheSize() {
+        return localCacheSize;
+    }
+
+    public void setLocalCacheSize(int localCacheSize) {
+        this.localCacheSize = localCacheSize;
+    }
+
+    public long getLocalCacheMaxBytes() {
+        return localCacheMaxBytes;
+    }
+
+    public void setLocalCacheMaxBytes(long localCacheMaxBytes) {
+        this.localCacheMaxBytes = localCacheMaxBytes;
+    }
+
     public JdbcType getJdbcTypeForNull() {
         return jdbcTypeForNull;
     }
@@ -544,7 +797,7 @@ public class Configuration {
         //当mybatis发现你在mybatis.xml配置文件中设置了cacheEnabled=true时，
         //mybatis会对sqlsession内的Executor加上装饰者【CacheExecutor】
         if (cacheEnabled) {
-            executor = new CachingExecutor(executor);
+            executor = new CachingExecutor(executor, cacheInvalidationBus);
         }
         //此处调用插件,通过插件可以改变Executor行为
         executor = (Executor) interceptorChain.pluginAll(executor);
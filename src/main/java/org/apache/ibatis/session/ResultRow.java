@@ -0,0 +1,88 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * 不做对象映射的一行结果, 用resultType="resultRow"得到.<br/>
+ * 列信息放在所有行共享的ResultRowSchema里, 每行只有一个Object[], 比resultType="map"的HashMap省得多,
+ * 适合只是把数据交给序列化器的大批量导出
+ */
+public final class ResultRow implements Serializable {
+
+    private static final long serialVersionUID = -3387516993124229901L;
+
+    private final ResultRowSchema schema;
+    private final Object[] values;
+
+    public ResultRow(ResultRowSchema schema, Object[] values) {
+        if (schema.size() != values.length) {
+            throw new IllegalArgumentException("Expected " + schema.size() + " values but got " + values.length);
+        }
+        this.schema = schema;
+        this.values = values;
+    }
+
+    public ResultRowSchema getSchema() {
+        return schema;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    //下标从0开始
+    public Object get(int index) {
+        return values[index];
+    }
+
+    public Object get(String columnName) {
+        final int index = schema.indexOf(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("There is no column named '" + columnName + "' in " + schema);
+        }
+        return values[index];
+    }
+
+    public Object[] toArray() {
+        return values.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ResultRow)) {
+            return false;
+        }
+        final ResultRow other = (ResultRow) o;
+        return schema.equals(other.schema) && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * schema.hashCode() + Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * ResultRow的列信息, 同一个结果集的所有行共享一个实例
+ */
+public final class ResultRowSchema implements Serializable {
+
+    private static final long serialVersionUID = 6521632786471034117L;
+
+    private final List<String> columnNames;
+    /** 列名(大写)到下标, 同名列取第一个 */
+    private final Map<String, Integer> columnIndexes;
+
+    public ResultRowSchema(List<String> columnNames) {
+        this.columnNames = Collections.unmodifiableList(new ArrayList<String>(columnNames));
+        this.columnIndexes = new HashMap<String, Integer>();
+        for (int i = 0; i < columnNames.size(); i++) {
+            final String key = columnNames.get(i).toUpperCase(Locale.ENGLISH);
+            if (!columnIndexes.containsKey(key)) {
+                columnIndexes.put(key, i);
+            }
+        }
+    }
+
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    public int size() {
+        return columnNames.size();
+    }
+
+    /**
+     * 不区分大小写, 找不到返回-1
+     */
+    public int indexOf(String columnName) {
+        final Integer index = columnIndexes.get(columnName.toUpperCase(Locale.ENGLISH));
+        return index == null ? -1 : index;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ResultRowSchema)) {
+            return false;
+        }
+        return columnNames.equals(((ResultRowSchema) o).columnNames);
+    }
+
+    @Override
+    public int hashCode() {
+        return columnNames.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return columnNames.toString();
+    }
+
+}
@@ -116,6 +116,8 @@ public class SqlSessionFactoryBuilder {
      */
     //这里我们可以自己实现SqlSessionFactory接口, 然后在子类覆盖此方法, 从而得到自己的SqlSessionFactory
     public SqlSessionFactory build(Configuration config) {
+        //配了cacheSnapshotDirectory时, 在后台把上次保存的二级缓存快照读回来
+        config.getCacheSnapshotManager().start();
         return new DefaultSqlSessionFactory(config);
     }
 
@@ -0,0 +1,194 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.TableDependencyCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.invalidation.LoopbackCacheInvalidationBus;
+import org.apache.ibatis.cache.invalidation.UdpCacheInvalidationBus;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.session.Configuration;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class CacheInvalidationBusTest {
+
+  @Test
+  public void shouldClearOtherNodesOnCommit() {
+    Configuration node1 = node(new LoopbackCacheInvalidationBus("clear"), new PerpetualCache("ns"));
+    Configuration node2 = node(new LoopbackCacheInvalidationBus("clear"), new PerpetualCache("ns"));
+    node1.getCache("ns").putObject("key", "value1");
+    node2.getCache("ns").putObject("key", "value2");
+
+    TransactionalCacheManager manager = new TransactionalCacheManager(node1.getCacheInvalidationBus());
+    manager.clear(node1.getCache("ns"));
+    manager.commit();
+
+    assertNull(node1.getCache("ns").getObject("key"));
+    assertNull(node2.getCache("ns").getObject("key"));
+  }
+
+  @Test
+  public void shouldNotPublishRolledBackOrReadOnlyTransactions() {
+    Configuration node1 = node(new LoopbackCacheInvalidationBus("rollback"), new PerpetualCache("ns"));
+    Configuration node2 = node(new LoopbackCacheInvalidationBus("rollback"), new PerpetualCache("ns"));
+    node2.getCache("ns").putObject("key", "value");
+
+    TransactionalCacheManager manager = new TransactionalCacheManager(node1.getCacheInvalidationBus());
+    manager.clear(node1.getCache("ns"));
+    manager.rollback();
+    manager.getObject(node1.getCache("ns"), new CacheKey());
+    manager.commit();
+
+    assertEquals("value", node2.getCache("ns").getObject("key"));
+  }
+
+  @Test
+  public void shouldApplyTableInvalidationsOnOtherNodes() {
+    Configuration node1 = node(new LoopbackCacheInvalidationBus("table"), new TableDependencyCache(new PerpetualCache("ns")));
+    Configuration node2 = node(new LoopbackCacheInvalidationBus("table"), new TableDependencyCache(new PerpetualCache("ns")));
+    TableDependencyCache remote = (TableDependencyCache) node2.getCache("ns");
+    remote.putObject("authors", "authors", dependency(node2, "select * from author"));
+    remote.putObject("posts", "posts", dependency(node2, "select * from post"));
+
+    TransactionalCacheManager manager = new TransactionalCacheManager(node1.getCacheInvalidationBus());
+    manager.invalidate(node1.getCache("ns"), dependency(node1, "delete from author"));
+    manager.commit();
+
+    assertNull(remote.getObject("authors"));
+    assertEquals("posts", remote.getObject("posts"));
+  }
+
+  @Test
+  public void shouldNotKeepUnreferencedLoopbackNodesAlive() throws Exception {
+    Configuration node1 = node(new LoopbackCacheInvalidationBus("unreferenced"), new PerpetualCache("ns"));
+    WeakReference<Configuration> node2 = new WeakReference<Configuration>(
+        node(new LoopbackCacheInvalidationBus("unreferenced"), new PerpetualCache("ns")));
+    for (int i = 0; i < 50 && node2.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(node2.get());
+    node1.getCacheInvalidationBus().publish(CacheInvalidation.clear("ns"));
+    node1.getCacheInvalidationBus().close();
+  }
+
+  @Test
+  public void shouldDeliverOverUdp() throws Exception {
+    UdpCacheInvalidationBus bus1 = new UdpCacheInvalidationBus(0);
+    UdpCacheInvalidationBus bus2 = new UdpCacheInvalidationBus(0);
+    try {
+      bus1.addPeer(new InetSocketAddress("127.0.0.1", bus2.getPort()));
+      bus2.addPeer(new InetSocketAddress("127.0.0.1", bus1.getPort()));
+      BlockingQueue<CacheInvalidation> received = receive(bus2);
+      Configuration configuration = new Configuration();
+      bus1.publish(new CacheInvalidation("ns", false,
+          Collections.singletonList(dependency(configuration, "update author set name = ? where id = ?", "n", 1))));
+      CacheInvalidation invalidation = received.poll(5, TimeUnit.SECONDS);
+      assertNotNull(invalidation);
+      assertEquals("ns", invalidation.getCacheId());
+      TableDependency write = invalidation.getWrites().get(0);
+      assertEquals("id", write.getKeyColumn());
+      assertTrue(dependency(configuration, "select * from author where id = ?", 1L).isAffectedBy(write));
+      assertFalse(dependency(configuration, "select * from author where id = ?", 2).isAffectedBy(write));
+    } finally {
+      bus1.close();
+      bus2.close();
+    }
+  }
+
+  @Test
+  public void shouldIgnorePacketsFromUnknownPeers() throws Exception {
+    UdpCacheInvalidationBus bus1 = new UdpCacheInvalidationBus(0);
+    UdpCacheInvalidationBus bus2 = new UdpCacheInvalidationBus(0);
+    try {
+      bus1.addPeer(new InetSocketAddress("127.0.0.1", bus2.getPort()));
+      BlockingQueue<CacheInvalidation> received = receive(bus2);
+      bus1.publish(CacheInvalidation.clear("ns"));
+      assertNull(received.poll(500, TimeUnit.MILLISECONDS));
+    } finally {
+      bus1.close();
+      bus2.close();
+    }
+  }
+
+  @Test
+  public void shouldRoundTripExplicitFormat() throws Exception {
+    Configuration configuration = new Configuration();
+    CacheInvalidation invalidation = new CacheInvalidation("ns", false, Arrays.asList(
+        dependency(configuration, "delete from author where id = ?", 7),
+        dependency(configuration, "insert into post (id) values (?)", 1),
+        TableDependency.ALL_TABLES));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    invalidation.writeTo(new DataOutputStream(bytes));
+
+    CacheInvalidation read = CacheInvalidation.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(invalidation.toString(), read.toString());
+    assertTrue(read.getWrites().get(2).isAllTables());
+
+    // truncated data is rejected instead of half applied
+    byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 3);
+    try {
+      CacheInvalidation.readFrom(new DataInputStream(new ByteArrayInputStream(truncated)));
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private BlockingQueue<CacheInvalidation> receive(CacheInvalidationBus bus) {
+    final BlockingQueue<CacheInvalidation> received = new ArrayBlockingQueue<CacheInvalidation>(1);
+    bus.subscribe(new CacheInvalidationListener() {
+      @Override
+      public void onInvalidation(CacheInvalidation invalidation) {
+        received.offer(invalidation);
+      }
+    });
+    return received;
+  }
+
+  private Configuration node(CacheInvalidationBus bus, Cache cache) {
+    Configuration configuration = new Configuration();
+    configuration.setCacheInvalidationBus(bus);
+    configuration.addCache(cache);
+    return configuration;
+  }
+
+  private TableDependency dependency(Configuration configuration, String sql, Object... parameters) {
+    BoundSql boundSql = new BoundSql(configuration, sql, Collections.<ParameterMapping>emptyList(), null);
+    if (parameters.length > 0) {
+      boundSql = new BoundSql(configuration, sql, Collections.singletonList(
+          new ParameterMapping.Builder(configuration, "key", Object.class).build()), null);
+      boundSql.setAdditionalParameter("key", parameters[parameters.length - 1]);
+    }
+    return TableDependency.of(boundSql);
+  }
+
+}
@@ -80,4 +80,24 @@ public class CacheKeyTest {
     assertTrue(key1.equals(key2));
   }
 
+  @Test
+  public void shouldCompareKeysWithPrefix() throws Exception {
+    CacheKeyPrefix prefix = new CacheKeyPrefix("ns.select", "select * from t where id = ?");
+    CacheKey key1 = new CacheKey(prefix, 2);
+    key1.updateAll(new Object[] { 0, 1 });
+    // a prefix that is not the same instance, e.g. after deserialization
+    CacheKey key2 = new CacheKey(new CacheKeyPrefix("ns.select", "select * from t where id = ?"), 0);
+    key2.updateAll(new Object[] { 0, 1 });
+    assertEquals(key1, key2);
+    assertEquals(key1.hashCode(), key2.hashCode());
+    assertEquals(key1, key1.clone());
+
+    CacheKey otherSql = new CacheKey(new CacheKeyPrefix("ns.select", "select * from t where name = ?"), 2);
+    otherSql.updateAll(new Object[] { 0, 1 });
+    assertFalse(key1.equals(otherSql));
+    CacheKey noPrefix = new CacheKey(new Object[] { 0, 1 });
+    assertFalse(key1.equals(noPrefix));
+    assertFalse(noPrefix.equals(key1));
+  }
+
 }
@@ -0,0 +1,132 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+public class CacheSerializerTest {
+
+  public static class Author implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private int id;
+    private String name;
+    private Date created;
+    private List<Post> posts = new ArrayList<Post>();
+  }
+
+  public static class Post implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private Author author;
+    private String[] tags;
+  }
+
+  @Test
+  public void shouldRoundTripWithCompactClassDescriptors() throws Exception {
+    ArrayList<Author> authors = authors(50);
+    CacheSerializer serializer = new DefaultCacheSerializer();
+    byte[] compact = (byte[]) serializer.serialize(authors);
+    assertTrue(compact.length < plainJavaSerialization(authors).length);
+    assertAuthorsCopied(authors, (List<?>) serializer.deserialize(compact));
+    assertAuthorsCopied(authors, (List<?>) serializer.deserialize(serializer.serialize(authors)));
+  }
+
+  @Test
+  public void shouldDeepCloneBeansAndCollections() {
+    ArrayList<Author> authors = authors(3);
+    CacheSerializer serializer = new CloningCacheSerializer();
+    Object stored = serializer.serialize(authors);
+    authors.get(0).name = "changed after put";
+    List<?> copy = (List<?>) serializer.deserialize(stored);
+    assertEquals("author0", ((Author) copy.get(0)).name);
+    assertNotSame(copy, serializer.deserialize(stored));
+    authors.get(0).name = "author0";
+    assertAuthorsCopied(authors, copy);
+  }
+
+  @Test
+  public void shouldFallBackToSerializationForUnknownTypes() {
+    CacheSerializer serializer = new CloningCacheSerializer();
+    List<String> fixed = Arrays.asList("a", "b");
+    Object stored = serializer.serialize((Serializable) fixed);
+    assertTrue(stored instanceof byte[]);
+    assertEquals(fixed, serializer.deserialize(stored));
+  }
+
+  @Test
+  public void shouldUseConfiguredSerializerInSerializedCache() {
+    SerializedCache cache = new SerializedCache(new PerpetualCache("default"));
+    cache.setSerializer("CLONING");
+    ArrayList<Author> authors = authors(2);
+    cache.putObject("key", authors);
+    assertAuthorsCopied(authors, (List<?>) cache.getObject("key"));
+    cache.setSerializer(DefaultCacheSerializer.class.getName());
+    cache.putObject("key", authors);
+    assertAuthorsCopied(authors, (List<?>) cache.getObject("key"));
+  }
+
+  private ArrayList<Author> authors(int count) {
+    ArrayList<Author> authors = new ArrayList<Author>();
+    for (int i = 0; i < count; i++) {
+      Author author = new Author();
+      author.id = i;
+      author.name = "author" + i;
+      author.created = new Date(1000L * i);
+      for (int j = 0; j < 3; j++) {
+        Post post = new Post();
+        post.author = author;
+        post.tags = new String[] { "tag" + j };
+        author.posts.add(post);
+      }
+      authors.add(author);
+    }
+    return authors;
+  }
+
+  private void assertAuthorsCopied(List<Author> expected, List<?> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Author author = (Author) actual.get(i);
+      assertNotSame(expected.get(i), author);
+      assertEquals(expected.get(i).id, author.id);
+      assertEquals(expected.get(i).name, author.name);
+      assertEquals(expected.get(i).created, author.created);
+      assertNotSame(expected.get(i).created, author.created);
+      assertEquals(3, author.posts.size());
+      assertSame(author, author.posts.get(2).author);
+      assertEquals("tag2", author.posts.get(2).tags[0]);
+    }
+  }
+
+  private byte[] plainJavaSerialization(Object value) throws Exception {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(value);
+    oos.close();
+    return bos.toByteArray();
+  }
+
+}
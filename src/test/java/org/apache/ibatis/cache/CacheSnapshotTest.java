@@ -0,0 +1,118 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
+import org.apache.ibatis.cache.decorators.TableDependencyCache;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+
+public class CacheSnapshotTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void shouldRestoreSerializableEntries() throws Exception {
+    CacheSnapshotManager manager = manager();
+    Cache cache = snapshotCache(manager, "ns", false);
+    CacheKey key = new CacheKey(new Object[]{"selectAll", SqlCommandType.SELECT, 1});
+    cache.putObject(key, new ArrayList<String>(Arrays.asList("a", "b")));
+    cache.putObject("notSerializable", new ArrayList<Object>(Collections.singletonList(new Object())));
+    manager.save();
+
+    CacheSnapshotManager restarted = manager();
+    Cache restored = snapshotCache(restarted, "ns", false);
+    restored.putObject("fresh", "value");
+    restarted.restore();
+
+    assertEquals(Arrays.asList("a", "b"), restored.getObject(new CacheKey(new Object[]{"selectAll", SqlCommandType.SELECT, 1})));
+    assertNull(restored.getObject("notSerializable"));
+    assertEquals("value", restored.getObject("fresh"));
+  }
+
+  @Test
+  public void shouldNotRestoreExpiredOrForeignSnapshots() throws Exception {
+    CacheSnapshotManager manager = manager();
+    snapshotCache(manager, "ns", false).putObject("key", "value");
+    manager.save();
+
+    CacheSnapshotManager restarted = manager();
+    restarted.setMaxAge(1);
+    Cache restored = snapshotCache(restarted, "ns", false);
+    Cache other = snapshotCache(restarted, "other", false);
+    Thread.sleep(20);
+    restarted.restore();
+    assertNull(restored.getObject("key"));
+    assertEquals(0, other.getSize());
+  }
+
+  @Test
+  public void shouldKeepTableDependenciesOfRestoredEntries() throws Exception {
+    CacheSnapshotManager manager = manager();
+    TableDependencyCache cache = (TableDependencyCache) snapshotCache(manager, "ns", true);
+    cache.putObject("authors", "authors", dependency("select * from author"));
+    cache.putObject("posts", "posts", dependency("select * from post"));
+    manager.save();
+
+    CacheSnapshotManager restarted = manager();
+    TableDependencyCache restored = (TableDependencyCache) snapshotCache(restarted, "ns", true);
+    restarted.restore();
+    assertEquals("authors", restored.getObject("authors"));
+
+    restored.invalidate(dependency("delete from author"));
+    assertNull(restored.getObject("authors"));
+    assertEquals("posts", restored.getObject("posts"));
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectSelfStoringEvictionPolicies() {
+    Properties properties = new Properties();
+    properties.setProperty("snapshot", "true");
+    new CacheBuilder("ns").addDecorator(ConcurrentLruCache.class).properties(properties).build();
+  }
+
+  private CacheSnapshotManager manager() {
+    CacheSnapshotManager manager = new CacheSnapshotManager();
+    manager.setDirectory(folder.getRoot().getPath());
+    return manager;
+  }
+
+  private Cache snapshotCache(CacheSnapshotManager manager, String id, boolean invalidateByTable) {
+    Properties properties = new Properties();
+    properties.setProperty("snapshot", "true");
+    properties.setProperty("invalidateByTable", String.valueOf(invalidateByTable));
+    return new CacheBuilder(id).snapshotManager(manager).properties(properties).build();
+  }
+
+  private TableDependency dependency(String sql) {
+    Configuration configuration = new Configuration();
+    return TableDependency.of(new BoundSql(configuration, sql, Collections.<ParameterMapping>emptyList(), null));
+  }
+
+}
@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+public class CacheStatisticsTest {
+
+  @Test
+  public void shouldCountHitsMissesAndPuts() {
+    LoggingCache cache = new LoggingCache(new PerpetualCache("default"));
+    cache.putObject("a", "a");
+    cache.putObject("b", null);
+    cache.getObject("a");
+    cache.getObject("a");
+    cache.getObject("c");
+
+    CacheStatistics statistics = cache.getStatistics();
+    assertEquals(2, statistics.getHits());
+    assertEquals(1, statistics.getMisses());
+    assertEquals(1, statistics.getPuts());
+    assertEquals(2.0 / 3.0, statistics.getHitRatio(), 0.0001);
+
+    statistics.reset();
+    assertEquals(0, statistics.getHits());
+    assertEquals(0.0, statistics.getHitRatio(), 0.0);
+  }
+
+  @Test
+  public void shouldShareStatisticsAcrossDecorators() {
+    CacheStatistics statistics = new CacheStatistics("default");
+    Cache cache = new CacheBuilder("default").size(2).statistics(statistics).build();
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    cache.getObject(4);
+    statistics.recordLoad(2000000);
+
+    assertEquals(3, statistics.getEvictions());
+    assertEquals(5, statistics.getPuts());
+    assertEquals(1, statistics.getHits());
+    assertEquals(2, statistics.getSize());
+    assertEquals(-1, statistics.getEstimatedBytes());
+    assertEquals(2.0, statistics.getAverageLoadTimeMillis(), 0.0001);
+  }
+
+  @Test
+  public void shouldReportBytesOfMemoryBoundedCaches() {
+    Properties properties = new Properties();
+    properties.setProperty("maxBytes", "1000000");
+    CacheStatistics statistics = new CacheStatistics("default");
+    Cache cache = new CacheBuilder("default").statistics(statistics).properties(properties).build();
+    cache.putObject("a", "value");
+    assertTrue(statistics.getEstimatedBytes() > 0);
+  }
+
+  @Test
+  public void shouldRegisterMBeansWhenEnabled() throws Exception {
+    CacheStatisticsRegistry registry = new CacheStatisticsRegistry();
+    CacheStatistics statistics = registry.getStatistics("org.apache.Mapper");
+    assertSame(statistics, registry.getStatistics("org.apache.Mapper"));
+    assertSame(statistics, registry.findStatistics("org.apache.Mapper"));
+    assertNull(registry.findStatistics("other"));
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName pattern = new ObjectName("org.apache.ibatis:type=CacheStatistics,name=\"org.apache.Mapper\",*");
+    int before = server.queryNames(pattern, null).size();
+    registry.setJmxEnabled(true);
+    try {
+      assertEquals(before + 1, server.queryNames(pattern, null).size());
+      statistics.recordHit();
+      ObjectName name = server.queryNames(pattern, null).iterator().next();
+      assertNotNull(server.getAttribute(name, "HitRatio"));
+    } finally {
+      registry.setJmxEnabled(false);
+    }
+    assertEquals(before, server.queryNames(pattern, null).size());
+  }
+
+}
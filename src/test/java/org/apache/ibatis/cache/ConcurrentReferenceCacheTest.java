@@ -0,0 +1,128 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.ConcurrentSoftCache;
+import org.apache.ibatis.cache.decorators.ConcurrentWeakCache;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentReferenceCacheTest {
+
+  @Test
+  public void shouldDemonstrateSoftObjectsBeingCollectedAsNeeded() {
+    final int N = 3000000;
+    ConcurrentSoftCache cache = new ConcurrentSoftCache(new PerpetualCache("default"));
+    for (int i = 0; i < N; i++) {
+      byte[] array = new byte[5001]; //waste a bunch of memory
+      array[5000] = 1;
+      cache.putObject(i, array);
+      cache.getObject(i);
+      if (cache.getSize() < i + 1) {
+        break;
+      }
+    }
+    assertTrue(cache.getSize() < N);
+  }
+
+  @Test
+  public void shouldKeepRecentlyReadWeakValuesReachable() throws Exception {
+    ConcurrentWeakCache cache = new ConcurrentWeakCache(new PerpetualCache("default"));
+    cache.setSize(1);
+    cache.putObject("read", new StringBuilder("read"));
+    assertNotNull(cache.getObject("read"));
+    cache.putObject("unread", new StringBuilder("unread"));
+    // collected references are enqueued asynchronously after a GC
+    for (int i = 0; i < 20 && cache.getSize() > 1; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    assertEquals(1, cache.getSize());
+    assertEquals("read", cache.getObject("read").toString());
+  }
+
+  @Test
+  public void shouldRemoveAndFlushItemsOnDemand() {
+    Cache cache = new ConcurrentSoftCache(new PerpetualCache("default"));
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(0, cache.removeObject(0));
+    assertNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(4));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldServeConcurrentReadersAndWriters() throws Exception {
+    final ConcurrentSoftCache cache = new ConcurrentSoftCache(new PerpetualCache("default"));
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 8; t++) {
+      final int offset = t * 1000;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < 5000; i++) {
+              Integer key = offset + (i % 300);
+              Object value = cache.getObject(key);
+              if (value == null) {
+                cache.putObject(key, key);
+              } else {
+                assertEquals(key, value);
+              }
+              if (i % 97 == 0) {
+                cache.removeObject(key);
+              }
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure.get());
+    assertTrue(cache.getSize() <= 8 * 300);
+  }
+
+  @Test
+  public void shouldNotWrapConcurrentReferenceEvictionInSynchronizedCache() {
+    Cache soft = new CacheBuilder("default").addDecorator(ConcurrentSoftCache.class).build();
+    assertEquals(LoggingCache.class, soft.getClass());
+    Cache weak = new CacheBuilder("default").addDecorator(ConcurrentWeakCache.class).build();
+    assertEquals(LoggingCache.class, weak.getClass());
+  }
+
+}
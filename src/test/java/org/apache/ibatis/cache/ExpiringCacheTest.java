@@ -0,0 +1,130 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Properties;
+
+public class ExpiringCacheTest {
+
+  @Test
+  public void shouldExpireEntriesIndividuallyAfterWrite() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("DefaultCache"));
+    cache.setExpireAfterWrite(300);
+    cache.putObject("old", "old");
+    Thread.sleep(200);
+    cache.putObject("new", "new");
+    Thread.sleep(200);
+    assertNull(cache.getObject("old"));
+    assertEquals("new", cache.getObject("new"));
+    Thread.sleep(200);
+    assertNull(cache.getObject("new"));
+  }
+
+  @Test
+  public void shouldKeepEntriesThatAreReadBeforeAccessTimeout() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("DefaultCache"));
+    cache.setExpireAfterAccess(300);
+    cache.putObject("read", "read");
+    cache.putObject("idle", "idle");
+    for (int i = 0; i < 4; i++) {
+      Thread.sleep(100);
+      assertEquals("read", cache.getObject("read"));
+    }
+    assertNull(cache.getObject("idle"));
+  }
+
+  @Test
+  public void shouldPurgeExpiredEntriesWithoutReadingThem() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("DefaultCache"));
+    cache.setExpireAfterWrite(100);
+    cache.setJitter(0.5);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(100, cache.getSize());
+    Thread.sleep(300);
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("DefaultCache"));
+    cache.setExpireAfterWrite(60000);
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldBeAddedByCacheBuilderWhenTtlPropertyIsSet() throws Exception {
+    Properties props = new Properties();
+    props.setProperty("expireAfterWrite", "100");
+    Cache cache = new CacheBuilder("DefaultCache").properties(props).build();
+    cache.putObject(0, 0);
+    assertEquals(0, cache.getObject(0));
+    Thread.sleep(200);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldHandOutOneRefreshWhenEntryIsReadCloseToExpiry() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("DefaultCache"));
+    cache.setExpireAfterWrite(400);
+    cache.setRefreshAhead(200);
+    cache.putObject("key", "old");
+    assertEquals("old", cache.getObject("key"));
+    assertFalse(ExpiringCache.refreshAheadClaimed());
+
+    Thread.sleep(250);
+    assertEquals("old", cache.getObject("key"));
+    assertTrue(ExpiringCache.refreshAheadClaimed());
+    // the flag is consumed once read, and the entry is claimed only once
+    assertFalse(ExpiringCache.refreshAheadClaimed());
+    assertEquals("old", cache.getObject("key"));
+    assertFalse(ExpiringCache.refreshAheadClaimed());
+
+    cache.putObject("key", "new");
+    Thread.sleep(250);
+    assertEquals("new", cache.getObject("key"));
+    assertTrue(ExpiringCache.refreshAheadClaimed());
+  }
+
+  @Test
+  public void shouldKeepSynchronizationOverSelfStoringEvictionWhenExpiring() {
+    Properties props = new Properties();
+    props.setProperty("expireAfterWrite", "1000");
+    Cache cache = new CacheBuilder("DefaultCache").addDecorator(ConcurrentLruCache.class).properties(props).build();
+    assertEquals(SynchronizedCache.class, cache.getClass());
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectRefreshAheadWithoutWriteExpiry() {
+    Properties props = new Properties();
+    props.setProperty("expireAfterAccess", "1000");
+    props.setProperty("refreshAhead", "100");
+    new CacheBuilder("DefaultCache").properties(props).build();
+  }
+
+}
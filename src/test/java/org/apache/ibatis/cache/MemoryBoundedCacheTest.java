@@ -0,0 +1,190 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.MemoryBoundedCache;
+import org.apache.ibatis.cache.decorators.TableDependencyCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+public class MemoryBoundedCacheTest {
+
+  public static class ValueWeigher implements CacheWeigher {
+    @Override
+    public long weigh(Object key, Object value) {
+      return ((Integer) value).longValue();
+    }
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedEntriesBeyondMaxBytes() {
+    MemoryBoundedCache cache = newCache(100, null);
+    cache.putObject("a", 40);
+    cache.putObject("b", 40);
+    assertEquals(40, cache.getObject("a"));
+    cache.putObject("c", 40);
+    assertNull(cache.getObject("b"));
+    assertEquals(40, cache.getObject("a"));
+    assertEquals(40, cache.getObject("c"));
+    assertEquals(80, cache.getUsedBytes());
+  }
+
+  @Test
+  public void shouldNotCacheEntryLargerThanBudget() {
+    MemoryBoundedCache cache = newCache(100, null);
+    cache.putObject("a", 10);
+    cache.putObject("a", 101);
+    assertNull(cache.getObject("a"));
+    assertEquals(0, cache.getUsedBytes());
+  }
+
+  @Test
+  public void shouldShareGlobalBudgetAcrossCaches() {
+    CacheMemoryBudget budget = new CacheMemoryBudget();
+    budget.setMaxBytes(100);
+    MemoryBoundedCache first = newCache(0, budget);
+    MemoryBoundedCache second = newCache(0, budget);
+    first.putObject("a", 40);
+    first.putObject("b", 40);
+    second.putObject("c", 10);
+    assertEquals(90, budget.getUsedBytes());
+    // the largest cache sheds weight, not the one being written
+    second.putObject("d", 20);
+    assertNull(first.getObject("a"));
+    assertEquals(40, first.getObject("b"));
+    assertEquals(10, second.getObject("c"));
+    assertEquals(20, second.getObject("d"));
+    assertEquals(70, budget.getUsedBytes());
+    first.clear();
+    assertEquals(30, budget.getUsedBytes());
+    second.removeObject("d");
+    second.removeObject("c");
+    assertEquals(0, budget.getUsedBytes());
+  }
+
+  @Test
+  public void shouldNotEmptyWriterWhenOtherCachesFillGlobalBudget() {
+    CacheMemoryBudget budget = new CacheMemoryBudget();
+    budget.setMaxBytes(100);
+    MemoryBoundedCache big = newCache(0, budget);
+    MemoryBoundedCache small = newCache(0, budget);
+    for (int i = 0; i < 9; i++) {
+      big.putObject("big" + i, 10);
+    }
+    small.putObject("a", 10);
+    small.putObject("b", 10);
+    small.putObject("c", 10);
+    assertEquals(10, small.getObject("a"));
+    assertEquals(10, small.getObject("b"));
+    assertEquals(10, small.getObject("c"));
+    assertEquals(70, big.getUsedBytes());
+    assertEquals(100, budget.getUsedBytes());
+  }
+
+  @Test
+  public void shouldWeighLargeListsHeavierThanSingleRows() {
+    DefaultCacheWeigher weigher = new DefaultCacheWeigher();
+    List<Object> rows = new ArrayList<Object>();
+    for (int i = 0; i < 1000; i++) {
+      rows.add(new Object[] { i, "name" + i });
+    }
+    long single = weigher.weigh("key", rows.subList(0, 1).toArray());
+    long list = weigher.weigh("key", rows);
+    assertTrue(list > single * 500);
+    assertEquals(weigher.weigh("key", new byte[0]) + 1000, weigher.weigh("key", new byte[1000]));
+  }
+
+  @Test
+  public void shouldBeAddedByCacheBuilderWhenGlobalBudgetIsSet() {
+    CacheMemoryBudget budget = new CacheMemoryBudget();
+    budget.setMaxBytes(1024 * 1024);
+    Cache cache = new CacheBuilder("default").memoryBudget(budget).build();
+    cache.putObject("key", "value");
+    assertTrue(budget.getUsedBytes() > 0);
+    cache.clear();
+    assertEquals(0, budget.getUsedBytes());
+  }
+
+  @Test
+  public void shouldShedFromLargestCachesFirst() {
+    CacheMemoryBudget budget = new CacheMemoryBudget();
+    budget.setMaxBytes(100);
+    MemoryBoundedCache first = newCache(0, budget);
+    MemoryBoundedCache second = newCache(0, budget);
+    MemoryBoundedCache third = newCache(0, budget);
+    for (int i = 0; i < 5; i++) {
+      first.putObject("first" + i, 10);
+    }
+    for (int i = 0; i < 4; i++) {
+      second.putObject("second" + i, 9);
+    }
+    third.putObject("third", 5);
+    // 21 bytes over budget: first sheds below second, then second sheds once
+    third.putObject("large", 30);
+    assertEquals(30, first.getUsedBytes());
+    assertEquals(27, second.getUsedBytes());
+    assertEquals(35, third.getUsedBytes());
+    assertEquals(92, budget.getUsedBytes());
+  }
+
+  @Test
+  public void shouldTellLruAboutEvictedEntries() {
+    Properties properties = new Properties();
+    properties.setProperty("maxBytes", "100");
+    properties.setProperty("weigher", ValueWeigher.class.getName());
+    Cache cache = new CacheBuilder("default").size(2).properties(properties).build();
+    cache.putObject("a", 60);
+    cache.putObject("b", 60);
+    assertNull(cache.getObject("a"));
+    // without the notification "a" would still hold a slot and push "b" out
+    cache.putObject("c", 10);
+    assertEquals(60, cache.getObject("b"));
+    assertEquals(10, cache.getObject("c"));
+  }
+
+  @Test
+  public void shouldUnregisterDependenciesOfEvictedEntries() {
+    Properties properties = new Properties();
+    properties.setProperty("maxBytes", "100");
+    properties.setProperty("weigher", ValueWeigher.class.getName());
+    properties.setProperty("invalidateByTable", "true");
+    TableDependencyCache cache = (TableDependencyCache) new CacheBuilder("default").properties(properties).build();
+    cache.putObject("a", 60, TableDependency.ALL_TABLES);
+    cache.putObject("b", 60, TableDependency.ALL_TABLES);
+    cache.putObject("c", 10, TableDependency.ALL_TABLES);
+    assertNull(cache.getDependency("a"));
+    assertNotNull(cache.getDependency("b"));
+    // put back after the eviction: registered again
+    cache.putObject("a", 10, TableDependency.ALL_TABLES);
+    cache.putObject("d", 10, TableDependency.ALL_TABLES);
+    assertNotNull(cache.getDependency("a"));
+  }
+
+  private MemoryBoundedCache newCache(long maxBytes, CacheMemoryBudget budget) {
+    MemoryBoundedCache cache = new MemoryBoundedCache(new PerpetualCache("default"));
+    cache.setMaxBytes(maxBytes);
+    cache.setWeigher(ValueWeigher.class.getName());
+    cache.setMemoryBudget(budget);
+    return cache;
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.NearCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Properties;
+
+public class NearCacheTest {
+
+  @Test
+  public void shouldServeRepeatedReadsFromTheCallingThread() {
+    CountingCache shared = new CountingCache();
+    NearCache cache = new NearCache(shared);
+    CacheStatistics statistics = new CacheStatistics("default");
+    cache.setStatistics(statistics);
+    cache.putObject("key", "value");
+    for (int i = 0; i < 10; i++) {
+      assertEquals("value", cache.getObject("key"));
+    }
+    assertEquals(0, shared.reads);
+    assertEquals(10, statistics.getHits());
+  }
+
+  @Test
+  public void shouldDropEntriesOfOtherThreadsOnClear() throws Exception {
+    final CountingCache shared = new CountingCache();
+    final NearCache cache = new NearCache(shared);
+    cache.putObject("key", "old");
+    assertEquals("old", cache.getObject("key"));
+
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        cache.clear();
+        cache.putObject("key", "new");
+      }
+    });
+    writer.start();
+    writer.join();
+
+    assertEquals("new", cache.getObject("key"));
+    assertEquals(1, shared.reads);
+  }
+
+  @Test
+  public void shouldKeepAtMostSizeEntriesPerThread() {
+    CountingCache shared = new CountingCache();
+    NearCache cache = new NearCache(shared);
+    cache.setNearCacheSize(2);
+    cache.putObject("a", "a");
+    cache.putObject("b", "b");
+    cache.getObject("a");
+    cache.putObject("c", "c");
+    cache.getObject("a");
+    cache.getObject("c");
+    assertEquals(0, shared.reads);
+    cache.getObject("b");
+    assertEquals(1, shared.reads);
+  }
+
+  @Test
+  public void shouldRereadSharedCacheAfterTtl() throws Exception {
+    CountingCache shared = new CountingCache();
+    NearCache cache = new NearCache(shared);
+    cache.setNearCacheTtl(10);
+    cache.putObject("key", "value");
+    Thread.sleep(30);
+    assertEquals("value", cache.getObject("key"));
+    assertEquals(1, shared.reads);
+  }
+
+  @Test
+  public void shouldOnlyBuildNearCacheForReadOnlyCaches() {
+    Properties properties = new Properties();
+    properties.setProperty("nearCacheSize", "16");
+    Cache cache = new CacheBuilder("ns").properties(properties).build();
+    assertTrue(cache instanceof NearCache);
+    try {
+      new CacheBuilder("ns").properties(properties).readWrite(true).build();
+      fail();
+    } catch (CacheException e) {
+      assertTrue(e.getMessage().contains("nearCacheSize"));
+    }
+  }
+
+  private static class CountingCache extends PerpetualCache {
+    int reads;
+
+    CountingCache() {
+      super("default");
+    }
+
+    @Override
+    public Object getObject(Object key) {
+      reads++;
+      return super.getObject(key);
+    }
+  }
+
+}
@@ -0,0 +1,119 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+public class OffHeapCacheTest {
+
+  @Test
+  public void shouldReturnCopiesOfStoredObjects() {
+    Cache cache = new OffHeapCache("default");
+    List<String> value = new ArrayList<String>();
+    value.add("a");
+    cache.putObject("key", value);
+    value.add("b");
+    Object copy = cache.getObject("key");
+    assertEquals(1, ((List<?>) copy).size());
+    assertNotSame(copy, cache.getObject("key"));
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, i);
+      assertEquals(i, cache.getObject(i));
+    }
+    assertEquals(1001, cache.getSize());
+  }
+
+  @Test
+  public void shouldEvictOldestEntriesWhenFull() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setCapacity(16 * 4096);
+    byte[] payload = new byte[1000];
+    for (int i = 0; i < 5000; i++) {
+      cache.putObject(i, payload);
+    }
+    assertTrue(cache.getSize() < 100);
+    assertNull(cache.getObject(0));
+    assertArrayEquals(payload, (byte[]) cache.getObject(4999));
+    for (int i = 0; i < 5000; i++) {
+      Object value = cache.getObject(i);
+      assertTrue(value == null || ((byte[]) value).length == 1000);
+    }
+  }
+
+  @Test
+  public void shouldReplaceRemoveAndFlushItems() {
+    Cache cache = new OffHeapCache("default");
+    cache.putObject(0, "first");
+    cache.putObject(0, "second");
+    assertEquals("second", cache.getObject(0));
+    assertEquals(1, cache.getSize());
+    assertEquals("second", cache.removeObject(0));
+    assertNull(cache.getObject(0));
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    cache.clear();
+    assertNull(cache.getObject(4));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldSizeSegmentsForLargestExpectedEntry() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setCapacity(1024 * 1024);
+    cache.setMaxEntryBytes(256 * 1024);
+    byte[] large = new byte[200 * 1024];
+    cache.putObject("large", large);
+    assertArrayEquals(large, (byte[]) cache.getObject("large"));
+  }
+
+  @Test
+  public void shouldNotStoreEntryLargerThanSegment() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setCapacity(64 * 1024);
+    cache.putObject("key", new byte[10]);
+    cache.putObject("key", new byte[100 * 1024]);
+    assertNull(cache.getObject("key"));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectMaxEntryBytesAboveSegmentLimit() {
+    new OffHeapCache("default").setMaxEntryBytes(2L * 1024 * 1024 * 1024);
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectNonSerializableValues() {
+    new OffHeapCache("default").putObject("key", new Object());
+  }
+
+  @Test
+  public void shouldBeUsableAsCacheType() {
+    Properties props = new Properties();
+    props.setProperty("capacity", "1048576");
+    Cache cache = new CacheBuilder("default").implementation(OffHeapCache.class).properties(props).build();
+    cache.putObject("key", "value");
+    assertEquals("value", cache.getObject("key"));
+  }
+
+}
@@ -0,0 +1,166 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class SingleFlightBlockingCacheTest {
+
+  @Test
+  public void shouldLetWaitersShareTheLoadedValue() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject("key"));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> waiter = executor.submit(get(cache, "key"));
+      assertWaiting(waiter);
+      cache.putObject("key", "loaded");
+      assertEquals("loaded", waiter.get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldReleaseWaitersWhenAnotherThreadPuts() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject("key"));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<Object> waiter = executor.submit(get(cache, "key"));
+      assertWaiting(waiter);
+      // TransactionalCache puts on commit, possibly from another thread, and puts null on rollback
+      executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          cache.putObject("key", null);
+          return null;
+        }
+      }).get(5, TimeUnit.SECONDS);
+      assertNull(waiter.get(5, TimeUnit.SECONDS));
+      // the finished flight is gone, so the next miss becomes a loader without waiting
+      assertNull(executor.submit(get(cache, "key")).get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldFallBackToLoadingAfterTimeout() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    cache.setTimeout(100);
+    assertNull(cache.getObject("key"));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      assertNull(executor.submit(get(cache, "key")).get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldLetWokenWaiterLoadUnderItsOwnFlight() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject("key"));
+    ExecutorService waiterThread = Executors.newSingleThreadExecutor();
+    ExecutorService otherThread = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> waiter = waiterThread.submit(get(cache, "key"));
+      assertWaiting(waiter);
+      // the first load rolls back, the woken waiter misses and becomes the next loader
+      cache.putObject("key", null);
+      assertNull(waiter.get(5, TimeUnit.SECONDS));
+      Future<Object> next = otherThread.submit(get(cache, "key"));
+      assertWaiting(next);
+      waiterThread.submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          cache.putObject("key", "reloaded");
+          return null;
+        }
+      }).get(5, TimeUnit.SECONDS);
+      assertEquals("reloaded", next.get(5, TimeUnit.SECONDS));
+    } finally {
+      waiterThread.shutdownNow();
+      otherThread.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldNotCompleteLoaderFlightFromTimedOutWaiter() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    cache.setTimeout(100);
+    assertNull(cache.getObject("key"));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // the waiter gives up, loads on its own and rolls back
+      executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          assertNull(cache.getObject("key"));
+          cache.putObject("key", null);
+          return null;
+        }
+      }).get(5, TimeUnit.SECONDS);
+      cache.setTimeout(0);
+      // the first loader is still in flight
+      Future<Object> waiter = executor.submit(get(cache, "key"));
+      assertWaiting(waiter);
+      cache.putObject("key", "loaded");
+      assertEquals("loaded", waiter.get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldNotWaitForOwnLoad() {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject("key"));
+    assertNull(cache.getObject("key"));
+    cache.putObject("key", "loaded");
+    assertEquals("loaded", cache.getObject("key"));
+  }
+
+  private Callable<Object> get(final Cache cache, final Object key) {
+    return new Callable<Object>() {
+      @Override
+      public Object call() {
+        return cache.getObject(key);
+      }
+    };
+  }
+
+  private void assertWaiting(Future<Object> waiter) throws Exception {
+    try {
+      waiter.get(200, TimeUnit.MILLISECONDS);
+      fail("Expected the second reader to wait for the loader");
+    } catch (TimeoutException e) {
+      // expected
+    }
+  }
+
+}
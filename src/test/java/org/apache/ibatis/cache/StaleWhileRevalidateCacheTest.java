@@ -0,0 +1,112 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.StaleWhileRevalidateCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Properties;
+
+public class StaleWhileRevalidateCacheTest {
+
+  @Test
+  public void shouldServeStaleValueAfterClearAndHandOutOneRefresh() {
+    StaleWhileRevalidateCache cache = new StaleWhileRevalidateCache(new PerpetualCache("default"));
+    cache.putObject("key", "old");
+    assertEquals("old", cache.getObject("key"));
+    assertFalse(StaleWhileRevalidateCache.refreshClaimed());
+
+    cache.clear();
+    assertEquals("old", cache.getObject("key"));
+    assertTrue(StaleWhileRevalidateCache.refreshClaimed());
+    // the flag is consumed once read
+    assertFalse(StaleWhileRevalidateCache.refreshClaimed());
+    assertEquals("old", cache.getObject("key"));
+    assertFalse(StaleWhileRevalidateCache.refreshClaimed());
+
+    cache.putObject("key", "new");
+    assertEquals("new", cache.getObject("key"));
+    assertFalse(StaleWhileRevalidateCache.refreshClaimed());
+  }
+
+  @Test
+  public void shouldKeepRefreshedValueStaleWhenClearedDuringRefresh() {
+    StaleWhileRevalidateCache cache = new StaleWhileRevalidateCache(new PerpetualCache("default"));
+    cache.putObject("key", "old");
+    cache.clear();
+    cache.getObject("key");
+    assertTrue(StaleWhileRevalidateCache.refreshClaimed());
+    cache.clear();
+    cache.putObject("key", "refreshed");
+    assertEquals("refreshed", cache.getObject("key"));
+    assertTrue(StaleWhileRevalidateCache.refreshClaimed());
+  }
+
+  @Test
+  public void shouldHandOutRefreshAgainAfterTimeout() throws Exception {
+    StaleWhileRevalidateCache cache = new StaleWhileRevalidateCache(new PerpetualCache("default"));
+    // every claim is already timed out
+    cache.setRefreshTimeout(-1);
+    cache.putObject("key", "old");
+    cache.clear();
+    cache.getObject("key");
+    assertTrue(StaleWhileRevalidateCache.refreshClaimed());
+    cache.getObject("key");
+    assertTrue(StaleWhileRevalidateCache.refreshClaimed());
+  }
+
+  @Test
+  public void shouldDropRefreshResultWhenEntryWasRemovedDuringRefresh() {
+    StaleWhileRevalidateCache cache = new StaleWhileRevalidateCache(new PerpetualCache("default"));
+    cache.putObject("key", "old");
+    cache.clear();
+    cache.getObject("key");
+    assertTrue(StaleWhileRevalidateCache.refreshClaimed());
+    cache.removeObject("key");
+
+    StaleWhileRevalidateCache.setWritingRefresh(true);
+    try {
+      cache.putObject("key", "refreshed");
+    } finally {
+      StaleWhileRevalidateCache.setWritingRefresh(false);
+    }
+    assertNull(cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldForgetRemovedEntries() {
+    StaleWhileRevalidateCache cache = new StaleWhileRevalidateCache(new PerpetualCache("default"));
+    cache.putObject("key", "old");
+    cache.clear();
+    assertEquals("old", cache.removeObject("key"));
+    assertNull(cache.getObject("key"));
+    assertFalse(StaleWhileRevalidateCache.refreshClaimed());
+  }
+
+  @Test
+  public void shouldBeInstalledOutermostWhenEnabled() {
+    Properties properties = new Properties();
+    properties.setProperty("staleWhileRevalidate", "true");
+    properties.setProperty("refreshTimeout", "1000");
+    Cache cache = new CacheBuilder("default").properties(properties).build();
+    assertTrue(cache instanceof StaleWhileRevalidateCache);
+    assertFalse(new CacheBuilder("default").build() instanceof StaleWhileRevalidateCache);
+  }
+
+}
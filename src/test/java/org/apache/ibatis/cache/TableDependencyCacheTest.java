@@ -0,0 +1,161 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.TableDependencyCache;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.session.Configuration;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+
+public class TableDependencyCacheTest {
+
+  private final Configuration configuration = new Configuration();
+
+  @Test
+  public void shouldParseTablesAndKeyColumn() {
+    TableDependency join = dependency("select * from author a join blog b on a.id = b.author_id where a.id = ?", 1);
+    assertEquals(new HashSet<String>(Arrays.asList("author", "blog")), join.getTables());
+    assertNull(join.getKeyColumn());
+
+    TableDependency list = dependency("SELECT * FROM blog.Author a, post p WHERE a.id = p.author_id");
+    assertEquals(new HashSet<String>(Arrays.asList("author", "post")), list.getTables());
+
+    assertEquals("id", dependency("select * from author where id = ?", 1).getKeyColumn());
+    assertEquals("id", dependency("update author set name = ? where id = ?", "n", 1).getKeyColumn());
+    // changing the key column itself may move the row under another key
+    assertNull(dependency("update author set id = ? where id = ?", 2, 1).getKeyColumn());
+    assertNull(dependency("insert into author (id, name) values (?, ?)", 1, "n").getKeyColumn());
+    assertTrue(dependency("{call refresh_authors()}").isAllTables());
+  }
+
+  @Test
+  public void shouldCompareDependencies() {
+    TableDependency author1 = dependency("select * from author where id = ?", 1);
+    TableDependency allAuthors = dependency("select * from author");
+    TableDependency posts = dependency("select * from post");
+
+    TableDependency updateAuthor2 = dependency("update author set name = ? where id = ?", "n", 2L);
+    assertFalse(author1.isAffectedBy(updateAuthor2));
+    assertTrue(allAuthors.isAffectedBy(updateAuthor2));
+    assertFalse(posts.isAffectedBy(updateAuthor2));
+    assertTrue(author1.isAffectedBy(dependency("delete from author where id = ?", 1L)));
+    assertTrue(author1.isAffectedBy(dependency("insert into author (id) values (?)", 1)));
+    assertTrue(posts.isAffectedBy(TableDependency.ALL_TABLES));
+  }
+
+  @Test
+  public void shouldInvalidateOnlyAffectedEntries() {
+    TableDependencyCache cache = new TableDependencyCache(new PerpetualCache("default"));
+    put(cache, "author1", "select * from author where id = ?", 1);
+    put(cache, "author2", "select * from author where id = ?", 2);
+    put(cache, "authors", "select * from author");
+    put(cache, "posts", "select * from post");
+
+    cache.invalidate(dependency("update author set name = ? where id = ?", "n", 1));
+    assertNull(cache.getObject("author1"));
+    assertNull(cache.getObject("authors"));
+    assertEquals("author2", cache.getObject("author2"));
+    assertEquals("posts", cache.getObject("posts"));
+
+    cache.invalidate(TableDependency.ALL_TABLES);
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldDeferInvalidationToCommit() {
+    TableDependencyCache cache = new TableDependencyCache(new PerpetualCache("default"));
+    put(cache, "author1", "select * from author where id = ?", 1);
+    put(cache, "posts", "select * from post");
+    TransactionalCache txCache = new TransactionalCache(cache);
+    cache.recordDependency("author2", dependency("select * from author where id = ?", 2));
+    txCache.putObject("author2", "author2");
+
+    txCache.invalidate(dependency("delete from author where id = ?", 1));
+    // the writing session no longer sees the affected entry, the others still do
+    assertNull(txCache.getObject("author1"));
+    assertEquals("posts", txCache.getObject("posts"));
+    assertEquals("author1", cache.getObject("author1"));
+
+    txCache.commit();
+    assertNull(cache.getObject("author1"));
+    assertEquals("posts", cache.getObject("posts"));
+    assertEquals("author2", cache.getObject("author2"));
+  }
+
+  @Test
+  public void shouldKeepDependencyOfEntryReadAfterOwnWrite() {
+    TableDependencyCache cache = new TableDependencyCache(new PerpetualCache("default"));
+    TransactionalCache txCache = new TransactionalCache(cache);
+    TableDependency updateAuthor5 = dependency("update author set name = ? where id = ?", "n", 5);
+    txCache.invalidate(updateAuthor5);
+    assertNull(txCache.getObject("author5"));
+    txCache.putObject("author5", "author5", dependency("select * from author where id = ?", 5));
+    txCache.commit();
+    assertEquals("author5", cache.getObject("author5"));
+
+    // a later write to the same row from any session must still reach the entry
+    cache.invalidate(updateAuthor5);
+    assertNull(cache.getObject("author5"));
+  }
+
+  @Test
+  public void shouldTreatEntryPutWithoutDependencyAsAffectedByAnyWrite() {
+    TableDependencyCache cache = new TableDependencyCache(new PerpetualCache("default"));
+    put(cache, "author1", "select * from author where id = ?", 1);
+    // replaced without a dependency: the old one no longer describes the entry
+    cache.putObject("author1", "refreshed");
+    assertTrue(cache.isAffected("author1", dependency("update post set title = ? where id = ?", "t", 1)));
+
+    cache.invalidate(dependency("update post set title = ? where id = ?", "t", 1));
+    assertNull(cache.getObject("author1"));
+  }
+
+  @Test
+  public void shouldBeInstalledOutermostWhenEnabled() {
+    Properties properties = new Properties();
+    properties.setProperty("invalidateByTable", "true");
+    assertTrue(new CacheBuilder("default").properties(properties).build() instanceof TableDependencyCache);
+    assertFalse(new CacheBuilder("default").build() instanceof TableDependencyCache);
+  }
+
+  private void put(TableDependencyCache cache, String key, String sql, Object... parameters) {
+    cache.putObject(key, key, dependency(sql, parameters));
+  }
+
+  private TableDependency dependency(String sql, Object... parameters) {
+    List<ParameterMapping> mappings = new ArrayList<ParameterMapping>();
+    for (int i = 0; i < parameters.length; i++) {
+      mappings.add(new ParameterMapping.Builder(configuration, "p" + i, Object.class).build());
+    }
+    BoundSql boundSql = new BoundSql(configuration, sql, mappings, null);
+    for (int i = 0; i < parameters.length; i++) {
+      boundSql.setAdditionalParameter("p" + i, parameters[i]);
+    }
+    return TableDependency.of(boundSql);
+  }
+
+}
@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TinyLfuCacheTest {
+
+  @Test
+  public void shouldKeepHotEntriesDuringScan() {
+    TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.setSize(10);
+    for (int i = 0; i < 10; i++) {
+      assertNull(cache.getObject("hot" + i));
+      cache.putObject("hot" + i, i);
+    }
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 10; i++) {
+        assertEquals(i, cache.getObject("hot" + i));
+      }
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertNull(cache.getObject("scan" + i));
+      cache.putObject("scan" + i, i);
+      if (i % 20 == 0) {
+        for (int j = 0; j < 10; j++) {
+          assertEquals(j, cache.getObject("hot" + j));
+        }
+      }
+    }
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, cache.getObject("hot" + i));
+    }
+    assertEquals(10, cache.getSize());
+  }
+
+  @Test
+  public void shouldAdmitEntryOnceItBecomesMoreFrequentThanVictim() {
+    TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.setSize(2);
+    cache.getObject(1);
+    cache.putObject(1, 1);
+    cache.getObject(2);
+    cache.putObject(2, 2);
+
+    cache.getObject(3);
+    cache.putObject(3, 3);
+    assertNull(cache.getObject(3));
+    cache.putObject(3, 3);
+    assertEquals(3, cache.getObject(3));
+    assertNull(cache.getObject(1));
+    assertEquals(2, cache.getSize());
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    Cache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    Cache cache = new TinyLfuCache(new PerpetualCache("default"));
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+  }
+
+}
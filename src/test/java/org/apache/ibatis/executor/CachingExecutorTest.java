@@ -0,0 +1,125 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMap;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CachingExecutorTest extends BaseDataTest {
+
+  private static DataSource ds;
+  private final Configuration config = new Configuration();
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    ds = createBlogDataSource();
+  }
+
+  @Before
+  public void clearCache() {
+    ExecutorTestHelper.authorCache.clear();
+  }
+
+  @Test
+  public void shouldWriteMissesThroughWhenSessionHasNotWritten() throws Exception {
+    config.setCacheReadOnlyFastPath(true);
+    MappedStatement select = selectAuthor(config);
+    Executor executor = new CachingExecutor(new SimpleExecutor(config, new JdbcTransaction(ds, null, false)));
+    try {
+      executor.query(select, 101, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      assertNotNull(ExecutorTestHelper.authorCache.getObject(key(executor, select, 101)));
+    } finally {
+      executor.close(true);
+    }
+  }
+
+  @Test
+  public void shouldBufferMissesUntilCommitAfterAnUpdate() throws Exception {
+    config.setCacheReadOnlyFastPath(true);
+    MappedStatement select = selectAuthor(config);
+    MappedStatement update = ExecutorTestHelper.prepareUpdateAuthorMappedStatement(config);
+    Executor executor = new CachingExecutor(new SimpleExecutor(config, new JdbcTransaction(ds, null, false)));
+    try {
+      executor.update(update, new Author(101, "someone", "******", "someone@apache.org", null, Section.NEWS));
+      executor.query(select, 101, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      // the uncommitted row must not leak to other sessions
+      assertNull(ExecutorTestHelper.authorCache.getObject(key(executor, select, 101)));
+      executor.rollback(true);
+      assertNull(ExecutorTestHelper.authorCache.getObject(key(executor, select, 101)));
+
+      // a new transaction starts clean again
+      executor.query(select, 101, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      assertNotNull(ExecutorTestHelper.authorCache.getObject(key(executor, select, 101)));
+    } finally {
+      executor.close(true);
+    }
+  }
+
+  @Test
+  public void shouldUseTransactionalCacheByDefault() throws Exception {
+    MappedStatement select = selectAuthor(config);
+    Executor executor = new CachingExecutor(new SimpleExecutor(config, new JdbcTransaction(ds, null, false)));
+    try {
+      executor.query(select, 101, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      assertNull(ExecutorTestHelper.authorCache.getObject(key(executor, select, 101)));
+      executor.commit(true);
+      assertNotNull(ExecutorTestHelper.authorCache.getObject(key(executor, select, 101)));
+    } finally {
+      executor.close(true);
+    }
+  }
+
+  private CacheKey key(Executor executor, MappedStatement ms, Object parameter) {
+    return executor.createCacheKey(ms, parameter, RowBounds.DEFAULT, ms.getBoundSql(parameter));
+  }
+
+  private MappedStatement selectAuthor(final Configuration config) {
+    final List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
+    parameterMappings.add(new ParameterMapping.Builder(config, "id", config.getTypeHandlerRegistry().getTypeHandler(int.class)).build());
+    final List<ResultMap> resultMaps = new ArrayList<ResultMap>();
+    resultMaps.add(new ResultMap.Builder(config, "defaultResultMap", Author.class, new ArrayList<ResultMapping>()).build());
+    return new MappedStatement.Builder(config, "selectAuthor",
+        new StaticSqlSource(config, "SELECT * FROM author WHERE id = ?"), SqlCommandType.SELECT)
+        .parameterMap(new ParameterMap.Builder(config, "defaultParameterMap", Author.class, parameterMappings).build())
+        .resultMaps(resultMaps)
+        .cache(ExecutorTestHelper.authorCache)
+        .useCache(true)
+        .build();
+  }
+
+}
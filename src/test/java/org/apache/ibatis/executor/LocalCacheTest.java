@@ -0,0 +1,131 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.impl.BoundedLocalCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMap;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LocalCacheTest extends BaseDataTest {
+
+  private static DataSource ds;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    ds = createBlogDataSource();
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedEntries() {
+    BoundedLocalCache cache = new BoundedLocalCache("LocalCache", 2, 0);
+    cache.putObject("a", "a");
+    cache.putObject("b", "b");
+    cache.putObject("c", "c");
+    // nothing is evicted until the outermost query completes
+    assertEquals(3, cache.getSize());
+    cache.getObject("a");
+    assertEquals(1, cache.trim().size());
+    assertNull(cache.getObject("b"));
+    assertEquals("a", cache.getObject("a"));
+    assertEquals("c", cache.getObject("c"));
+  }
+
+  @Test
+  public void shouldEvictByEstimatedBytes() {
+    BoundedLocalCache cache = new BoundedLocalCache("LocalCache", 0, 1000);
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, new char[100]);
+    }
+    cache.trim();
+    assertTrue(cache.getUsedBytes() <= 1000);
+    assertTrue(cache.getSize() > 0 && cache.getSize() < 10);
+    assertNotNull(cache.getObject(9));
+  }
+
+  @Test
+  public void shouldKeepLocalCacheBoundedAcrossQueries() throws Exception {
+    Configuration config = new Configuration();
+    config.setLocalCacheSize(1);
+    MappedStatement ms = selectAuthor(config, true);
+    Executor executor = new SimpleExecutor(config, new JdbcTransaction(ds, null, false));
+    try {
+      executor.query(ms, 101, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      assertTrue(executor.isCached(ms, key(executor, ms, 101)));
+      executor.query(ms, 102, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      assertFalse(executor.isCached(ms, key(executor, ms, 101)));
+      assertTrue(executor.isCached(ms, key(executor, ms, 102)));
+    } finally {
+      executor.close(true);
+    }
+  }
+
+  @Test
+  public void shouldNotKeepResultsOfOptedOutStatements() throws Exception {
+    Configuration config = new Configuration();
+    MappedStatement cached = selectAuthor(config, true);
+    MappedStatement uncached = selectAuthor(config, false);
+    Executor executor = new SimpleExecutor(config, new JdbcTransaction(ds, null, false));
+    try {
+      List<Author> first = executor.query(uncached, 101, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      assertEquals(101, first.get(0).getId());
+      assertFalse(executor.isCached(uncached, key(executor, uncached, 101)));
+      assertNotSame(first, executor.query(uncached, 101, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER));
+
+      List<Author> second = executor.query(cached, 101, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      assertSame(second, executor.query(cached, 101, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER));
+    } finally {
+      executor.close(true);
+    }
+  }
+
+  private CacheKey key(Executor executor, MappedStatement ms, Object parameter) {
+    return executor.createCacheKey(ms, parameter, RowBounds.DEFAULT, ms.getBoundSql(parameter));
+  }
+
+  private MappedStatement selectAuthor(final Configuration config, boolean useLocalCache) {
+    final List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
+    parameterMappings.add(new ParameterMapping.Builder(config, "id", config.getTypeHandlerRegistry().getTypeHandler(int.class)).build());
+    final List<ResultMap> resultMaps = new ArrayList<ResultMap>();
+    resultMaps.add(new ResultMap.Builder(config, "defaultResultMap", Author.class, new ArrayList<ResultMapping>()).build());
+    return new MappedStatement.Builder(config, useLocalCache ? "selectAuthor" : "selectAuthorUncached",
+        new StaticSqlSource(config, "SELECT * FROM author WHERE id = ?"), SqlCommandType.SELECT)
+        .parameterMap(new ParameterMap.Builder(config, "defaultParameterMap", Author.class, parameterMappings).build())
+        .resultMaps(resultMaps)
+        .useLocalCache(useLocalCache)
+        .build();
+  }
+
+}
@@ -0,0 +1,175 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.junit.Test;
+
+public class QueryCoalescerTest {
+
+  private static final int FOLLOWERS = 5;
+  private static final long TIMEOUT = 10000;
+
+  private final QueryCoalescer coalescer = new QueryCoalescer();
+  private final CacheKey key = new CacheKey(new Object[]{"selectAuthor", 101});
+  private final AtomicInteger loads = new AtomicInteger();
+  private final List<List<String>> followerResults = new ArrayList<List<String>>();
+
+  @Test
+  public void shouldRunOneQueryAndHandFollowersTheirOwnCopy() throws Exception {
+    final List<String> leaderResult = coalesce(false, null, FOLLOWERS);
+    assertEquals(1, loads.get());
+    for (List<String> result : followerResults) {
+      assertEquals(leaderResult, result);
+      assertNotSame(leaderResult, result);
+    }
+    assertEquals(0, coalescer.getInFlight());
+  }
+
+  @Test
+  public void shouldShareTheResultOfReadOnlyCaches() throws Exception {
+    final List<String> leaderResult = coalesce(true, null, FOLLOWERS);
+    assertEquals(1, loads.get());
+    for (List<String> result : followerResults) {
+      assertSame(leaderResult, result);
+    }
+  }
+
+  @Test
+  public void shouldLetFollowersQueryThemselvesWhenLeaderFails() throws Exception {
+    try {
+      coalesce(false, new SQLException("leader failed"), FOLLOWERS);
+      fail();
+    } catch (SQLException e) {
+      assertEquals("leader failed", e.getMessage());
+    }
+    assertEquals(1 + FOLLOWERS, loads.get());
+    assertEquals(FOLLOWERS, followerResults.size());
+  }
+
+  @Test
+  public void shouldNotWaitForItselfOnReentrantQuery() throws Exception {
+    List<String> result = coalescer.query(key, false, TIMEOUT, new QueryCoalescer.Loader<String>() {
+      @Override
+      public List<String> load() throws SQLException {
+        return coalescer.query(key, false, TIMEOUT, loader(null));
+      }
+    });
+    assertEquals(Arrays.asList("a", "b"), result);
+  }
+
+  @Test
+  public void shouldLetFollowersQueryThemselvesAfterTimeout() throws Exception {
+    List<String> leaderResult = coalesce(false, null, FOLLOWERS, 50);
+    assertEquals(Arrays.asList("a", "b"), leaderResult);
+    assertEquals(1 + FOLLOWERS, loads.get());
+    assertEquals(FOLLOWERS, followerResults.size());
+  }
+
+  @Test
+  public void shouldRecognizeLockingReads() {
+    assertTrue(CachingExecutor.LOCKING_READ.matcher("select * from author where id = ? FOR UPDATE").find());
+    assertTrue(CachingExecutor.LOCKING_READ.matcher("select * from author for share").find());
+    assertTrue(CachingExecutor.LOCKING_READ.matcher("select * from author lock in  share mode").find());
+    assertFalse(CachingExecutor.LOCKING_READ.matcher("select * from author where updated_for = ?").find());
+  }
+
+  // the leader blocks until every follower has had time to join its flight
+  private List<String> coalesce(boolean share, final SQLException failure, int followers) throws Exception {
+    return coalesce(share, failure, followers, TIMEOUT);
+  }
+
+  private List<String> coalesce(boolean share, final SQLException failure, int followers, final long followerTimeout) throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch leading = new CountDownLatch(1);
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < followers; i++) {
+      final boolean shareResult = share;
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            leading.await();
+            List<String> result = coalescer.query(key, shareResult, followerTimeout, loader(null));
+            synchronized (followerResults) {
+              followerResults.add(result);
+            }
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }));
+    }
+    Thread releaser = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          leading.await();
+          Thread.sleep(300);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        release.countDown();
+      }
+    });
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    releaser.start();
+    try {
+      return coalescer.query(key, share, TIMEOUT, new QueryCoalescer.Loader<String>() {
+        @Override
+        public List<String> load() throws SQLException {
+          leading.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new SQLException(e);
+          }
+          return loader(failure).load();
+        }
+      });
+    } finally {
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      releaser.join();
+    }
+  }
+
+  private QueryCoalescer.Loader<String> loader(final SQLException failure) {
+    return new QueryCoalescer.Loader<String>() {
+      @Override
+      public List<String> load() throws SQLException {
+        loads.incrementAndGet();
+        if (failure != null) {
+          throw failure;
+        }
+        return new ArrayList<String>(Arrays.asList("a", "b"));
+      }
+    };
+  }
+
+}
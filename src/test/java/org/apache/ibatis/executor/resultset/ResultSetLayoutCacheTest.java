@@ -0,0 +1,180 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.type.IntegerTypeHandler;
+import org.junit.Test;
+
+public class ResultSetLayoutCacheTest {
+
+  @Test
+  public void shouldReuseLayoutForSameColumnsAndTypes() throws Exception {
+    Configuration config = new Configuration();
+    ResultSetLayoutCache cache = new ResultSetLayoutCache();
+
+    ResultSetLayout first = cache.getLayout("select", metaData("ID", "NAME"), config.getTypeHandlerRegistry(), true);
+    ResultSetLayout second = cache.getLayout("select", metaData("ID", "NAME"), config.getTypeHandlerRegistry(), true);
+
+    assertSame(first, second);
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void shouldReplaceLayoutWhenColumnTypesChange() throws Exception {
+    Configuration config = new Configuration();
+    ResultSetLayoutCache cache = new ResultSetLayoutCache();
+
+    ResultSetLayout first = cache.getLayout("select", metaData("ID", "NAME"), config.getTypeHandlerRegistry(), true);
+    ResultSetMetaData retyped = metaData("ID", "NAME");
+    when(retyped.getColumnType(1)).thenReturn(Types.BIGINT);
+    ResultSetLayout second = cache.getLayout("select", retyped, config.getTypeHandlerRegistry(), true);
+
+    assertNotSame(first, second);
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void shouldMatchLayoutWithoutReadingColumnClassNames() throws Exception {
+    Configuration config = new Configuration();
+    ResultSetLayoutCache cache = new ResultSetLayoutCache();
+
+    ResultSetLayout first = cache.getLayout("select", metaData("ID", "NAME"), config.getTypeHandlerRegistry(), true);
+    ResultSetMetaData again = metaData("ID", "NAME");
+    assertSame(first, cache.getLayout("select", again, config.getTypeHandlerRegistry(), true));
+    verify(again, never()).getColumnClassName(anyInt());
+
+    // a different type code is rejected before any label is read
+    ResultSetMetaData retyped = metaData("ID", "NAME");
+    when(retyped.getColumnType(2)).thenReturn(Types.CLOB);
+    assertNotSame(first, cache.getLayout("select", retyped, config.getTypeHandlerRegistry(), true));
+    verify(retyped, times(1)).getColumnLabel(1);
+  }
+
+  @Test
+  public void shouldAutoMapAcrossExecutionsAndTypeChanges() throws Exception {
+    final Configuration config = new Configuration();
+    final MappedStatement ms = new MappedStatement.Builder(config, "testSelect", new StaticSqlSource(config, "some select statement"), SqlCommandType.SELECT).resultMaps(
+        new ArrayList<ResultMap>() {
+          {
+            add(new ResultMap.Builder(config, "testMap", HashMap.class, new ArrayList<ResultMapping>()).build());
+          }
+        }).build();
+
+    assertEquals(Integer.valueOf(100), handleSingleRow(ms, Types.INTEGER).get("ID"));
+    assertEquals(Integer.valueOf(100), handleSingleRow(ms, Types.INTEGER).get("ID"));
+    assertEquals(1, config.getResultSetLayoutCache().size());
+
+    // same column name, different type: the cached type handler must not be reused
+    assertEquals("100", handleSingleRow(ms, Types.VARCHAR).get("ID"));
+    assertEquals(1, config.getResultSetLayoutCache().size());
+  }
+
+  @Test
+  public void shouldReplaceLayoutWhenColumnsChange() throws Exception {
+    Configuration config = new Configuration();
+    ResultSetLayoutCache cache = new ResultSetLayoutCache();
+
+    ResultSetLayout first = cache.getLayout("select", metaData("ID", "NAME"), config.getTypeHandlerRegistry(), true);
+    ResultSetLayout renamed = cache.getLayout("select", metaData("ID", "LABEL"), config.getTypeHandlerRegistry(), true);
+    ResultSetLayout added = cache.getLayout("select", metaData("ID", "LABEL", "PRICE"), config.getTypeHandlerRegistry(), true);
+
+    assertNotSame(first, renamed);
+    assertNotSame(renamed, added);
+    assertEquals(Arrays.asList("ID", "LABEL", "PRICE"), added.getColumnNames());
+    assertSame(added, cache.getLayout("select", metaData("ID", "LABEL", "PRICE"), config.getTypeHandlerRegistry(), true));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void shouldShareResolvedTypeHandlersBetweenExecutions() throws Exception {
+    Configuration config = new Configuration();
+    ResultSetLayoutCache cache = new ResultSetLayoutCache();
+
+    ResultSetLayout layout = cache.getLayout("select", metaData("ID", "NAME"), config.getTypeHandlerRegistry(), true);
+
+    assertEquals(IntegerTypeHandler.class, layout.getTypeHandler(Object.class, "ID").getClass());
+    assertSame(layout.getTypeHandler(Object.class, "ID"),
+        cache.getLayout("select", metaData("ID", "NAME"), config.getTypeHandlerRegistry(), true).getTypeHandler(Object.class, "ID"));
+  }
+
+  @SuppressWarnings("unchecked")
+  private HashMap<String, Object> handleSingleRow(MappedStatement ms, int jdbcType) throws Exception {
+    Statement stmt = mock(Statement.class);
+    ResultSet rs = mock(ResultSet.class);
+    ResultSetMetaData rsmd = mock(ResultSetMetaData.class);
+    Connection conn = mock(Connection.class);
+    DatabaseMetaData dbmd = mock(DatabaseMetaData.class);
+    when(stmt.getResultSet()).thenReturn(rs);
+    when(rs.getMetaData()).thenReturn(rsmd);
+    when(rs.getType()).thenReturn(ResultSet.TYPE_FORWARD_ONLY);
+    when(rs.next()).thenReturn(true).thenReturn(false);
+    when(rs.getInt("ID")).thenReturn(100);
+    when(rs.getString("ID")).thenReturn("100");
+    when(rs.wasNull()).thenReturn(false);
+    when(rsmd.getColumnCount()).thenReturn(1);
+    when(rsmd.getColumnLabel(1)).thenReturn("ID");
+    when(rsmd.getColumnType(1)).thenReturn(jdbcType);
+    when(rsmd.getColumnClassName(1)).thenReturn(jdbcType == Types.INTEGER ? Integer.class.getName() : String.class.getName());
+    when(stmt.getConnection()).thenReturn(conn);
+    when(conn.getMetaData()).thenReturn(dbmd);
+    when(dbmd.supportsMultipleResultSets()).thenReturn(false);
+
+    DefaultResultSetHandler handler = new DefaultResultSetHandler(null, ms, null, null, null, new RowBounds(0, 100));
+    List<Object> results = handler.handleResultSets(stmt);
+    assertEquals(1, results.size());
+    return (HashMap<String, Object>) results.get(0);
+  }
+
+  private ResultSetMetaData metaData(String... columns) throws Exception {
+    ResultSetMetaData rsmd = mock(ResultSetMetaData.class);
+    when(rsmd.getColumnCount()).thenReturn(columns.length);
+    for (int i = 0; i < columns.length; i++) {
+      when(rsmd.getColumnLabel(i + 1)).thenReturn(columns[i]);
+      when(rsmd.getColumnType(i + 1)).thenReturn(i == 0 ? Types.INTEGER : Types.VARCHAR);
+      when(rsmd.getColumnClassName(i + 1)).thenReturn(i == 0 ? Integer.class.getName() : String.class.getName());
+    }
+    return rsmd;
+  }
+
+}
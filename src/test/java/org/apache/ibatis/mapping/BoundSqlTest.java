@@ -0,0 +1,75 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+import org.apache.ibatis.session.Configuration;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class BoundSqlTest {
+
+  private final Configuration configuration = new Configuration();
+
+  @Test
+  public void shouldResolveParameterValuesOnce() {
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("id", 1);
+    parameter.put("name", "foo");
+    BoundSql boundSql = new BoundSql(configuration, "select * from t where id = ? and name = ? and x = ?", Arrays.asList(
+        mapping("id", ParameterMode.IN), mapping("name", ParameterMode.IN), mapping("extra", ParameterMode.IN)), parameter);
+    boundSql.setAdditionalParameter("extra", "bound");
+
+    Object[] values = boundSql.getParameterValues();
+    assertArrayEquals(new Object[]{1, "foo", "bound"}, values);
+
+    // later changes to the parameter object are not seen again within the same execution
+    parameter.put("id", 2);
+    assertSame(values, boundSql.getParameterValues());
+  }
+
+  @Test
+  public void shouldResolveAgainAfterAdditionalParameterIsSet() {
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("id", 1);
+    BoundSql boundSql = new BoundSql(configuration, "select * from t where id = ? and x = ?", Arrays.asList(
+        mapping("id", ParameterMode.IN), mapping("extra", ParameterMode.IN)), parameter);
+    boundSql.setAdditionalParameter("extra", "first");
+    assertArrayEquals(new Object[]{1, "first"}, boundSql.getParameterValues());
+
+    boundSql.setAdditionalParameter("extra", "second");
+    assertArrayEquals(new Object[]{1, "second"}, boundSql.getParameterValues());
+
+    // an additional parameter now shadows the property of the parameter object
+    boundSql.setAdditionalParameter("id", 3);
+    assertArrayEquals(new Object[]{3, "second"}, boundSql.getParameterValues());
+  }
+
+  @Test
+  public void shouldUseSimpleParameterAndSkipOutParameters() {
+    BoundSql boundSql = new BoundSql(configuration, "{call p(?, ?)}", Arrays.asList(
+        mapping("value", ParameterMode.IN), mapping("result", ParameterMode.OUT)), 5);
+    assertArrayEquals(new Object[]{5, null}, boundSql.getParameterValues());
+  }
+
+  private ParameterMapping mapping(String property, ParameterMode mode) {
+    return new ParameterMapping.Builder(configuration, property, Object.class).mode(mode).build();
+  }
+
+}
@@ -0,0 +1,183 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.cache_refresh;
+
+import static org.junit.Assert.*;
+
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the background refresh of stale and soon expiring entries through CachingExecutor against a real database.
+ * The refresh is held right after its query so that a write can land before the result is written back.
+ */
+public class CacheRefreshTest {
+
+  private static final String STALE = "org.apache.ibatis.submitted.cache_refresh.StaleMapper";
+  private static final String REFRESH_AHEAD = "org.apache.ibatis.submitted.cache_refresh.RefreshAheadMapper";
+
+  private SqlSessionFactory sqlSessionFactory;
+  private PauseRefresh pauseRefresh;
+
+  @Before
+  public void setUp() throws Exception {
+    Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/cache_refresh/mybatis-config.xml");
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader);
+    reader.close();
+    pauseRefresh = new PauseRefresh();
+    sqlSessionFactory.getConfiguration().addInterceptor(pauseRefresh);
+
+    SqlSession session = sqlSessionFactory.openSession();
+    Connection conn = session.getConnection();
+    reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/cache_refresh/CreateDB.sql");
+    ScriptRunner runner = new ScriptRunner(conn);
+    runner.setLogWriter(null);
+    runner.runScript(reader);
+    reader.close();
+    session.close();
+  }
+
+  @Test
+  public void shouldNotStoreStaleRefreshWhenTableIsWrittenDuringRefresh() throws Exception {
+    assertEquals("Jane", getName(STALE));
+    sqlSessionFactory.getConfiguration().getCache(STALE).clear();
+
+    // served stale, the refresh starts in the background
+    assertEquals("Jane", getName(STALE));
+    assertTrue(pauseRefresh.queried.await(5, TimeUnit.SECONDS));
+    updateName(STALE, "Jenny");
+    pauseRefresh.resume.countDown();
+    awaitRefreshes();
+
+    assertEquals("Jenny", getName(STALE));
+  }
+
+  @Test
+  public void shouldInvalidateRefreshedEntryOnLaterWrite() throws Exception {
+    pauseRefresh.resume.countDown();
+    assertEquals("Jane", getName(STALE));
+    sqlSessionFactory.getConfiguration().getCache(STALE).clear();
+    assertEquals("Jane", getName(STALE));
+    assertTrue(pauseRefresh.queried.await(5, TimeUnit.SECONDS));
+    awaitRefreshes();
+
+    updateName(STALE, "Jenny");
+    assertEquals("Jenny", getName(STALE));
+  }
+
+  @Test
+  public void shouldNotStoreRefreshAheadWhenTableIsWrittenDuringRefresh() throws Exception {
+    assertEquals("Jane", getName(REFRESH_AHEAD));
+
+    // close to expiry, the refresh starts in the background
+    assertEquals("Jane", getName(REFRESH_AHEAD));
+    assertTrue(pauseRefresh.queried.await(5, TimeUnit.SECONDS));
+    updateName(REFRESH_AHEAD, "Jenny");
+    pauseRefresh.resume.countDown();
+    awaitRefreshes();
+
+    assertEquals("Jenny", getName(REFRESH_AHEAD));
+  }
+
+  @Test
+  public void shouldInvalidateRefreshedAheadEntryOnLaterWrite() throws Exception {
+    pauseRefresh.resume.countDown();
+    assertEquals("Jane", getName(REFRESH_AHEAD));
+    assertEquals("Jane", getName(REFRESH_AHEAD));
+    assertTrue(pauseRefresh.queried.await(5, TimeUnit.SECONDS));
+    awaitRefreshes();
+
+    updateName(REFRESH_AHEAD, "Jenny");
+    assertEquals("Jenny", getName(REFRESH_AHEAD));
+  }
+
+  private String getName(String namespace) {
+    SqlSession session = sqlSessionFactory.openSession();
+    try {
+      return session.selectOne(namespace + ".getName", 1);
+    } finally {
+      session.close();
+    }
+  }
+
+  private void updateName(String namespace, String name) {
+    SqlSession session = sqlSessionFactory.openSession();
+    try {
+      Map<String, Object> parameter = new HashMap<String, Object>();
+      parameter.put("id", 1);
+      parameter.put("name", name);
+      session.update(namespace + ".updateName", parameter);
+      session.commit();
+    } finally {
+      session.close();
+    }
+  }
+
+  // the single refresh thread runs tasks in order, so a no-op task finishes after every refresh before it
+  private void awaitRefreshes() throws Exception {
+    sqlSessionFactory.getConfiguration().getCacheRefreshExecutor().submit(new Runnable() {
+      @Override
+      public void run() {
+      }
+    }).get(5, TimeUnit.SECONDS);
+  }
+
+  @Intercepts(@Signature(type = ResultSetHandler.class, method = "handleResultSets", args = Statement.class))
+  public static class PauseRefresh implements Interceptor {
+    final CountDownLatch queried = new CountDownLatch(1);
+    final CountDownLatch resume = new CountDownLatch(1);
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+      Object result = invocation.proceed();
+      if (Thread.currentThread().getName().startsWith("mybatis-cache-refresh-")) {
+        queried.countDown();
+        resume.await(5, TimeUnit.SECONDS);
+      }
+      return result;
+    }
+
+    @Override
+    public Object plugin(Object target) {
+      return Plugin.wrap(target, this);
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+  }
+
+}
@@ -17,6 +17,8 @@ package org.apache.ibatis.submitted.nestedresulthandler;
 
 import java.io.Reader;
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.ibatis.exceptions.PersistenceException;
@@ -99,6 +101,43 @@ public class NestedResultHandlerTest {
     }
   }
 
+  @Test
+  public void testGetPersonWithHandlerReceivesCompleteParents() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      final List<String> received = new ArrayList<String>();
+      sqlSession.select("getPersons", new ResultHandler() {
+        public void handleResult(ResultContext context) {
+          Person person = (Person) context.getResultObject();
+          // record the size at the time of the callback, later rows must not add to it
+          received.add(person.getName() + ":" + person.getItems().size());
+        }
+      });
+      Assert.assertEquals(Arrays.asList("grandma:2", "sister:2", "brother:1"), received);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void testGetPersonWithHandlerStopsAfterFirstParent() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      final List<Person> received = new ArrayList<Person>();
+      sqlSession.select("getPersons", new ResultHandler() {
+        public void handleResult(ResultContext context) {
+          received.add((Person) context.getResultObject());
+          context.stop();
+        }
+      });
+      Assert.assertEquals(1, received.size());
+      Assert.assertEquals("grandma", received.get(0).getName());
+      Assert.assertEquals(2, received.get(0).getItems().size());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
   @Test(expected=PersistenceException.class)
   public void testUnorderedGetPersonWithHandler() {
     SqlSession sqlSession = sqlSessionFactory.openSession();
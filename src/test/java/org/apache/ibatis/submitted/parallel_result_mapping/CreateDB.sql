@@ -0,0 +1,29 @@
+--
+--    Copyright 2009-2014 the original author or authors.
+--
+--    Licensed under the Apache License, Version 2.0 (the "License");
+--    you may not use this file except in compliance with the License.
+--    You may obtain a copy of the License at
+--
+--       http://www.apache.org/licenses/LICENSE-2.0
+--
+--    Unless required by applicable law or agreed to in writing, software
+--    distributed under the License is distributed on an "AS IS" BASIS,
+--    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--    See the License for the specific language governing permissions and
+--    limitations under the License.
+--
+
+drop table measures if exists;
+
+create table measures (
+  id int,
+  label varchar(20),
+  amount decimal(10,2),
+  taken_at timestamp,
+  valid boolean
+);
+
+insert into measures (id, label, amount, taken_at, valid)
+select n, 'measure-' || n, n + 0.25, timestamp '2014-01-01 00:00:00' + n second, case when mod(n, 2) = 0 then true else false end
+from unnest(sequence_array(1, 1000, 1)) as t(n);
@@ -0,0 +1,166 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.parallel_result_mapping;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ParallelResultMappingTest {
+
+  private static SqlSessionFactory sqlSessionFactory;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    // create a SqlSessionFactory
+    Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/parallel_result_mapping/mybatis-config.xml");
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader);
+    reader.close();
+
+    // populate in-memory database
+    SqlSession session = sqlSessionFactory.openSession();
+    Connection conn = session.getConnection();
+    reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/parallel_result_mapping/CreateDB.sql");
+    ScriptRunner runner = new ScriptRunner(conn);
+    runner.setLogWriter(null);
+    runner.runScript(reader);
+    reader.close();
+    session.close();
+  }
+
+  @Test
+  public void shouldPreserveRowOrderForSelectList() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Measure> measures = sqlSession.getMapper(Mapper.class).getMeasures();
+      assertEquals(1000, measures.size());
+      for (int i = 0; i < measures.size(); i++) {
+        Measure measure = measures.get(i);
+        assertEquals(i + 1, measure.getId());
+        assertEquals("measure-" + (i + 1), measure.getLabel());
+        assertEquals(0, new BigDecimal((i + 1) + ".25").compareTo(measure.getAmount()));
+        assertNotNull(measure.getTakenAt());
+        assertEquals((i + 1) % 2 == 0, measure.isValid());
+        assertTrue(measure.getCreatedBy().startsWith("mybatis-result-mapping-"));
+      }
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldMapWithExplicitResultMap() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Measure> measures = sqlSession.getMapper(Mapper.class).getMeasuresWithResultMap();
+      assertEquals(1000, measures.size());
+      assertEquals(500, measures.get(499).getId());
+      assertEquals("measure-500", measures.get(499).getLabel());
+      assertTrue(measures.get(499).isValid());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldMapToMaps() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Map<String, Object>> measures = sqlSession.getMapper(Mapper.class).getMeasuresAsMaps();
+      assertEquals(1000, measures.size());
+      assertEquals(42, ((Number) measures.get(41).get("ID")).intValue());
+      assertEquals("measure-42", measures.get(41).get("LABEL"));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldApplyRowBounds() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Measure> measures = sqlSession.getMapper(Mapper.class).getMeasures(new RowBounds(10, 25));
+      assertEquals(25, measures.size());
+      assertEquals(11, measures.get(0).getId());
+      assertEquals(35, measures.get(24).getId());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldDeliverAllRowsToResultHandlerOnCallingThread() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      final Thread callingThread = Thread.currentThread();
+      final Set<Integer> ids = new HashSet<Integer>();
+      sqlSession.select("getMeasures", new ResultHandler() {
+        public void handleResult(ResultContext context) {
+          assertSame(callingThread, Thread.currentThread());
+          ids.add(((Measure) context.getResultObject()).getId());
+        }
+      });
+      assertEquals(1000, ids.size());
+      assertTrue(ids.contains(1));
+      assertTrue(ids.contains(1000));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldStopWhenResultHandlerStops() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      final List<Measure> received = new ArrayList<Measure>();
+      sqlSession.select("getMeasures", new ResultHandler() {
+        public void handleResult(ResultContext context) {
+          received.add((Measure) context.getResultObject());
+          if (context.getResultCount() == 5) {
+            context.stop();
+          }
+        }
+      });
+      assertEquals(5, received.size());
+      assertFalse(received.contains(null));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+}
@@ -0,0 +1,28 @@
+--
+--    Copyright 2009-2014 the original author or authors.
+--
+--    Licensed under the Apache License, Version 2.0 (the "License");
+--    you may not use this file except in compliance with the License.
+--    You may obtain a copy of the License at
+--
+--       http://www.apache.org/licenses/LICENSE-2.0
+--
+--    Unless required by applicable law or agreed to in writing, software
+--    distributed under the License is distributed on an "AS IS" BASIS,
+--    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--    See the License for the specific language governing permissions and
+--    limitations under the License.
+--
+
+drop table products if exists;
+
+create table products (
+  id int,
+  name varchar(20),
+  price decimal(10,2),
+  discontinued date
+);
+
+insert into products (id, name, price, discontinued) values (1, 'pen', 1.50, null);
+insert into products (id, name, price, discontinued) values (2, 'book', 12.00, '2014-06-30');
+insert into products (id, name, price, discontinued) values (3, null, null, null);
@@ -0,0 +1,125 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.result_row;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.ResultRow;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ResultRowTest {
+
+  private static SqlSessionFactory sqlSessionFactory;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    // create a SqlSessionFactory
+    Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/result_row/mybatis-config.xml");
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader);
+    reader.close();
+
+    // populate in-memory database
+    SqlSession session = sqlSessionFactory.openSession();
+    Connection conn = session.getConnection();
+    reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/result_row/CreateDB.sql");
+    ScriptRunner runner = new ScriptRunner(conn);
+    runner.setLogWriter(null);
+    runner.runScript(reader);
+    reader.close();
+    session.close();
+  }
+
+  @Test
+  public void shouldReturnRowsSharingOneSchema() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<ResultRow> rows = sqlSession.selectList("org.apache.ibatis.submitted.result_row.Mapper.getProducts");
+      assertEquals(3, rows.size());
+      assertEquals(Arrays.asList("ID", "NAME", "PRICE", "DISCONTINUED"), rows.get(0).getSchema().getColumnNames());
+      assertSame(rows.get(0).getSchema(), rows.get(1).getSchema());
+      assertSame(rows.get(0).getSchema(), rows.get(2).getSchema());
+
+      ResultRow book = rows.get(1);
+      assertEquals(4, book.size());
+      assertEquals(2, book.get(0));
+      assertEquals("book", book.get("name"));
+      assertEquals(0, new BigDecimal("12.00").compareTo((BigDecimal) book.get("PRICE")));
+      assertEquals(java.sql.Date.valueOf("2014-06-30"), book.get("Discontinued"));
+
+      ResultRow nameless = rows.get(2);
+      assertEquals(Arrays.asList(3, null, null, null), Arrays.asList(nameless.toArray()));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldReturnNullForRowWithoutValues() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<ResultRow> rows = sqlSession.selectList("org.apache.ibatis.submitted.result_row.Mapper.getEmptyRows");
+      assertEquals(1, rows.size());
+      assertNull(rows.get(0));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldStreamRowsToResultHandler() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      final List<Object> ids = new ArrayList<Object>();
+      sqlSession.select("org.apache.ibatis.submitted.result_row.Mapper.getProducts", new ResultHandler() {
+        public void handleResult(ResultContext context) {
+          ids.add(((ResultRow) context.getResultObject()).get("id"));
+        }
+      });
+      assertEquals(Arrays.<Object>asList(1, 2, 3), ids);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectUnknownColumn() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<ResultRow> rows = sqlSession.selectList("org.apache.ibatis.submitted.result_row.Mapper.getProducts");
+      rows.get(0).get("weight");
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+}